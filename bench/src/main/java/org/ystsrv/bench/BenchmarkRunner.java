@@ -0,0 +1,79 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.bench;
+
+import java.util.Iterator;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+/**
+ * Runs the benchmarks like the JMH main class (it accepts the same command
+ * line options), always adding the GC profiler so that the allocation rate
+ * (gc.alloc.rate.norm, bytes per operation) is reported alongside the
+ * throughput. Help and listing options (-h, -l, -lp, -lrf...) are handed
+ * over to the JMH main class untouched.
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cmd = new CommandLineOptions(args);
+    if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListWithParams()
+        || cmd.shouldListProfilers() || cmd.shouldListResultFormats()) {
+      Main.main(args);
+      return;
+    }
+    OptionsBuilder builder = new OptionsBuilder();
+    builder.parent(cmd);
+    if (!hasGCProfiler(cmd))
+      builder.addProfiler(GCProfiler.class);
+    Options opts = builder.build();
+    new Runner(opts).run();
+  }
+
+  private static boolean hasGCProfiler(Options opts) {
+    for (Iterator it = opts.getProfilers().iterator(); it.hasNext();) {
+      String name = ((ProfilerConfig)it.next()).getKlass();
+      if (name.equals("gc") || name.equals(GCProfiler.class.getName()))
+        return true;
+    }
+    return false;
+  }
+}
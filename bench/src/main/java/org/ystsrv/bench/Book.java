@@ -0,0 +1,82 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.bench;
+
+import java.util.Date;
+
+/**
+ * Bean transformed by the benchmarks.
+ */
+public class Book {
+  private String title;
+  private String author;
+  private double price;
+  private Date published;
+  private int stock;
+  private boolean available;
+
+  public Book(String title, String author, double price, Date published, int stock) {
+    this.title = title;
+    this.author = author;
+    this.price = price;
+    this.published = published;
+    this.stock = stock;
+    this.available = stock > 0;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public String getAuthor() {
+    return author;
+  }
+
+  public double getPrice() {
+    return price;
+  }
+
+  public Date getPublished() {
+    return published;
+  }
+
+  public int getStock() {
+    return stock;
+  }
+
+  public boolean isAvailable() {
+    return available;
+  }
+}
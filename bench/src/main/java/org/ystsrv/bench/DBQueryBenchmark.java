@@ -0,0 +1,93 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.bench;
+
+import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ystsrv.ModelSection;
+import org.ystsrv.transformer.jdbc.DBQuery;
+import org.ystsrv.transformer.jdbc.DBQueryTransformer;
+
+/**
+ * Transformation of query results by <code>DBQueryTransformer</code>, over
+ * the in-memory JDBC stand-in {@link MemoryDB}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DBQueryBenchmark {
+
+  private static final String QUERY = "SELECT id, title, author, price, published FROM Book";
+
+  @Param({"10", "1000", "100000"})
+  public int rows;
+
+  private Connection connection;
+  private DBQueryTransformer transformer;
+
+  @Setup
+  public void setUp() throws Exception {
+    this.connection = new MemoryDB(this.rows).newConnection();
+    this.transformer = new DBQueryTransformer(Fixtures.BOOKS_HEADER,
+        "books[{#i}] = new Item({title}, {#3}, {price}, {published});", Fixtures.DATE_PATTERN);
+  }
+
+  @Benchmark
+  public String transform() throws Exception {
+    return this.transformer.transform(new DBQuery(this.connection, QUERY));
+  }
+
+  @Benchmark
+  public ModelSection transformToModelSection() throws Exception {
+    ModelSection section = new ModelSection();
+    this.transformer.transformTo(new DBQuery(this.connection, QUERY), section);
+    return section;
+  }
+}
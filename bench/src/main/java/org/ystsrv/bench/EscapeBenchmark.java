@@ -0,0 +1,96 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ystsrv.util.TextUtils;
+
+/**
+ * Escaping of JavaScript string literals with <code>TextUtils.escape</code>,
+ * in both modes (plain JavaScript and HTML safe, the one used inside the
+ * model section). The <code>plain</code> input has nothing to escape, so it
+ * measures the fast path that returns (or appends) the value untouched; the
+ * <code>escaped</code> input goes through the escaping loop.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EscapeBenchmark {
+
+  @Param({"plain", "escaped"})
+  public String input;
+
+  @Param({"false", "true"})
+  public boolean htmlSafe;
+
+  private String value;
+
+  private StringBuffer buffer;
+
+  @Setup
+  public void setUp() {
+    this.value = "plain".equals(this.input) ?
+                 "The quick brown fox jumps over the lazy dog, again and again" :
+                 "Tim O'Reilly said: \"use <b>Yeast</b> & be happy\"\n\tnew line";
+    this.buffer = new StringBuffer(256);
+  }
+
+  @Benchmark
+  public String escape() {
+    return TextUtils.escape(this.value, this.htmlSafe);
+  }
+
+  @Benchmark
+  public StringBuffer escapeToBuffer() {
+    this.buffer.setLength(0);
+    TextUtils.escape(this.value, this.buffer, this.htmlSafe);
+    return this.buffer;
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.ystsrv.manager.TemplateSource;
+
+/**
+ * Data and templates shared by the benchmarks. The data are deterministic, so
+ * that the runs are comparable; about one in ten strings needs escaping.
+ */
+public final class Fixtures {
+
+  /** Templates of the fixture set (see src/main/resources/fixtures) */
+  public static final String[] TEMPLATES = {"catalog.html", "dashboard.html", "article.html"};
+
+  /** Header and format of the transformers of the book collections */
+  public static final String BOOKS_HEADER = "books = new Array();";
+  public static final String BOOKS_FORMAT =
+      "books[{#i}] = new Item({title}, {author}, {price}, {published}, {stock}, {available});";
+  public static final String DATE_PATTERN = "dd-MM-yyyy";
+
+  private static final String[] AUTHORS = {"David Baldacci", "Danny Goodman", "Miguel de Cervantes",
+      "Tim O'Reilly", "Ursula K. Le Guin", "Jos Saramago", "Chinua Achebe"};
+
+  private Fixtures() {
+  }
+
+  /**
+   * Returns <code>n</code> books.
+   *
+   * @param n int
+   * @return List of Book
+   */
+  public static List books(int n) {
+    List books = new ArrayList(n);
+    long day = 24L * 60 * 60 * 1000;
+    for (int i = 0; i < n; i++) {
+      String title = (i % 10 == 3) ? "Book \"" + i + "\" <vol. 2>" : "Book number " + i;
+      books.add(new Book(title, AUTHORS[i % AUTHORS.length], 5 + (i % 50) * 0.75,
+                         new Date(946684800000L + (i % 3650) * day), i % 7));
+    }
+    return books;
+  }
+
+  /**
+   * Returns the content of the fixture template <code>name</code>.
+   *
+   * @param name String
+   * @return byte[]
+   * @throws IOException
+   */
+  public static byte[] template(String name) throws IOException {
+    InputStream is = Fixtures.class.getResourceAsStream("/fixtures/" + name);
+    if (is == null)
+      throw new IOException("Fixture " + name + " not found");
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int n;
+      while ((n = is.read(buffer)) != -1)
+        bos.write(buffer, 0, n);
+      return bos.toByteArray();
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * Returns a source for the fixture template <code>name</code>.
+   *
+   * @param name String
+   * @return TemplateSource
+   * @throws IOException
+   */
+  public static TemplateSource source(String name) throws IOException {
+    return new FixtureSource(name, template(name));
+  }
+
+  // Template kept in memory. It never changes, so it is never reloaded
+  private static class FixtureSource extends TemplateSource {
+    private String name;
+    private byte[] content;
+
+    FixtureSource(String name, byte[] content) {
+      super("/bench");
+      this.name = name;
+      this.content = content;
+    }
+
+    public long getLastModifiedTime() {
+      return 0;
+    }
+
+    public InputStream getInputStreamToTemplate() {
+      return new ByteArrayInputStream(this.content);
+    }
+
+    public String toString() {
+      return "Fixture " + this.name;
+    }
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import javax.sql.DataSource;
+
+/**
+ * In-memory stand-in of a JDBC driver, so that the data base benchmarks
+ * measure the transformation and not the network or the data base. Every
+ * query returns <code>rows</code> rows with the columns id (INTEGER), title,
+ * author (VARCHAR), price (DOUBLE) and published (TIMESTAMP). Only the methods
+ * used by the <code>DBQueryTransformer</code> are implemented.
+ */
+public final class MemoryDB {
+
+  private static final String[] LABELS = {"id", "title", "author", "price", "published"};
+  private static final int[] TYPES = {Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.DOUBLE,
+      Types.TIMESTAMP};
+
+  private final Object[][] data;
+
+  /**
+   * Creates a data base whose queries return <code>rows</code> rows.
+   *
+   * @param rows int
+   */
+  public MemoryDB(int rows) {
+    this.data = new Object[rows][];
+    java.util.List books = Fixtures.books(rows);
+    for (int i = 0; i < rows; i++) {
+      Book b = (Book)books.get(i);
+      this.data[i] = new Object[] {Integer.valueOf(i), b.getTitle(), b.getAuthor(),
+          Double.valueOf(b.getPrice()), new Timestamp(b.getPublished().getTime())};
+    }
+  }
+
+  /**
+   * Returns a DataSource whose connections query this data base.
+   *
+   * @return DataSource
+   */
+  public DataSource getDataSource() {
+    return (DataSource)proxy(DataSource.class, new Handler() {
+      Object call(Object proxy, String name, Object[] args) {
+        if (name.equals("getConnection"))
+          return newConnection();
+        return unsupported(name);
+      }
+    });
+  }
+
+  /**
+   * Returns a new connection to this data base.
+   *
+   * @return Connection
+   */
+  public Connection newConnection() {
+    final Connection[] con = new Connection[1];
+    con[0] = (Connection)proxy(Connection.class, new Handler() {
+      Object call(Object proxy, String name, Object[] args) {
+        if (name.equals("prepareStatement"))
+          return newStatement(con[0]);
+        if (name.equals("close") || name.equals("clearWarnings"))
+          return null;
+        if (name.equals("isClosed"))
+          return Boolean.FALSE;
+        if (name.equals("getCatalog"))
+          return "memory";
+        return unsupported(name);
+      }
+    });
+    return con[0];
+  }
+
+  private PreparedStatement newStatement(final Connection con) {
+    final PreparedStatement[] ps = new PreparedStatement[1];
+    ps[0] = (PreparedStatement)proxy(PreparedStatement.class, new Handler() {
+      Object call(Object proxy, String name, Object[] args) {
+        if (name.equals("executeQuery"))
+          return newResultSet(ps[0]);
+        if (name.equals("getConnection"))
+          return con;
+        if (name.equals("isClosed"))
+          return Boolean.FALSE;
+        if (name.startsWith("set") || name.equals("close") || name.equals("clearParameters"))
+          return null;
+        return unsupported(name);
+      }
+    });
+    return ps[0];
+  }
+
+  private ResultSet newResultSet(final PreparedStatement ps) {
+    final ResultSetMetaData md = (ResultSetMetaData)proxy(ResultSetMetaData.class, new Handler() {
+      Object call(Object proxy, String name, Object[] args) {
+        if (name.equals("getColumnCount"))
+          return Integer.valueOf(LABELS.length);
+        int col = ((Integer)args[0]).intValue() - 1;
+        if (name.equals("getColumnLabel") || name.equals("getColumnName"))
+          return LABELS[col];
+        if (name.equals("getColumnType"))
+          return Integer.valueOf(TYPES[col]);
+        if (name.equals("getPrecision") || name.equals("getScale"))
+          return Integer.valueOf(0);
+        return unsupported(name);
+      }
+    });
+    return (ResultSet)proxy(ResultSet.class, new Handler() {
+      private int row = -1;
+      private Object last;
+
+      Object call(Object proxy, String name, Object[] args) throws SQLException {
+        if (name.equals("next"))
+          return Boolean.valueOf(++row < data.length);
+        if (name.equals("getMetaData"))
+          return md;
+        if (name.equals("getStatement"))
+          return ps;
+        if (name.equals("wasNull"))
+          return Boolean.valueOf(last == null);
+        if (name.equals("close"))
+          return null;
+        if (name.equals("findColumn")) {
+          for (int i = 0; i < LABELS.length; i++)
+            if (LABELS[i].equalsIgnoreCase((String)args[0]))
+              return Integer.valueOf(i + 1);
+          throw new SQLException("Column " + args[0] + " not found");
+        }
+        if (!name.startsWith("get") || !(args[0] instanceof Integer))
+          return unsupported(name);
+        last = data[row][((Integer)args[0]).intValue() - 1];
+        if (name.equals("getLong"))
+          return Long.valueOf(last == null ? 0 : ((Number)last).longValue());
+        if (name.equals("getInt"))
+          return Integer.valueOf(last == null ? 0 : ((Number)last).intValue());
+        if (name.equals("getDouble"))
+          return Double.valueOf(last == null ? 0 : ((Number)last).doubleValue());
+        if (name.equals("getBoolean"))
+          return Boolean.valueOf(last != null && ((Boolean)last).booleanValue());
+        if (name.equals("getString"))
+          return (last == null) ? null : last.toString();
+        if (name.equals("getTimestamp") || name.equals("getObject"))
+          return last;
+        return unsupported(name);
+      }
+    });
+  }
+
+  private static Object proxy(Class type, InvocationHandler handler) {
+    return Proxy.newProxyInstance(MemoryDB.class.getClassLoader(), new Class[] {type}, handler);
+  }
+
+  private static Object unsupported(String name) {
+    throw new UnsupportedOperationException("MemoryDB does not support " + name);
+  }
+
+  // Dispatches by method name; equals, hashCode and toString are the ones of Object
+  private abstract static class Handler implements InvocationHandler {
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if (name.equals("equals"))
+        return Boolean.valueOf(proxy == args[0]);
+      if (name.equals("hashCode"))
+        return Integer.valueOf(System.identityHashCode(proxy));
+      if (name.equals("toString"))
+        return "MemoryDB " + method.getDeclaringClass().getSimpleName();
+      return call(proxy, name, args);
+    }
+
+    abstract Object call(Object proxy, String name, Object[] args) throws SQLException;
+  }
+}
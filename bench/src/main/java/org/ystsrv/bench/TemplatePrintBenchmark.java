@@ -0,0 +1,103 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ystsrv.Template;
+import org.ystsrv.transformer.NamedData;
+import org.ystsrv.transformer.TransformerSpec;
+
+/**
+ * Whole response of a template: transformation of the data and printing of
+ * the template with the new model section, by <code>Template.print</code>.
+ * The template has a <code>BeanCollectionTransformer</code> configured like
+ * in a <code>YSTConfig.xml</code> file.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TemplatePrintBenchmark {
+
+  @Param({"catalog.html", "dashboard.html", "article.html"})
+  public String template;
+
+  @Param({"10", "1000"})
+  public int books;
+
+  private Template tpl;
+  private Object[] data;
+  private ByteArrayOutputStream out;
+
+  @Setup
+  public void setUp() throws Exception {
+    Map params = new HashMap();
+    params.put("baseClass", Book.class.getName());
+    params.put("header", Fixtures.BOOKS_HEADER);
+    params.put("format", Fixtures.BOOKS_FORMAT);
+    params.put("datePattern", Fixtures.DATE_PATTERN);
+    List specs = new ArrayList();
+    specs.add(new TransformerSpec("org.ystsrv.transformer.BeanCollectionTransformer", params));
+    this.tpl = new Template(this.template, specs, Fixtures.source(this.template));
+    this.data = new Object[] {Fixtures.books(this.books), new NamedData("user", "Francisco")};
+    this.out = new ByteArrayOutputStream(64 * 1024);
+  }
+
+  @Benchmark
+  public int print() throws Exception {
+    this.out.reset();
+    this.tpl.print(this.data, this.out);
+    return this.out.size();
+  }
+}
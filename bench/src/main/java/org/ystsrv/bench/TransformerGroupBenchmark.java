@@ -0,0 +1,89 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ystsrv.ModelSection;
+import org.ystsrv.transformer.BeanCollectionTransformer;
+import org.ystsrv.transformer.NamedData;
+import org.ystsrv.transformer.TransformerGroup;
+
+/**
+ * Transformation of the objects of a typical response (a collection of beans
+ * and some named values) into a model section by a
+ * <code>TransformerGroup</code>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransformerGroupBenchmark {
+
+  @Param({"10", "1000"})
+  public int books;
+
+  private TransformerGroup group;
+  private Object[] data;
+
+  @Setup
+  public void setUp() throws Exception {
+    this.group = new TransformerGroup();
+    this.group.add(new BeanCollectionTransformer(Book.class, Fixtures.BOOKS_HEADER, Fixtures.BOOKS_FORMAT,
+                                                 Fixtures.DATE_PATTERN));
+    List list = Fixtures.books(this.books);
+    this.data = new Object[] {list, new NamedData("user", "Francisco"), new NamedData("total", list.size()),
+        new NamedData("today", new java.util.Date(0), Fixtures.DATE_PATTERN)};
+  }
+
+  @Benchmark
+  public ModelSection transform() throws Exception {
+    return this.group.transform(this.data);
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.ystsrv.manager.TemplateUtils;
+import org.ystsrv.manager.YSTTranslator;
+
+/**
+ * Translation of the fixture templates with <code>YSTTranslator</code>
+ * (parsing, translation of the <code>yst</code> elements and printing).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TranslatorBenchmark {
+
+  @Param({"catalog.html", "dashboard.html", "article.html"})
+  public String template;
+
+  private byte[] content;
+  private YSTTranslator translator;
+  private Document translated;
+
+  @Setup
+  public void setUp() throws Exception {
+    this.content = Fixtures.template(this.template);
+    this.translator = new YSTTranslator(true, false, true, TemplateUtils.guessCharEncoding(this.content));
+    this.translated = this.translator.translate(new ByteArrayInputStream(this.content));
+  }
+
+  @Benchmark
+  public Document translate() throws Exception {
+    return this.translator.translate(new ByteArrayInputStream(this.content));
+  }
+
+  @Benchmark
+  public int pprint() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(this.content.length * 2);
+    this.translator.pprint(this.translated, out);
+    return out.size();
+  }
+
+  @Benchmark
+  public int translateAndPprint() throws Exception {
+    Document doc = this.translator.translate(new ByteArrayInputStream(this.content));
+    ByteArrayOutputStream out = new ByteArrayOutputStream(this.content.length * 2);
+    this.translator.pprint(doc, out);
+    return out.size();
+  }
+}
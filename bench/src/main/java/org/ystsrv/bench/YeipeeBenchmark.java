@@ -0,0 +1,93 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ystsrv.manager.CachedTemplate;
+import org.ystsrv.manager.TemplateCacheFactory;
+import org.ystsrv.transformer.BeanCollectionTransformer;
+import org.ystsrv.transformer.NamedData;
+import org.ystsrv.transformer.TransformerGroup;
+import org.ystsrv.yeipee.ClientYeipeeStatus;
+import org.ystsrv.yeipee.YeipeeProcessor;
+
+/**
+ * Processing of the templates on the server (Yeipee) with
+ * <code>YeipeeProcessor.getProcessedTemplate</code>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class YeipeeBenchmark {
+
+  @Param({"10", "100"})
+  public int books;
+
+  private YeipeeProcessor processor;
+  private String model;
+
+  @Setup
+  public void setUp() throws Exception {
+    ClientYeipeeStatus.setStatus(ClientYeipeeStatus.YEIPEE_AND_SEND_ON);
+    CachedTemplate cached = TemplateCacheFactory.buildCache("catalog.html", Fixtures.source("catalog.html"));
+    this.processor = new YeipeeProcessor(cached, "catalog.html");
+
+    TransformerGroup group = new TransformerGroup();
+    group.add(new BeanCollectionTransformer(Book.class, Fixtures.BOOKS_HEADER, Fixtures.BOOKS_FORMAT,
+                                            Fixtures.DATE_PATTERN));
+    this.model = group.transform(new Object[] {Fixtures.books(this.books),
+                                 new NamedData("user", "Francisco")}).getData();
+  }
+
+  @Benchmark
+  public String process() throws Exception {
+    return this.processor.getProcessedTemplate(this.model);
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.transformer;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ystsrv.ModelSection;
+import org.ystsrv.bench.Book;
+import org.ystsrv.bench.Fixtures;
+
+/**
+ * Transformation of bean collections by <code>BeanFormatter</code> and
+ * <code>BeanCollectionTransformer</code> (row per statement and columnar
+ * encodings). It is in the package of the <code>BeanFormatter</code> because
+ * that class is not public.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BeanCollectionBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  public int beans;
+
+  private List books;
+  private BeanFormatter formatter;
+  private BeanCollectionTransformer transformer;
+  private BeanCollectionTransformer columnar;
+
+  @Setup
+  public void setUp() throws Exception {
+    this.books = Fixtures.books(this.beans);
+    this.formatter = new BeanFormatter(Fixtures.BOOKS_FORMAT, Book.class, Fixtures.DATE_PATTERN, null);
+    this.transformer = new BeanCollectionTransformer(Book.class, Fixtures.BOOKS_HEADER,
+                                                     Fixtures.BOOKS_FORMAT, Fixtures.DATE_PATTERN);
+    this.columnar = new BeanCollectionTransformer(Book.class, Fixtures.BOOKS_HEADER,
+                                                  Fixtures.BOOKS_FORMAT, Fixtures.DATE_PATTERN);
+    this.columnar.setColumnar(true);
+  }
+
+  @Benchmark
+  public String beanFormatter() {
+    return this.formatter.format(Fixtures.BOOKS_HEADER, this.books);
+  }
+
+  @Benchmark
+  public String collectionTransformer() {
+    return this.transformer.transform(this.books);
+  }
+
+  @Benchmark
+  public ModelSection collectionTransformerToModelSection() throws Exception {
+    ModelSection section = new ModelSection();
+    this.transformer.doTransformTo(this.books, section);
+    return section;
+  }
+
+  @Benchmark
+  public String columnarTransformer() {
+    return this.columnar.transform(this.books);
+  }
+}
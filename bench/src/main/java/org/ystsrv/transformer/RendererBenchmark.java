@@ -0,0 +1,102 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.transformer;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering of single values into JavaScript literals by
+ * <code>Renderer.renderValue</code>. It is in the package of the
+ * <code>Renderer</code> because <code>renderValue</code> is not public.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RendererBenchmark {
+
+  @Param({"string", "escapedString", "long", "double", "boolean", "date", "null", "array", "list"})
+  public String type;
+
+  private Object value;
+
+  @Setup
+  public void setUp() {
+    if (type.equals("string"))
+      value = "The quick brown fox jumps over the lazy dog";
+    else if (type.equals("escapedString"))
+      value = "Tim O'Reilly said: \"<b>Yeast</b>\"\n";
+    else if (type.equals("long"))
+      value = Long.valueOf(1234567890123L);
+    else if (type.equals("double"))
+      value = Double.valueOf(1234.5678);
+    else if (type.equals("boolean"))
+      value = Boolean.TRUE;
+    else if (type.equals("date"))
+      value = new Date(1241913600000L);
+    else if (type.equals("null"))
+      value = null;
+    else if (type.equals("array"))
+      value = new int[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+    else {
+      List list = new ArrayList();
+      for (int i = 0; i < 10; i++)
+        list.add("item " + i);
+      value = list;
+    }
+  }
+
+  @Benchmark
+  public String renderValue() {
+    return Renderer.renderValue(this.value, null, "dd-MM-yyyy", null);
+  }
+}
@@ -34,6 +34,12 @@
  */
 package org.ystsrv;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import org.ystsrv.util.ChunkedEncoder;
+
 /**
  * This class encapsulates the dynamic content that will be inserted in the
  * model section of a Yeast Template. Usually it is produced by the {@link
@@ -51,17 +57,73 @@ package org.ystsrv;
  * <p>You can get the represented model section content using a couple of
  * methods: {@link #getData} and {@link #getScriptData}. The latter will return
  * the model section enclosed by a couple of
- * <code>&lt;script&gt;...&lt;/script&gt;</code> tags.
+ * <code>&lt;script&gt;...&lt;/script&gt;</code> tags. Both contents can be
+ * also written directly in an <code>OutputStream</code> (see {@link #writeTo}
+ * and {@link #writeScriptTo}), avoiding the copies of the whole text.
+ *
+ * <p>Templates can also use a <i>streaming</i> model section. Its content is
+ * not buffered, but encoded directly in the response as it is appended, once
+ * the part of the template preceding the model section has been written.
+ * Streaming model sections can not return its content (see {@link #getData}).
  *
  * @author Francisco Jos Garca Izquierdo
- * @version 1.0
+ * @version 1.1
  * @see org.ystsrv.transformer.TransformerGroup#transform
  * @see org.ystsrv.Template#print(org.ystsrv.ModelSection,java.io.OutputStream)
  * @see org.ystsrv.servlet.YSTContext#toResponse(String)
  * @see org.ystsrv.servlet.YSTContext#getModelSection
  */
-public class ModelSection {
+public class ModelSection implements Appendable {
+  private static final String SCRIPT_BEGIN = "<script type=\"text/javascript\">\n//<![CDATA[\n";
+  private static final String SCRIPT_END = "//]]>\n</script>";
+
   private StringBuffer dataStr = new StringBuffer();
+
+  // Not null for streaming model sections
+  private ChunkedEncoder out;
+  // Streaming model sections: something has been written
+  private boolean written;
+  // Streaming model sections: a new line must precede the next appended text
+  private boolean pendingSeparator;
+  // Streaming model sections: first error writing the content. It is reported on close
+  private IOException error;
+
+  /**
+   * Creates an empty <code>ModelSection</code>, that buffers its content.
+   */
+  public ModelSection() {
+  }
+
+  private ModelSection(ChunkedEncoder out) throws IOException {
+    this.out = out;
+    this.out.write(SCRIPT_BEGIN);
+  }
+
+  /**
+   * Creates a streaming model section, that writes the opening
+   * <code>&lt;script&gt;</code> tag and then its content in <code>os</code>,
+   * encoded using <code>charset</code>. The section must be closed with
+   * {@link #close}, that reports any error produced while appending the
+   * content.
+   *
+   * @param os OutputStream
+   * @param charset Charset
+   * @return ModelSection
+   * @throws IOException Any error writing in the stream
+   */
+  static ModelSection streaming(OutputStream os, Charset charset) throws IOException {
+    return new ModelSection(new ChunkedEncoder(os, charset));
+  }
+
+  /**
+   * Returns true if this is a streaming model section.
+   *
+   * @return boolean
+   */
+  public boolean isStreaming() {
+    return this.out != null;
+  }
+
   /**
    * Adds to this <code>ModelSection</code> object some textual
    * <code>data</code>. The appended text will be inserted directly in
@@ -70,8 +132,12 @@ public class ModelSection {
    * @param data String. If it is null no data will be added
    */
   public void append(String data) {
-    if (data != null)
-      dataStr.append(data);
+    if (data != null) {
+      if (this.out == null)
+        dataStr.append(data);
+      else
+        stream(data);
+    }
   }
 
   /**
@@ -83,8 +149,58 @@ public class ModelSection {
    * @param data String. If it is null no data will be added
    */
   public void appendLine(String data) {
-    if (data != null)
-      dataStr.append(data + "\n");
+    if (data != null) {
+      if (this.out == null) {
+        dataStr.append(data).append('\n');
+      } else {
+        stream(data);
+        stream("\n");
+      }
+    }
+  }
+
+  /**
+   * Appends <code>csq</code> to this <code>ModelSection</code>, as {@link
+   * #append(String)} does. This method, and the rest of methods of the
+   * <code>Appendable</code> interface, allow the transformers to write
+   * directly in the model section (see {@link
+   * org.ystsrv.Transformer#transformTo}).
+   *
+   * @param csq CharSequence. If it is null no data will be added
+   * @return this model section
+   */
+  public Appendable append(CharSequence csq) {
+    if (csq != null) {
+      if (this.out == null)
+        dataStr.append(csq);
+      else
+        stream(csq);
+    }
+    return this;
+  }
+
+  public Appendable append(CharSequence csq, int start, int end) {
+    if (csq != null)
+      this.append(csq.subSequence(start, end));
+    return this;
+  }
+
+  public Appendable append(char c) {
+    if (this.out == null)
+      dataStr.append(c);
+    else if (this.error == null) {
+      try {
+        if (this.pendingSeparator) {
+          this.out.write('\n');
+          this.pendingSeparator = false;
+        }
+        this.out.write(c);
+        this.written = true;
+      } catch (IOException ex) {
+        this.error = ex;
+      }
+    }
+    return this;
   }
 
   /**
@@ -93,13 +209,55 @@ public class ModelSection {
    * separating the old conten from the new one with a new line character
    * (<code>\n</code>).
    *
-   * @param extraContent ModelSection
+   * @param extraContent ModelSection. It can not be a streaming model section
    */
   public void append(ModelSection extraContent) {
+    extraContent.checkBuffered();
     if (!this.isEmpty() && !extraContent.isEmpty())
-      dataStr.append("\n");
+      this.append("\n");
+
+    if (this.out == null)
+      dataStr.append(extraContent.dataStr);
+    else
+      stream(extraContent.dataStr);
+  }
+
+  /**
+   * The next non empty text appended to this streaming model section will be
+   * preceded by a new line character if the section is not empty. This
+   * behaves like {@link #append(ModelSection)} when the appended content is
+   * not known in advance.
+   */
+  void separateNext() {
+    this.pendingSeparator = !this.isEmpty();
+  }
 
-    dataStr.append(extraContent.getData());
+  private void stream(CharSequence data) {
+    if (data.length() == 0 || this.error != null)
+      return;
+    try {
+      if (this.pendingSeparator) {
+        this.out.write("\n");
+        this.pendingSeparator = false;
+      }
+      this.out.write(data);
+      this.written = true;
+    } catch (IOException ex) {
+      this.error = ex;
+    }
+  }
+
+  /**
+   * Writes the closing <code>&lt;/script&gt;</code> tag of this streaming model
+   * section, and releases the encoder.
+   *
+   * @throws IOException Any error writing in the stream
+   */
+  void close() throws IOException {
+    if (this.error != null)
+      throw this.error;
+    this.out.write(SCRIPT_END);
+    this.out.close();
   }
 
   /**
@@ -108,9 +266,11 @@ public class ModelSection {
    * <code>&lt;script&gt;...&lt;/script&gt;</code> tags
    *
    * @return String
+   * @throws IllegalStateException if this is a streaming model section
    */
   public String getScriptData() {
-    return "<script type=\"text/javascript\">\n//<![CDATA[\n" + dataStr.toString() + "//]]>\n</script>";
+    checkBuffered();
+    return SCRIPT_BEGIN + dataStr.toString() + SCRIPT_END;
   }
 
   /**
@@ -118,17 +278,72 @@ public class ModelSection {
    * represented by this object.
    *
    * @return String
+   * @throws IllegalStateException if this is a streaming model section
    */
   public String getData() {
+    checkBuffered();
     return dataStr.toString();
   }
 
+  /**
+   * Writes the text of the model section in <code>os</code>, encoded using
+   * <code>charset</code>.
+   *
+   * @param os OutputStream
+   * @param charset Charset
+   * @throws IOException Any error writing in the stream
+   * @throws IllegalStateException if this is a streaming model section
+   */
+  public void writeTo(OutputStream os, Charset charset) throws IOException {
+    checkBuffered();
+    ChunkedEncoder enc = new ChunkedEncoder(os, charset);
+    enc.write(dataStr);
+    enc.close();
+  }
+
+  /**
+   * Writes the text of the model section in <code>os</code>, enclosed in a
+   * couple of <code>&lt;script&gt;...&lt;/script&gt;</code> tags, and encoded
+   * using <code>charset</code>.
+   *
+   * @param os OutputStream
+   * @param charset Charset
+   * @throws IOException Any error writing in the stream
+   * @throws IllegalStateException if this is a streaming model section
+   */
+  public void writeScriptTo(OutputStream os, Charset charset) throws IOException {
+    checkBuffered();
+    ChunkedEncoder enc = new ChunkedEncoder(os, charset);
+    enc.write(SCRIPT_BEGIN);
+    enc.write(dataStr);
+    enc.write(SCRIPT_END);
+    enc.close();
+  }
+
+  /**
+   * Returns the buffer that holds the content of this model section, so that
+   * the transformers can write their text directly in it, with no
+   * intermediate strings (appending text to the buffer is the same than using
+   * {@link #append(CharSequence)}).
+   *
+   * @return StringBuffer the buffer, or null if this is a streaming model
+   *   section
+   */
+  public StringBuffer getBuffer() {
+    return this.out == null ? this.dataStr : null;
+  }
+
+  private void checkBuffered() {
+    if (this.out != null)
+      throw new IllegalStateException("The content of a streaming model section has been already sent");
+  }
+
   /**
    * Returns trues if the model section objet does not contain any data.
    * @return boolean
    */
   public boolean isEmpty() {
-    return this.dataStr.length()==0;
+    return this.out == null ? this.dataStr.length()==0 : !this.written;
   }
 
   /**
@@ -136,6 +351,8 @@ public class ModelSection {
    * @return String
    */
   public String toString() {
+    if (this.out != null)
+      return "Streaming model section";
     return getScriptData();
   }
 
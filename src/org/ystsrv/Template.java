@@ -72,7 +72,10 @@ import org.ystsrv.yeipee.ClientYeipeeStatus;
  * information specified in the configuration file <code>YSTConfig.xml</code>.
  * In that file you can specify a location for a given template, and a set of
  * transformers that it will use. <code>YSTConfig.xml</code> file is located
- * inside the template store where the template resides.
+ * inside the template store where the template resides. The
+ * <code>parallel="true"</code> attribute of the <code>template</code> element
+ * makes the template transform its data in parallel (see {@link
+ * #setParallelTransformation}).
  *
  * @author Francisco Jos Garca Izquierdo
  * @version 2.0
@@ -92,10 +95,6 @@ public class Template {
   // Template cache
   protected CachedTemplate cache;
 
-  // This message is inserted preceding the new model section once the template is processed
-  private static final String PROCESSING_STAMP = "<!-- Processed with Yeast-Server v "
-                                                 +Config.YST_SERVER_VERSION+" -->\n";
-
 
   /**
    * Builds a <code>Template</code> object from its <code>source</code>,
@@ -193,25 +192,14 @@ public class Template {
 
     TemplateContent template = getCachedContent(); // It may reload the template
     if (template != null) {
-      byte[] designVer = template.getDesignerVersion();
       if (template.isTemplate()) {
-        os.write(designVer, 0, template.getMODELInit());
-        os.write(PROCESSING_STAMP.getBytes());
-        String encoding = this.getTemplateEncoding();
-        if (encoding != null) {
-          // To consider the  (euro) char, not included in ISO-8859-1, ISO-8859-9
-          encoding = encoding.equalsIgnoreCase("ISO8859_1") ? "Cp1252" : encoding;
-          encoding = encoding.equalsIgnoreCase("ISO8859_9") ? "Cp1254" : encoding;
-          os.write(newModel.getBytes(encoding));
-        } else { // Uses the default encoding
-          os.write(newModel.getBytes());
-        }
-        os.write(designVer, template.getMODELEnd(), designVer.length - template.getMODELEnd());
+        // Static segments and charset are prebuilt by TemplateContent; only the model is encoded
+        template.write(template.encodeModel(newModel), os);
         os.flush();
         Debug.fine(LOGGER_NAME, "Printed template " + this.id + " with new model: " + newModel);
       } else {
         Debug.warning(LOGGER_NAME, "Template "+this+" has not got a model section");
-        os.write(designVer);
+        template.writeDesignerVersion(os);
         os.flush();
         Debug.fine(LOGGER_NAME, "Printed template desinger's version. New model not included");
       }
@@ -242,6 +230,8 @@ public class Template {
    */
   public void print(Object data[], OutputStream os)
       throws IOException, YSTException, ConfigurationException {
+    if (printStreaming(null, data, os))
+      return;
     ModelSection dD = transformers.transform(data);
     this.print(dD, os);
   }
@@ -266,10 +256,88 @@ public class Template {
    */
   public void print(Collection data, OutputStream os)
       throws IOException, YSTException, ConfigurationException, IllegalArgumentException {
+    if (printStreaming(null, (data != null) ? data.toArray() : null, os))
+      return;
     ModelSection dD = transformers.transform(data);
     this.print(dD, os);
   }
 
+  /**
+   * Writes the template content, with the new actual content of the model
+   * section, in the <code>os</code> OutputStream. The new model section will
+   * contain the content of <code>head</code> followed by the transformation of
+   * the objects contained in <code>data</code>, as if the result of {@link
+   * #makeModel(java.util.Collection)} were appended to <code>head</code> (see
+   * {@link org.ystsrv.ModelSection#append(ModelSection)}).
+   *
+   * @param head <code>ModelSection</code> object with the first part of the new
+   *   model section. It can not be null
+   * @param data objects that will be used to generate the rest of the model
+   *   section. It can be null
+   * @param os OutputStream to which the template will be written. It can not
+   *   be null
+   * @throws IOException Any error writing the template (or reloading if it is
+   *   not in the cache)
+   * @throws ConfigurationException if some of the associated transformers
+   *   returns <code>null</code> in its {@link
+   *   org.ystsrv.Transformer#transformedClass} method
+   * @throws YSTException Any error processing the template has ocurred.
+   * @throws IllegalArgumentException if the given <code>head</code> or the
+   *   given <code>os</code> output stream are null
+   */
+  public void print(ModelSection head, Collection data, OutputStream os)
+      throws IOException, YSTException, ConfigurationException, IllegalArgumentException {
+    if (head == null)
+      throw new IllegalArgumentException("Null newModel are not allowed");
+    if (printStreaming(head, (data != null) ? data.toArray() : null, os))
+      return;
+    ModelSection dD = transformers.transform(data);
+    if (!dD.isEmpty())
+      head.append(dD);
+    this.print(head, os);
+  }
+
+  /**
+   * Returns true if the template can encode its model section directly in the
+   * response while it is built (see {@link Config#STREAM_MODEL_SECTION}).
+   * Templates that need the whole model section before writing anything must
+   * return false.
+   *
+   * @return boolean
+   */
+  protected boolean canStreamModel() {
+    return true;
+  }
+
+  // Writes the template transforming the data directly in the response. Returns
+  // false (and writes nothing) if the template can not be printed in that way
+  private boolean printStreaming(ModelSection head, Object[] data, OutputStream os)
+      throws IOException, YSTException {
+    if (!Config.STREAM_MODEL_SECTION || !canStreamModel())
+      return false;
+    if (os == null)
+      throw new IllegalArgumentException("Null OutputStream are not allowed");
+    Debug.check(transformers != null, "The template has not got transformers");
+
+    TemplateContent template = getCachedContent(); // It may reload the template
+    if (template == null || !template.isTemplate() || template.getModelCharset() == null)
+      return false;
+
+    template.writePrefix(os);
+    ModelSection newModel = ModelSection.streaming(os, template.getModelCharset());
+    if (head != null) {
+      newModel.append(head);
+      newModel.separateNext();
+    }
+    transformers.transformInto(newModel, data);
+    manageYeipeeStatus(newModel);
+    newModel.close();
+    template.writeSuffix(os);
+    os.flush();
+    Debug.fine(LOGGER_NAME, "Printed template " + this.id + " with streamed model section");
+    return true;
+  }
+
   /**
    * Writes the template content, with the new actual content of the
    * model section, in the <code>os</code> OutputStream. The new data
@@ -291,8 +359,37 @@ public class Template {
       throw new IllegalArgumentException("Null newModel are not allowed");
     manageYeipeeStatus(newModel);
 
-    this.print(newModel.getScriptData(), os);
+    this.printModel(newModel, os);
+  }
 
+  /**
+   * Writes the template content, with the content of <code>newModel</code> as
+   * model section, in the <code>os</code> OutputStream. The model section is
+   * encoded directly in the stream, without building intermediate copies.
+   *
+   * @param newModel <code>ModelSection</code> object encapsulating the new
+   *   content of the model section
+   * @param os OutputStream to which the template will be written
+   * @throws IOException Any error writing the template (or reloading if it is
+   *   not in the cache)
+   * @throws YSTException Any error processing the template has ocurred.
+   */
+  protected void printModel(ModelSection newModel, OutputStream os) throws IOException, YSTException {
+    if (os == null)
+      throw new IllegalArgumentException("Null OutputStream are not allowed");
+    Debug.check(transformers != null, "The template has not got transformers");
+
+    TemplateContent template = getCachedContent(); // It may reload the template
+    if (template != null && template.isTemplate() && template.getModelCharset() != null) {
+      template.writePrefix(os);
+      newModel.writeScriptTo(os, template.getModelCharset());
+      template.writeSuffix(os);
+      os.flush();
+      if (Debug.hasFineLevel(LOGGER_NAME))
+        Debug.fine(LOGGER_NAME, "Printed template " + this.id + " with new model: " + newModel);
+    } else {
+      this.print(newModel.getScriptData(), os);
+    }
   }
 
   private static void manageYeipeeStatus(ModelSection newModel) {
@@ -364,6 +461,17 @@ public class Template {
     return transformers.transform(data);
   }
 
+  /**
+   * Sets if the objects of the model section are transformed in parallel. See
+   * {@link TransformerGroup#isParallel} for details. A single request can
+   * also choose the mode with {@link TransformerGroup#setRequestParallel}.
+   *
+   * @param parallel boolean
+   */
+  public void setParallelTransformation(boolean parallel) {
+    this.transformers.setParallel(parallel);
+  }
+
   private void setTransformers(TransformerGroup transfomers) {
     Debug.prec(transfomers, "transformers can not be null");
     this.transformers = transfomers;
@@ -36,10 +36,11 @@ package org.ystsrv;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 import javax.servlet.ServletContext;
 
 import org.ystsrv.debug.Debug;
@@ -48,7 +49,9 @@ import org.ystsrv.manager.Config;
 import org.ystsrv.manager.FileTemplateStore;
 import org.ystsrv.manager.ServletContextTemplateStore;
 import org.ystsrv.manager.TemplateStore;
+import org.ystsrv.util.SingleFlightRegistry;
 import org.ystsrv.util.TextUtils;
+import org.ystsrv.yeipee.ClientYeipeeStatus;
 
 /**
  * This class is the responsible for providing the application with Yeast
@@ -94,7 +97,7 @@ public class TemplateManager {
   private static final String DEFAULT_TEMPLATE_STORE = "/"+Config.DEFAULT_TEMPLATE_STORE_NAME;
 
   // Cache of TemplateStore objects (key - store name); actually contains lists of TemplateStore objects
-  private static Map cachedStores = new HashMap();
+  private static SingleFlightRegistry cachedStores = new SingleFlightRegistry();
 
   /**
    * Calls the {@link #getTemplate(String, String, ServletContext)} method to
@@ -179,16 +182,7 @@ public class TemplateManager {
     }
     id = TextUtils.normalizePath(id);
 
-    // For a certain templateStore name there may be at most three diferent
-    // TemplateStore objects (due to templates accesed as file, as context
-    // resources or classpath resources
-    List stores = null;
-    synchronized (cachedStores) {
-      stores = (List)cachedStores.get(templateStore);
-      if (stores == null) {
-        stores = initStores(templateStore, context);
-      }
-    }
+    List stores = getStores(templateStore, context);
     Template template = null;
     List triedExcps = new ArrayList(3);
     for (int i = 0; i < stores.size(); i++) {
@@ -211,6 +205,126 @@ public class TemplateManager {
     return template;
   }
 
+  /**
+   * Builds all the templates of the template stores named in
+   * <code>templateStores</code>, so that the first requests find them already
+   * translated and cached. The templates of a store are those that have a
+   * configuration element in its <code>YSTConfig.xml</code> file and, if
+   * <code>scanStores</code> is true, all the .html files in the store. If the
+   * server may process templates (Yeipee), both versions of each template are
+   * built.
+   *
+   * <p>Templates are built in parallel, using at most
+   * <code>parallelism</code> threads. The build time of each template and
+   * the failures are logged. Failures do not stop the warm up.
+   *
+   * @param templateStores comma separated names of the template stores. If it
+   *   is null, the default store is warmed up
+   * @param context ServletContext that provides access to web application
+   *   resources. It can be null
+   * @param scanStores must the stores be scanned looking for .html files?
+   * @param parallelism maximum number of threads building templates
+   * @return number of templates that could not be built
+   */
+  public static int warmUp(String templateStores, ServletContext context, boolean scanStores,
+                           int parallelism) {
+    long start = System.currentTimeMillis();
+    int[] statuses = Config.MAY_PROCESS_ON_SERVER ?
+                     new int[] {ClientYeipeeStatus.NOT_YEIPEE_AND_SEND_OFF,
+                                ClientYeipeeStatus.YEIPEE_AND_SEND_ON} :
+                     new int[] {ClientYeipeeStatus.DISABLE_YEIPEE_ON_CLIENT};
+
+    List tasks = new ArrayList();
+    StringTokenizer st = new StringTokenizer(
+        (templateStores != null) ? templateStores : DEFAULT_TEMPLATE_STORE, ",");
+    while (st.hasMoreTokens()) {
+      String storeName = TextUtils.normalizePath(st.nextToken().trim());
+      List ids = new ArrayList();
+      List stores;
+      try {
+        stores = getStores(storeName, context);
+      } catch (Exception ex) { // Never thrown by the loader
+        Debug.warning(LOGGER_NAME, "Warm up: template store " + storeName + " not available", ex);
+        continue;
+      }
+      for (int i = 0; i < stores.size(); i++) {
+        List storeIds = ((TemplateStore)stores.get(i)).getTemplateIds(scanStores);
+        for (int j = 0; j < storeIds.size(); j++) {
+          if (!ids.contains(storeIds.get(j)))
+            ids.add(storeIds.get(j));
+        }
+      }
+      for (int i = 0; i < ids.size(); i++)
+        for (int j = 0; j < statuses.length; j++)
+          tasks.add(new WarmUpTask(storeName, (String)ids.get(i), statuses[j], context));
+    }
+    Debug.info(LOGGER_NAME, "Warming up " + tasks.size() + " templates using " + parallelism + " threads");
+
+    int failures = 0;
+    if (!tasks.isEmpty()) {
+      ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+      try {
+        List results = pool.invokeAll(tasks);
+        for (int i = 0; i < results.size(); i++) {
+          try {
+            if (!((Boolean)((java.util.concurrent.Future)results.get(i)).get()).booleanValue())
+              failures++;
+          } catch (Exception ex) {
+            failures++;
+          }
+        }
+      } finally {
+        pool.shutdown();
+      }
+    }
+    Debug.info(LOGGER_NAME, "Warm up finished in " + (System.currentTimeMillis() - start) + " ms: " +
+               (tasks.size() - failures) + " templates built, " + failures + " failures");
+    return failures;
+  }
+
+  // Builds (and caches) one version of a template. Returns false if it fails
+  private static class WarmUpTask implements Callable {
+    private String templateStore;
+    private String id;
+    private int yeipeeStatus;
+    private ServletContext context;
+
+    WarmUpTask(String templateStore, String id, int yeipeeStatus, ServletContext context) {
+      this.templateStore = templateStore;
+      this.id = id;
+      this.yeipeeStatus = yeipeeStatus;
+      this.context = context;
+    }
+
+    public Object call() {
+      String version = ClientYeipeeStatus.mustYeipee(yeipeeStatus) ? " (Yeipee)" : "";
+      long start = System.currentTimeMillis();
+      try {
+        ClientYeipeeStatus.setStatus(yeipeeStatus);
+        getTemplate(templateStore, id, context);
+        Debug.info(LOGGER_NAME, "Warm up: template " + id + version + " of store " + templateStore +
+                   " built in " + (System.currentTimeMillis() - start) + " ms");
+        return Boolean.TRUE;
+      } catch (Exception ex) {
+        Debug.warning(LOGGER_NAME, "Warm up: template " + id + version + " of store " +
+                      templateStore + " not built", ex);
+        return Boolean.FALSE;
+      }
+    }
+  }
+
+  // For a certain templateStore name there may be at most three diferent
+  // TemplateStore objects (due to templates accesed as file, as context
+  // resources or classpath resources
+  private static List getStores(final String templateStore, final ServletContext context)
+      throws IOException, YSTException {
+    return (List)cachedStores.getOrLoad(templateStore, new SingleFlightRegistry.Loader() {
+      public Object load() {
+        return initStores(templateStore, context);
+      }
+    });
+  }
+
   private static void reportErrors(String templateStore, String id, List triedExcps)
       throws IOException {
     StringBuffer msg = new StringBuffer("Exception loading template " + id + " in store " +
@@ -262,7 +376,6 @@ public class TemplateManager {
                  "ClasspathTemplateStore not build for template store " + templateStore + " [" +
                  ex.getMessage() + "]");
     }
-    cachedStores.put(templateStore, managers);
     return managers;
   }
 }
@@ -34,6 +34,8 @@
  */
 package org.ystsrv;
 
+import java.io.IOException;
+
 /**
  * Abstract class for classes that will adapt objects of the application
  * business model to the template design model. Using the {@link #transform}
@@ -145,6 +147,46 @@ public abstract class Transformer {
    */
   abstract public String transform(Object data) throws TransformationException;
 
+  /**
+   * Appends to <code>out</code> the transformation of the <code>data</code>
+   * business object. The default implementation appends the string returned
+   * by {@link #transform}. Transformers that produce large texts should
+   * redefine this method to write the transformation directly in
+   * <code>out</code>, avoiding the intermediate string. {@link
+   * org.ystsrv.transformer.TransformerGroup} uses this method to build the
+   * model section.
+   *
+   * @param data Object
+   * @param out Appendable
+   * @throws TransformationException
+   * @throws IOException Any error appending to <code>out</code>
+   */
+  public void transformTo(Object data, Appendable out) throws TransformationException, IOException {
+    String s = this.transform(data);
+    if (s != null) out.append(s);
+  }
+
+  /**
+   * Returns true if <code>c</code> redefines the public method
+   * <code>name</code> declared by <code>base</code>. The transformers that
+   * redefine {@link #transformTo} to write their transformation directly use
+   * it to fall back to {@link #transform} (or the method their subclasses
+   * are meant to redefine) when a subclass redefines it.
+   *
+   * @param c Class the class of the transformer
+   * @param base Class the class that declares the method
+   * @param name String
+   * @param params Class[] types of the parameters of the method
+   * @return boolean
+   */
+  protected static boolean redefines(Class c, Class base, String name, Class[] params) {
+    try {
+      return c.getMethod(name, params).getDeclaringClass() != base;
+    } catch (NoSuchMethodException ex) {
+      return false;
+    }
+  }
+
   /**
    * Returns the class of the objects that this transformer knows to transform.
    *
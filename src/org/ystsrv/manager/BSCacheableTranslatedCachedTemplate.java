@@ -8,7 +8,6 @@ import java.lang.ref.SoftReference;
 
 import org.w3c.dom.Document;
 import org.ystsrv.debug.Debug;
-import org.ystsrv.util.InMemoryCachedReference;
 
 
 public class BSCacheableTranslatedCachedTemplate extends TranslatedCachedTemplate {
@@ -22,29 +21,36 @@ public class BSCacheableTranslatedCachedTemplate extends TranslatedCachedTemplat
     Debug.prec(id);
     this.templateId = id;
     this.source = source;
-    if (Config.TRANSLATED_TEMPLATES_DIR != null) {
-      String fileName = id.substring(1) + java.util.UUID.randomUUID();
-      internalBodyFileName = Config.getCacheBodyResolverURL()+fileName+".js";
-      this.internalFile = new File(Config.TRANSLATED_TEMPLATES_DIR + '/' + fileName + ".html.tmp");
-      this.internalFile.deleteOnExit();
-      this.internalBodyFile = new File(Config.TRANSLATED_TEMPLATES_DIR + '/' + fileName + ".js.tmp");
-      this.internalBodyFile.deleteOnExit();
+    if (Config.TRANSLATED_TEMPLATES_DIR != null && !Config.PERSISTENT_TRANSLATIONS) {
+      setInternalFiles(id.substring(1) + java.util.UUID.randomUUID(), true);
     }
-    this.rContent = InMemoryCachedReference.newInstance(init());
+    setContent(init());
   }
 
-  /**
-   * Translate the template.
-   * @return TemplateContent
-   * @throws IOException
-   */
-  protected TemplateContent init() throws IOException {
-    lastLoad = this.source.getLastModifiedTime();
+  protected void setInternalFiles(String fileName, boolean temporal) {
+    super.setInternalFiles(fileName, temporal);
+    internalBodyFileName = Config.getCacheBodyResolverURL()+fileName+".js";
+    this.internalBodyFile = new File(Config.TRANSLATED_TEMPLATES_DIR + '/' + fileName + ".js.tmp");
+    if (temporal)
+      this.internalBodyFile.deleteOnExit();
+  }
 
-    byte[] initialContent = TemplateUtils.readTemplate(this.source.getInputStreamToTemplate());
+  protected File[] getInternalFiles() {
+    return new File[] {this.internalFile, this.internalBodyFile};
+  }
 
-    this.charSetEncoding = TemplateUtils.guessCharEncoding(initialContent);
+  // The URL of the body is included in the translated template
+  protected String getTranslationOptions() {
+    return "C;hideYSTAttrs;hideErrors;" + this.charSetEncoding + ";" + Config.getCacheBodyResolverURL();
+  }
 
+  /**
+   * Translate the template, storing its body apart.
+   * @param initialContent byte[]
+   * @return byte[]
+   * @throws IOException
+   */
+  protected byte[] translate(byte[] initialContent) throws IOException {
     byte [] translatedContent = initialContent;
 
     YSTTranslatorCacher translator = new YSTTranslatorCacher(true, false, true, this.charSetEncoding);
@@ -57,14 +63,8 @@ public class BSCacheableTranslatedCachedTemplate extends TranslatedCachedTemplat
 
       if (this.internalFile != null) {
         storeTmpBody(translator.getCachedBody().getBytes(this.charSetEncoding));
-        storeTmpTemplate(translatedContent);
       }
-
-      int[] bounds = TemplateUtils.findModelSectionBounds(translatedContent);
-      this.modelInit = bounds[0];
-      this.modelEnd = bounds[1];
-
-      return new TemplateContent(translatedContent, bounds[0], bounds[1]);
+      return translatedContent;
     } catch (TranslatingException ex) {
       Debug.error(LOGGER_NAME, "Error translating template " + this.templateId, ex);
       IOException io = new IOException("Error translating template " + ex.getMessage());
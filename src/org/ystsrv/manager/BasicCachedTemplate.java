@@ -35,15 +35,12 @@
 package org.ystsrv.manager;
 
 import java.io.IOException;
-import java.lang.ref.SoftReference;
 
 import org.ystsrv.debug.Debug;
-import org.ystsrv.util.InMemoryCachedReference;
 
 /**
  * Stores the content of the template in a weak reference taking care of
- * reloading the template if there is a new version of it or if the weak
- * reference is garbage collected.
+ * reloading the template if the weak reference is garbage collected.
  *
  * @author Francisco Jos Garca Izquierdo
  * @version 1.0
@@ -55,10 +52,10 @@ class BasicCachedTemplate extends CachedTemplate {
   BasicCachedTemplate(String id, TemplateSource source) throws IOException {
     super(id, source);
 
-    this.rContent = InMemoryCachedReference.newInstance(init());
+    setContent(init());
   }
 
-  private TemplateContent init() throws IOException {
+  protected TemplateContent init() throws IOException {
     lastLoad = this.source.getLastModifiedTime();
 
     byte[] content = TemplateUtils.readTemplate(this.source.getInputStreamToTemplate());
@@ -68,33 +65,14 @@ class BasicCachedTemplate extends CachedTemplate {
     int[] bounds = TemplateUtils.findModelSectionBounds(content);
     this.modelInit = bounds[0];
     this.modelEnd = bounds[1];
-    return new TemplateContent(content, bounds[0], bounds[1]);
+    return new TemplateContent(content, bounds[0], bounds[1], this.charSetEncoding);
   }
 
-  // Este mtodo puede ser llamado de forma concurrente por varios hilos
-  // Usa atributos miembro, que deben sincronizarse
-  // Es posible que si no se sincroniza, pueda dar lugar a varias recargas
-  // de la misma plantilla, lo cual sera ineficiente
-  public synchronized TemplateContent getContent() throws IOException {
-    Debug.check(this.rContent != null);
-    TemplateContent content = null;
-    if (hasNewVersion()) {
-      Debug.info(LOGGER_NAME,
-                 "New version of template " + this.templateId + ". Reloading template from " +
-                 this.source);
-      content = init();
-      this.rContent = InMemoryCachedReference.newInstance(content);
-    } else {
-      content = (TemplateContent)this.rContent.get();
-      if (content == null) {
-        Debug.fine(LOGGER_NAME,
-                   "Invalid weak reference. Reloading template " + this.templateId + " from " +
-                   this.source + ".");
-        content = new TemplateContent(TemplateUtils.readTemplate(this.source.getInputStreamToTemplate()),
-                                         this.modelInit, this.modelEnd);
-        this.rContent = InMemoryCachedReference.newInstance(content);
-      }
-    }
-    return content;
+  protected TemplateContent recoverContent() throws IOException {
+    Debug.fine(LOGGER_NAME,
+               "Invalid weak reference. Reloading template " + this.templateId + " from " +
+               this.source + ".");
+    return new TemplateContent(TemplateUtils.readTemplate(this.source.getInputStreamToTemplate()),
+                               this.modelInit, this.modelEnd, this.charSetEncoding);
   }
 }
@@ -35,25 +35,43 @@
 package org.ystsrv.manager;
 
 import java.io.IOException;
-import java.lang.ref.SoftReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.ystsrv.debug.Debug;
 import org.ystsrv.util.InMemoryCachedReference;
+import org.ystsrv.util.MemoryBudget;
 
 /**
  * Base class for template content caches. Stores the content of the template in
- * a weak reference taking care of reloading the template if there is a new
- * version of it or if the weak reference is garbage collected.
+ * a weak reference taking care of reloading the template if the weak reference
+ * is garbage collected or the content is evicted from the bounded cache (see
+ * {@link Config#TEMPLATE_CACHE_MAX_BYTES}).
+ *
+ * <p>New versions of the template are detected out of the request path by the
+ * {@link TemplateReloader}, that calls {@link #reload}. The new content is
+ * published replacing the reference, so readers never block nor check the
+ * template source.
  *
  * @author Francisco Jos Garca Izquierdo
- * @version 1.0
+ * @version 1.1
  */
 abstract public class CachedTemplate {
 
   protected static final String LOGGER_NAME = "ystsrv.manager";
 
-  // The content is cached using a weak reference
-  protected InMemoryCachedReference rContent;
+  // Memory budget shared by the contents of all the templates (if they are bounded)
+  private static final MemoryBudget CONTENT_BUDGET = (Config.TEMPLATE_CACHE_MAX_BYTES > 0) ?
+      new MemoryBudget(Config.TEMPLATE_CACHE_MAX_BYTES) : null;
+
+  // The content is cached using a weak reference. Reloads replace the reference
+  protected volatile InMemoryCachedReference rContent;
+
+  private static final AtomicReferenceFieldUpdater CONTENT =
+      AtomicReferenceFieldUpdater.newUpdater(CachedTemplate.class, InMemoryCachedReference.class, "rContent");
+
+  // Lock of the recoveries of the content. It is not the lock of reload, so
+  // the requests do not wait for a new version to be loaded
+  private final Object recoverLock = new Object();
 
   protected TemplateSource source;
 
@@ -64,7 +82,10 @@ abstract public class CachedTemplate {
   protected String templateId;
 
   // charSet encoding used in the template
-  protected String charSetEncoding;
+  protected volatile String charSetEncoding;
+
+  // Number of times the template has been reloaded because of a new version
+  private volatile int version;
 
   protected CachedTemplate() {
   }
@@ -91,17 +112,129 @@ abstract public class CachedTemplate {
   }
 
   /**
-   * Returns the content of the template ({@link TemplateContent}} The cache
-   * strategy is implemented here.
-   * @return String
+   * Returns the content of the template ({@link TemplateContent}}. If the
+   * weak reference has been garbage collected, the content is recovered (see
+   * {@link #recoverContent}).
+   * @return TemplateContent
    * @throws IOException
    * @see TemplateContent
    */
-  public abstract TemplateContent getContent() throws IOException;
+  public TemplateContent getContent() throws IOException {
+    Debug.check(this.rContent != null);
+    TemplateContent content = (TemplateContent)this.rContent.get();
+    if (content == null)
+      content = recover();
+    return content;
+  }
+
+  // Este mtodo puede ser llamado de forma concurrente por varios hilos
+  // Se sincroniza para no recuperar varias veces el mismo contenido
+  private TemplateContent recover() throws IOException {
+    synchronized (this.recoverLock) {
+      while (true) {
+        InMemoryCachedReference evicted = this.rContent;
+        // El fallo ya se ha contado en getContent
+        TemplateContent content = (TemplateContent)evicted.peek();
+        if (content != null)
+          return content;
+        content = recoverContent();
+        // Only if no new version has been published meanwhile
+        if (CONTENT.compareAndSet(this, evicted, newReference(content))) {
+          evicted.release();
+          if (CONTENT_BUDGET != null)
+            Debug.fine(LOGGER_NAME, "Template " + this.templateId + " content recovered. " + CONTENT_BUDGET);
+          return content;
+        }
+      }
+    }
+  }
+
+  /**
+   * Caches <code>content</code>, replacing the previous content. If the
+   * template contents are bounded (see {@link Config#TEMPLATE_CACHE_MAX_BYTES}),
+   * the content can be evicted when other templates are loaded; it will be
+   * recovered when needed (see {@link #recoverContent}).
+   *
+   * @param content TemplateContent
+   */
+  protected void setContent(TemplateContent content) {
+    InMemoryCachedReference old = (InMemoryCachedReference)CONTENT.getAndSet(this, newReference(content));
+    if (old != null)
+      old.release();
+  }
+
+  private static InMemoryCachedReference newReference(TemplateContent content) {
+    return InMemoryCachedReference.newInstance(content, content.getHeapSize(), CONTENT_BUDGET);
+  }
+
+  /**
+   * Returns the memory budget of the template contents, that holds the usage
+   * counters of the cache; or null if the template contents are not bounded.
+   *
+   * @return MemoryBudget
+   */
+  public static MemoryBudget getContentBudget() {
+    return CONTENT_BUDGET;
+  }
+
+  /**
+   * Loads the content of the template for the first time, or when there is a
+   * new version of it.
+   *
+   * @return TemplateContent
+   * @throws IOException
+   */
+  protected abstract TemplateContent init() throws IOException;
+
+  /**
+   * Loads again the content of the template when the weak reference holding it
+   * has been garbage collected. The template has not changed.
+   *
+   * @return TemplateContent
+   * @throws IOException
+   */
+  protected abstract TemplateContent recoverContent() throws IOException;
+
+  /**
+   * Loads the new version of the template and publishes it. Meanwhile, the
+   * old version is still served, and recovered if it is evicted: a recovery
+   * that ends after the new version is published is discarded.
+   *
+   * @throws IOException if the new version can not be loaded. The old version
+   *   is kept.
+   */
+  synchronized void reload() throws IOException {
+    Debug.info(LOGGER_NAME,
+               "New version of template " + this.templateId + ". Reloading template from " +
+               this.source);
+    setContent(init());
+    this.version++;
+  }
+
+  /**
+   * Returns the number of times the template has been reloaded. Objects
+   * built from the template content can compare this value to know if they
+   * are stale.
+   *
+   * @return int
+   */
+  public int getVersion() {
+    return this.version;
+  }
+
+  /**
+   * Returns true if the template can be reloaded (i.e. its source provides
+   * its modification time).
+   *
+   * @return boolean
+   */
+  boolean isReloadable() {
+    return lastLoad > 0;
+  }
 
   /**
    * Determine if there is a new version of the template. If it is so, the
-   * template will be reloaded
+   * template will be reloaded. It is used by the {@link TemplateReloader}
    *
    * @return boolean
    */
@@ -111,4 +244,13 @@ abstract public class CachedTemplate {
     else
       return false; // will not be reloaded
   }
+
+  /**
+   * Returns the source of the template.
+   *
+   * @return TemplateSource
+   */
+  TemplateSource getSource() {
+    return this.source;
+  }
 }
@@ -90,6 +90,157 @@ public class Config {
 
   public static String TRANSLATED_TEMPLATES_DIR; //20090720
 
+  /**
+   * Must the static segments of the templates (the parts preceding and
+   * following the model section) be kept in direct byte buffers? Only useful
+   * when the container output streams are also NIO channels.
+   */
+  public static boolean USE_DIRECT_BUFFERS = false;
+
+  /**
+   * Must the model sections be encoded directly in the response while the
+   * data are transformed? If a transformation fails, the response will be
+   * partially sent.
+   */
+  public static boolean STREAM_MODEL_SECTION = false;
+
+  /**
+   * Must the responses be compressed (gzip or deflate, as accepted by the
+   * client)? The static parts of the templates are compressed only once; only
+   * the model sections are compressed on each request. Disable any
+   * compressing filter of the container for the Yeast servlets when enabled.
+   */
+  public static boolean COMPRESS_OUTPUT = false;
+
+  /**
+   * Must the strings of the model sections also escape <code>&lt;</code>,
+   * <code>&gt;</code>, <code>&amp;</code> and the unicode line separators?
+   * Then a value can never be taken as markup (e.g. closing the CDATA
+   * section of the model section <code>&lt;script&gt;</code>) nor break the
+   * JavaScript string literal.
+   */
+  public static boolean HTML_SAFE_ESCAPING = false;
+
+  /**
+   * Must the templates be reloaded when their source changes? Changes are
+   * detected in background by the {@link TemplateReloader}
+   */
+  public static boolean RELOAD_TEMPLATES = true;
+
+  /**
+   * Must the template changes be detected using the file system notifications
+   * (if available)? If not, template sources are polled
+   */
+  public static boolean RELOAD_USING_WATCH_SERVICE = true;
+
+  /**
+   * Interval (in milliseconds) between two checks of the template sources
+   */
+  public static int RELOAD_INTERVAL = 2000;
+
+  /**
+   * Maximum number of bytes of template content kept in memory. If it is 0,
+   * the template contents are not bounded (see {@link #USE_SOFT_REFS})
+   */
+  public static long TEMPLATE_CACHE_MAX_BYTES = 0;
+
+  /**
+   * If true, the contents of the translated templates are mapped from their
+   * temporal files instead of being held in the heap
+   */
+  public static boolean MAP_TRANSLATED_TEMPLATES = false;
+
+  /**
+   * If true, the translated templates are kept in
+   * {@link #TRANSLATED_TEMPLATES_DIR} (named after a hash of their source) and
+   * reused across restarts and by other nodes sharing the directory
+   */
+  public static boolean PERSISTENT_TRANSLATIONS = false;
+
+  /**
+   * Must the templates be built when the application starts (see
+   * {@link org.ystsrv.TemplateManager#warmUp})?
+   */
+  public static boolean WARM_UP_TEMPLATES = false;
+
+  /**
+   * Comma separated names of the template stores to be warmed up
+   */
+  public static String WARM_UP_STORES = null;
+
+  /**
+   * Must the template stores be scanned looking for templates not configured
+   * in their <code>YSTConfig.xml</code> files during the warm up?
+   */
+  public static boolean WARM_UP_SCAN_STORES = false;
+
+  /**
+   * Number of threads used to build the templates during the warm up
+   */
+  public static int WARM_UP_THREADS = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Must the Yeast servlets wait for the warm up to finish before being ready?
+   */
+  public static boolean WARM_UP_BEFORE_READY = false;
+
+  /**
+   * Number of threads shared by the templates that transform their data in
+   * parallel (see {@link org.ystsrv.transformer.TransformerGroup#isParallel})
+   */
+  public static int PARALLEL_THREADS = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Number of beans of each of the ranges in which huge collections are split
+   * when they are transformed in parallel
+   */
+  public static int PARALLEL_RANGE_SIZE = 5000;
+
+  /**
+   * Maximum number of bytes of transformed fragments kept in the fragment
+   * cache (see {@link org.ystsrv.transformer.FragmentCache}). If it is 0, the
+   * fragments are not cached
+   */
+  public static long FRAGMENT_CACHE_MAX_BYTES = 8 * 1024 * 1024;
+
+  /**
+   * Default time to live (in milliseconds) of the cached fragments. If it is
+   * 0, they live until their version changes or they are evicted
+   */
+  public static long FRAGMENT_CACHE_TTL = 0;
+
+  /**
+   * Fetch size of the statements created to execute the queries of the
+   * {@link org.ystsrv.transformer.jdbc.DBQuery} objects. If it is 0, the
+   * default fetch size of the JDBC driver is used
+   */
+  public static int JDBC_FETCH_SIZE = 0;
+
+  /**
+   * Maximum number of prepared statements kept for reuse by each connection
+   * supplied to the {@link org.ystsrv.transformer.jdbc.DBQuery} objects. The
+   * statements are reused only through the same <code>Connection</code>
+   * object; use the statement cache of the pool or the driver for pooled
+   * connections. If it is 0 (the default), the statements are closed once
+   * used
+   */
+  public static int JDBC_STATEMENT_CACHE_SIZE = 0;
+
+  /**
+   * Maximum number of threads shared by the
+   * {@link org.ystsrv.transformer.jdbc.DBQueryHelper} objects that execute
+   * their queries concurrently. When all of them are busy, the queries are
+   * executed by the thread of the request
+   */
+  public static int JDBC_QUERY_THREADS = 2 * Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Maximum number of bytes of transformed query results kept in the query
+   * result cache (see {@link org.ystsrv.transformer.jdbc.QueryResultCache}).
+   * If it is 0, the query results are not cached
+   */
+  public static long QUERY_CACHE_MAX_BYTES = 4 * 1024 * 1024;
+
   private static Properties props = new java.util.Properties();
 
   static {
@@ -139,11 +290,69 @@ public class Config {
 
         MAY_PROCESS_ON_SERVER = getBooleanProperty("manager.accessibility.support", false);
 
+        USE_DIRECT_BUFFERS = getBooleanProperty("manager.output.directBuffers", false);
+
+        STREAM_MODEL_SECTION = getBooleanProperty("manager.output.streamModel", false);
+
+        COMPRESS_OUTPUT = getBooleanProperty("manager.output.compress", false);
+
+        HTML_SAFE_ESCAPING = getBooleanProperty("manager.output.htmlSafeEscaping", false);
+
+        RELOAD_TEMPLATES = getBooleanProperty("manager.reload.templates", true);
+
+        RELOAD_USING_WATCH_SERVICE = getBooleanProperty("manager.reload.watchService", true);
+
+        RELOAD_INTERVAL = getIntProperty("manager.reload.interval", 2000);
+
+        TEMPLATE_CACHE_MAX_BYTES = getLongProperty("manager.cache.maxBytes", 0);
+
+        MAP_TRANSLATED_TEMPLATES = getBooleanProperty("manager.cache.mapped", false);
+
+        PERSISTENT_TRANSLATIONS = getBooleanProperty("manager.cache.persistent", false);
+
+        String ttd = props.getProperty("manager.cache.dir");
+        if (ttd != null && ttd.trim().length() != 0) {
+          File dir = new File(ttd.trim());
+          dir.mkdirs();
+          if (dir.isDirectory())
+            TRANSLATED_TEMPLATES_DIR = dir.getAbsolutePath();
+          else
+            System.err.println("Invalid value for manager.cache.dir property: " + ttd);
+        }
+
         String dts = props.getProperty("manager.default.templateStore");
         if (dts != null)
           dts = dts.trim();
         if (dts != null && dts.length() != 0)
           DEFAULT_TEMPLATE_STORE_NAME = dts;
+
+        WARM_UP_TEMPLATES = getBooleanProperty("manager.warmup", false);
+
+        String wus = props.getProperty("manager.warmup.stores");
+        if (wus != null && wus.trim().length() != 0)
+          WARM_UP_STORES = wus.trim();
+
+        WARM_UP_SCAN_STORES = getBooleanProperty("manager.warmup.scanStores", false);
+
+        WARM_UP_THREADS = getIntProperty("manager.warmup.threads", WARM_UP_THREADS);
+
+        WARM_UP_BEFORE_READY = getBooleanProperty("manager.warmup.wait", false);
+
+        PARALLEL_THREADS = getIntProperty("manager.parallel.threads", PARALLEL_THREADS);
+
+        PARALLEL_RANGE_SIZE = getIntProperty("manager.parallel.rangeSize", PARALLEL_RANGE_SIZE);
+
+        FRAGMENT_CACHE_MAX_BYTES = getLongProperty("manager.fragmentCache.maxBytes", FRAGMENT_CACHE_MAX_BYTES);
+
+        FRAGMENT_CACHE_TTL = getLongProperty("manager.fragmentCache.ttl", 0);
+
+        JDBC_FETCH_SIZE = getIntProperty("manager.jdbc.fetchSize", 0);
+
+        JDBC_STATEMENT_CACHE_SIZE = getIntProperty("manager.jdbc.statementCacheSize", JDBC_STATEMENT_CACHE_SIZE);
+
+        JDBC_QUERY_THREADS = getIntProperty("manager.jdbc.concurrentQueries.threads", JDBC_QUERY_THREADS);
+
+        QUERY_CACHE_MAX_BYTES = getLongProperty("manager.jdbc.queryCache.maxBytes", QUERY_CACHE_MAX_BYTES);
       } else {
         configMsg +=  "\n Yeast-Server config file: " + null;
       }
@@ -154,7 +363,25 @@ public class Config {
     configMsg += "\n Accessibility support (Yeipee processing): " + (MAY_PROCESS_ON_SERVER ? "ON" : "OFF") + ";";
     configMsg += "\n translate templates: " + (MUST_TRANSLATE_TEMPLATES ? "ON" : "OFF") + ";";
     configMsg += "\n browser-side caching: " + (MUST_BROWSER_SIDE_CACHE ? "ON" : "OFF") + ";";
+    configMsg += "\n direct output buffers: " + (USE_DIRECT_BUFFERS ? "ON" : "OFF") + ";";
+    configMsg += "\n streaming model sections: " + (STREAM_MODEL_SECTION ? "ON" : "OFF") + ";";
+    configMsg += "\n compressed output: " + (COMPRESS_OUTPUT ? "ON" : "OFF") + ";";
+    configMsg += "\n HTML safe escaping: " + (HTML_SAFE_ESCAPING ? "ON" : "OFF") + ";";
+    configMsg += "\n template reloading: " + (RELOAD_TEMPLATES ? "ON" : "OFF") +
+                 (RELOAD_USING_WATCH_SERVICE ? " (watching" : " (polling") + " every " + RELOAD_INTERVAL + " ms);";
+    configMsg += "\n template cache size: " + (TEMPLATE_CACHE_MAX_BYTES > 0 ? TEMPLATE_CACHE_MAX_BYTES + " bytes" : "unbounded") + ";";
+    configMsg += "\n mapped translated templates: " + (MAP_TRANSLATED_TEMPLATES ? "ON" : "OFF") + ";";
+    configMsg += "\n persistent translations: " + (PERSISTENT_TRANSLATIONS ? "ON" : "OFF") + ";";
     configMsg += "\n default template store: " + DEFAULT_TEMPLATE_STORE_NAME + ";";
+    configMsg += "\n templates warm up: " + (WARM_UP_TEMPLATES ? "ON (" + WARM_UP_THREADS + " threads" +
+                 (WARM_UP_BEFORE_READY ? ", before ready)" : ")") : "OFF") + ";";
+    configMsg += "\n parallel transformations: " + PARALLEL_THREADS + " threads, ranges of " + PARALLEL_RANGE_SIZE + " beans;";
+    configMsg += "\n fragment cache size: " + (FRAGMENT_CACHE_MAX_BYTES > 0 ? FRAGMENT_CACHE_MAX_BYTES + " bytes" +
+                 (FRAGMENT_CACHE_TTL > 0 ? " (ttl " + FRAGMENT_CACHE_TTL + " ms)" : "") : "OFF") + ";";
+    configMsg += "\n JDBC fetch size: " + (JDBC_FETCH_SIZE != 0 ? String.valueOf(JDBC_FETCH_SIZE) : "driver default") + ";";
+    configMsg += "\n JDBC statement cache size: " + (JDBC_STATEMENT_CACHE_SIZE > 0 ? JDBC_STATEMENT_CACHE_SIZE + " per connection" : "OFF") + ";";
+    configMsg += "\n concurrent DB queries: " + JDBC_QUERY_THREADS + " threads;";
+    configMsg += "\n query result cache size: " + (QUERY_CACHE_MAX_BYTES > 0 ? QUERY_CACHE_MAX_BYTES + " bytes" : "OFF") + ";";
     configMsg += "\n tmp directory for cached and translated templates: " + TRANSLATED_TEMPLATES_DIR + ";";
     
     System.out.println(configMsg);
@@ -173,6 +400,23 @@ public class Config {
     return prop;
   }
 
+  private static int getIntProperty(String propName, int defaultVal) {
+    return (int)getLongProperty(propName, defaultVal);
+  }
+
+  private static long getLongProperty(String propName, long defaultVal) {
+    String propValue = props.getProperty(propName);
+    if (propValue == null)
+      return defaultVal;
+
+    try {
+      return Long.parseLong(propValue.trim());
+    } catch (NumberFormatException ex) {
+      System.err.println("Invalid value for " + propName + " property: " + propValue + ". Using " + defaultVal);
+      return defaultVal;
+    }
+  }
+
   private static void storeReadmeFile() {
     String msg = "Folder created by Yeast-Server v. "+Config.YST_SERVER_VERSION+
                  " at "+new Date()+". \n\nDo not remove while Yeast-Server is running.";
@@ -77,6 +77,13 @@ class FileSource extends TemplateSource {
     }
   }
 
+  /**
+   * {@inheritdoc}
+   */
+  public File getFile() {
+    return this.file;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -38,6 +38,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
 import java.net.URLDecoder;
 
 import org.ystsrv.debug.Debug;
@@ -113,6 +114,26 @@ public class FileTemplateStore extends TemplateStore {
     return configIS;
   }
 
+  /**
+   * {@inheritdoc}
+   */
+  protected void scanTemplateIds(Collection ids) {
+    scanTemplateIds(new File(LOCAL_STORE), "", ids);
+  }
+
+  private void scanTemplateIds(File dir, String path, Collection ids) {
+    File[] files = dir.listFiles();
+    if (files == null)
+      return;
+    for (int i = 0; i < files.length; i++) {
+      String name = files[i].getName();
+      if (files[i].isDirectory())
+        scanTemplateIds(files[i], path + '/' + name, ids);
+      else if (name.endsWith(".html"))
+        ids.add(path + '/' + name.substring(0, name.length() - 5));
+    }
+  }
+
   public String toString() {
     return "FileTemplateStore for store " + storeName;
   }
@@ -0,0 +1,91 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Template content backed by a read-only memory mapping of the file holding the
+ * translated template. The content lives in the page cache of the operating
+ * system instead of in the heap; it is written to the response from the
+ * mapped buffer.
+ *
+ * <p>The mapped file must not be modified while it is mapped (a new version of
+ * the template must be written to a new file and then renamed over the old
+ * one, see {@link TranslatedCachedTemplate#store}).
+ *
+ * @author Francisco Jos Garca Izquierdo
+ * @version 1.0
+ */
+class MappedTemplateContent extends TemplateContent {
+
+  private File file;
+
+  private MappedTemplateContent(File file, MappedByteBuffer data, int initMODEL, int endMODEL,
+                                String encoding) {
+    super(data, initMODEL, endMODEL, encoding);
+    this.file = file;
+  }
+
+  /**
+   * Maps the content of <code>file</code>.
+   *
+   * @param file File holding the template
+   * @param initMODEL begin position of the model section in the file
+   * @param endMODEL end position of the model section in the file
+   * @param encoding encoding of the template (as Java name)
+   * @return MappedTemplateContent
+   * @throws IOException Any error mapping the file
+   */
+  static MappedTemplateContent map(File file, int initMODEL, int endMODEL, String encoding)
+      throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new MappedTemplateContent(file, data, initMODEL, endMODEL, encoding);
+    } finally {
+      raf.close(); // The mapping remains valid
+    }
+  }
+
+  public String toString() {
+    return "Mapped template content of " + this.file;
+  }
+}
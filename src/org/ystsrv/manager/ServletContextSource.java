@@ -34,8 +34,10 @@
  */
 package org.ystsrv.manager;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Date;
 import javax.servlet.ServletContext;
 
 import org.ystsrv.debug.Debug;
@@ -59,20 +61,40 @@ class ServletContextSource extends TemplateSource {
 
   private String path;
 
+  // File holding the resource, if the web application is not packed
+  private File file;
+
   ServletContextSource(String path, String storeName, ServletContext context) throws IOException { //250111d aadido storeName
     super(storeName);
     Debug.prec(path, "path can not be null nor empty");
     Debug.prec(context, "Context can not be null");
     this.context = context;
     this.path = path;
+    String realPath = context.getRealPath(path);
+    if (realPath != null)
+      this.file = new File(realPath);
   }
 
   /**
    * {@inheritdoc}
    */
   public long getLastModifiedTime() {
-    // This type of templates are not reloadable
-    return -1;
+    // Only templates of unpacked web applications are reloadable
+    if (this.file == null)
+      return -1;
+    if (this.file.exists()) {
+      return this.file.lastModified();
+    } else {
+      Debug.fine(LOGGER_NAME,"Template in "+this.file+" does not exists");
+      return new Date().getTime();
+    }
+  }
+
+  /**
+   * {@inheritdoc}
+   */
+  public File getFile() {
+    return this.file;
   }
 
   /**
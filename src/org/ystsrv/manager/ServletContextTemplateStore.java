@@ -36,6 +36,9 @@ package org.ystsrv.manager;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
 import javax.servlet.ServletContext;
 
 import org.ystsrv.debug.Debug;
@@ -102,6 +105,28 @@ public class ServletContextTemplateStore extends TemplateStore {
     return configIS;
   }
 
+  /**
+   * {@inheritdoc}
+   */
+  protected void scanTemplateIds(Collection ids) {
+    String root = this.storeName.equals("/") ? "/" : this.storeName + '/';
+    scanTemplateIds(root, root.length() - 1, ids);
+  }
+
+  private void scanTemplateIds(String dir, int rootLength, Collection ids) {
+    Set paths = context.getResourcePaths(dir);
+    if (paths == null)
+      return;
+    Iterator iter = paths.iterator();
+    while (iter.hasNext()) {
+      String path = (String)iter.next();
+      if (path.endsWith("/"))
+        scanTemplateIds(path, rootLength, ids);
+      else if (path.endsWith(".html"))
+        ids.add(path.substring(rootLength, path.length() - 5));
+    }
+  }
+
   public String toString() {
     return "ServletContextTemplateStore for store " + storeName;
   }
@@ -35,10 +35,10 @@
 package org.ystsrv.manager;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
+import org.ystsrv.YSTException;
 import org.ystsrv.debug.Debug;
+import org.ystsrv.util.SingleFlightRegistry;
 import org.ystsrv.yeipee.ClientYeipeeStatus;
 
 /**
@@ -52,9 +52,10 @@ public class TemplateCacheFactory {
 
   protected static final String LOGGER_NAME = "ystsrv.manager";
 
-  private static Map cachedTemplatesReferences = new HashMap();
+  // Cached templates. Concurrent requests for a template not yet cached build it only once
+  private static SingleFlightRegistry cachedTemplatesReferences = new SingleFlightRegistry();
 
-  public static CachedTemplate buildCache(String templateId, TemplateSource source) throws IOException {
+  public static CachedTemplate buildCache(final String templateId, final TemplateSource source) throws IOException {
     int yeipeeStatus = ClientYeipeeStatus.getStatus();
     char prefix;
     if (ClientYeipeeStatus.mustYeipee(yeipeeStatus))
@@ -82,19 +83,31 @@ public class TemplateCacheFactory {
       case 'B' : mode = "basic";
     }
     if (cached == null) {
-      switch (prefix) {
-        case 'T' : cached = new TranslatedCachedTemplate(templateId, source);
-                   break;
-        case 'C' : cached = new BSCacheableTranslatedCachedTemplate(templateId, source);
-                   break;
-        case 'B' : cached = new BasicCachedTemplate(templateId, source);
+      final char type = prefix;
+      final String cacheMode = mode;
+      try {
+        cached = (CachedTemplate)cachedTemplatesReferences.getOrLoad(internalId, new SingleFlightRegistry.Loader() {
+          public Object load() throws IOException {
+            CachedTemplate newCached = null;
+            switch (type) {
+              case 'T' : newCached = new TranslatedCachedTemplate(templateId, source);
+                         break;
+              case 'C' : newCached = new BSCacheableTranslatedCachedTemplate(templateId, source);
+                         break;
+              case 'B' : newCached = new BasicCachedTemplate(templateId, source);
+            }
+            TemplateReloader.register(newCached);
+            Debug.info(LOGGER_NAME, "Template "+templateId+" for templateStore "+
+                                    source.getStoreName()+" is now cached in "+
+                                    cacheMode+" version");
+            return newCached;
+          }
+        });
+      } catch (YSTException ex) { // Never thrown by the loader
+        IOException io = new IOException("Error caching template " + templateId);
+        io.initCause(ex);
+        throw io;
       }
-
-      cachedTemplatesReferences.put(internalId,cached);
-      Debug.info(LOGGER_NAME, "Template "+templateId+" for templateStore "+
-                              source.getStoreName()+" is now cached in "+
-                              mode+" version");
-
     } else {
       Debug.info(LOGGER_NAME, "Template "+templateId+" for templateStore "+
                               source.getStoreName()+" has been already cached in "+
@@ -103,4 +116,14 @@ public class TemplateCacheFactory {
     return cached;
   }
 
+  /**
+   * Stops the background detection of template changes (see {@link
+   * Config#RELOAD_TEMPLATES}). It must be called when the web application is
+   * stopped; {@link org.ystsrv.servlet.YSTServlet} does it in its
+   * <code>destroy</code> method.
+   */
+  public static void stopReloading() {
+    TemplateReloader.stop();
+  }
+
 }
@@ -34,21 +34,63 @@
  */
 package org.ystsrv.manager;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+import org.ystsrv.debug.Debug;
+import org.ystsrv.util.CompressedOutputStream;
+
 /**
  * Stores the content of the template, marking the position of the model section
  * in order to accelerate the template rendering.
  *
+ * <p>The static parts of the template (the text preceding the model section,
+ * the processing stamp and the text following the model section) are kept as
+ * immutable pre-built segments, and the charset used to encode the new model
+ * section is resolved only once, so rendering a template only requires
+ * encoding the new model.
+ *
  * @author Francisco Jos Garca Izquierdo
- * @version 1.0
+ * @version 1.1
  */
 public class TemplateContent {
 
   private static final String LOGGER_NAME = "ystsrv.manager";
 
+  // This message is inserted preceding the new model section once the template is processed
+  private static final byte[] PROCESSING_STAMP = ("<!-- Processed with Yeast-Server v "
+                                                 +Config.YST_SERVER_VERSION+" -->\n").getBytes();
+
+  private static final int COPY_CHUNK = 8192;
+
+  // Buffers used to copy to streams the contents that are not in the heap
+  private static final ThreadLocal copyBuffers = new ThreadLocal();
+
+  // Null if the content is not in the heap (see MappedTemplateContent)
   private byte[] content;
+  // Whole content of the template
+  private ByteBuffer data;
   private int modelInit;
   private int modelEnd;
 
+  // Read only segments: text before the model, processing stamp and text after the model
+  private ByteBuffer prefix;
+  private ByteBuffer stamp;
+  private ByteBuffer suffix;
+
+  // Static segments deflated in advance (prefix and stamp, and suffix; or the
+  // whole content if it is not a template). Built on the first compressed output
+  private volatile CompressedOutputStream.Segment[] compressed;
+
+  // Encoding used for the new model section. modelCharset is null if the
+  // encoding is not supported by the JVM, and then the encoding name is used
+  private String modelEncoding;
+  private Charset modelCharset;
+
   /**
    * Creates a <code>TemplateContent</code> object.
    *
@@ -60,19 +102,129 @@ public class TemplateContent {
    *   the <code>content</code> string.
    */
   public TemplateContent(byte[] content, int initMODEL, int endMODEL) {
+    this(content, initMODEL, endMODEL, null);
+  }
+
+  /**
+   * Creates a <code>TemplateContent</code> object.
+   *
+   * @param content byte[] containg all the template text, regardless the
+   *                template encoding.
+   * @param initMODEL begin position of the model section in
+   *   the <code>content</code> string
+   * @param endMODEL end position of the model section in
+   *   the <code>content</code> string.
+   * @param encoding encoding of the template (as Java name). It will be used
+   *   to encode the new model sections. If null, the default encoding is used.
+   */
+  public TemplateContent(byte[] content, int initMODEL, int endMODEL, String encoding) {
     this.content = content;
+    this.data = ByteBuffer.wrap(content).asReadOnlyBuffer();
     this.modelInit = initMODEL;
     this.modelEnd = endMODEL;
+    this.modelEncoding = encoding;
+    this.modelCharset = resolveCharset(encoding);
+    if (isTemplate()) {
+      this.prefix = segment(content, 0, modelInit);
+      this.stamp = segment(PROCESSING_STAMP, 0, PROCESSING_STAMP.length);
+      this.suffix = segment(content, modelEnd, content.length - modelEnd);
+    }
+  }
+
+  /**
+   * Creates a <code>TemplateContent</code> object whose content is not stored
+   * in the heap (e.g. a buffer mapped to a file).
+   *
+   * @param data ByteBuffer containg all the template text. Its content must
+   *   not change
+   * @param initMODEL begin position of the model section
+   * @param endMODEL end position of the model section
+   * @param encoding encoding of the template (as Java name)
+   */
+  protected TemplateContent(ByteBuffer data, int initMODEL, int endMODEL, String encoding) {
+    this.data = data.asReadOnlyBuffer();
+    this.modelInit = initMODEL;
+    this.modelEnd = endMODEL;
+    this.modelEncoding = encoding;
+    this.modelCharset = resolveCharset(encoding);
+    if (isTemplate()) {
+      this.prefix = slice(this.data, 0, modelInit);
+      this.stamp = segment(PROCESSING_STAMP, 0, PROCESSING_STAMP.length);
+      this.suffix = slice(this.data, modelEnd, this.data.limit() - modelEnd);
+    }
+  }
+
+  private static Charset resolveCharset(String encoding) {
+    if (encoding == null)
+      return Charset.defaultCharset();
+    // To consider the  (euro) char, not included in ISO-8859-1, ISO-8859-9
+    encoding = encoding.equalsIgnoreCase("ISO8859_1") ? "Cp1252" : encoding;
+    encoding = encoding.equalsIgnoreCase("ISO8859_9") ? "Cp1254" : encoding;
+    try {
+      return Charset.forName(encoding);
+    } catch (IllegalArgumentException ex) { // Illegal or unsupported charset name
+      Debug.warning(LOGGER_NAME, "Unsupported template encoding " + encoding);
+      return null;
+    }
+  }
+
+  private static ByteBuffer segment(byte[] data, int offset, int length) {
+    if (Config.USE_DIRECT_BUFFERS) {
+      ByteBuffer direct = ByteBuffer.allocateDirect(length);
+      direct.put(data, offset, length);
+      direct.flip();
+      return direct.asReadOnlyBuffer();
+    }
+    return ByteBuffer.wrap(data, offset, length).slice().asReadOnlyBuffer();
+  }
+
+  private static ByteBuffer slice(ByteBuffer data, int offset, int length) {
+    ByteBuffer bb = data.duplicate();
+    bb.position(offset);
+    bb.limit(offset + length);
+    return bb.slice();
   }
 
   /**
    * Returns the whole text of the template (including the
-   * model section with the original test data)
+   * model section with the original test data). If the content is not stored
+   * in the heap, a copy is returned.
    *
    * @return byte[]
    */
   public byte[] getDesignerVersion() {
-    return content;
+    if (content != null)
+      return content;
+    byte[] copy = new byte[data.limit()];
+    data.duplicate().get(copy);
+    return copy;
+  }
+
+  /**
+   * Returns the number of bytes of the heap used by this content.
+   *
+   * @return int
+   */
+  public int getHeapSize() {
+    return (content != null) ? content.length : 0;
+  }
+
+  /**
+   * Writes the whole text of the template (including the model section with
+   * the original test data) in the <code>os</code> OutputStream.
+   *
+   * @param os OutputStream
+   * @throws IOException Any error writing the template
+   */
+  public void writeDesignerVersion(OutputStream os) throws IOException {
+    if (os instanceof CompressedOutputStream)
+      ((CompressedOutputStream) os).write(getCompressedSegments()[0]);
+    else if (os instanceof WritableByteChannel)
+      writeFully((WritableByteChannel) os, data.duplicate());
+    else if (content != null)
+      os.write(content);
+    else
+      writeBuffer(data.duplicate(), os);
   }
 
   /**
@@ -104,4 +256,153 @@ public class TemplateContent {
   public boolean isTemplate() {
     return this.modelInit > 0 && this.modelEnd > 0;
   }
+
+  /**
+   * Encodes the text of a model section using the template encoding.
+   *
+   * @param newModel text of the model section
+   * @return ByteBuffer with the encoded text
+   * @throws IOException if the template encoding is not supported
+   */
+  public ByteBuffer encodeModel(String newModel) throws IOException {
+    if (modelCharset != null)
+      return modelCharset.encode(newModel);
+    else // Fails in the same way String.getBytes does
+      return ByteBuffer.wrap(newModel.getBytes(modelEncoding));
+  }
+
+  /**
+   * Writes the template in the <code>os</code> OutputStream, replacing the
+   * model section by <code>newModel</code> (already encoded, see {@link
+   * #encodeModel}). If the template has not got a model section, the whole
+   * content is written. If <code>os</code> is also a NIO channel, the segments
+   * are written using a single gathering write.
+   *
+   * @param newModel encoded new model section
+   * @param os OutputStream to which the template will be written
+   * @throws IOException Any error writing the template
+   */
+  public void write(ByteBuffer newModel, OutputStream os) throws IOException {
+    if (!isTemplate()) {
+      writeDesignerVersion(os);
+      return;
+    }
+    if (os instanceof GatheringByteChannel) {
+      ByteBuffer[] segments = {prefix.duplicate(), stamp.duplicate(),
+                              newModel, suffix.duplicate()};
+      long pending = 0;
+      for (int i = 0; i < segments.length; i++)
+        pending += segments[i].remaining();
+      GatheringByteChannel channel = (GatheringByteChannel) os;
+      while (pending > 0)
+        pending -= channel.write(segments);
+    } else {
+      writePrefix(os);
+      if (os instanceof WritableByteChannel)
+        writeFully((WritableByteChannel) os, newModel);
+      else
+        writeBuffer(newModel, os);
+      writeSuffix(os);
+    }
+  }
+
+  /**
+   * Writes the part of the template preceding the model section, followed by
+   * the processing stamp. It must be used only for templates with a model
+   * section.
+   *
+   * @param os OutputStream to which the template will be written
+   * @throws IOException Any error writing the template
+   */
+  public void writePrefix(OutputStream os) throws IOException {
+    if (os instanceof CompressedOutputStream) {
+      ((CompressedOutputStream) os).write(getCompressedSegments()[0]);
+    } else if (os instanceof WritableByteChannel) {
+      WritableByteChannel channel = (WritableByteChannel) os;
+      writeFully(channel, prefix.duplicate());
+      writeFully(channel, stamp.duplicate());
+    } else {
+      if (content != null)
+        os.write(content, 0, modelInit);
+      else
+        writeBuffer(prefix.duplicate(), os);
+      os.write(PROCESSING_STAMP);
+    }
+  }
+
+  /**
+   * Writes the part of the template following the model section. It must be
+   * used only for templates with a model section.
+   *
+   * @param os OutputStream to which the template will be written
+   * @throws IOException Any error writing the template
+   */
+  public void writeSuffix(OutputStream os) throws IOException {
+    if (os instanceof CompressedOutputStream)
+      ((CompressedOutputStream) os).write(getCompressedSegments()[1]);
+    else if (os instanceof WritableByteChannel)
+      writeFully((WritableByteChannel) os, suffix.duplicate());
+    else if (content != null)
+      os.write(content, modelEnd, content.length - modelEnd);
+    else
+      writeBuffer(suffix.duplicate(), os);
+  }
+
+  // Only the model section is compressed on each request (see CompressedOutputStream)
+  private CompressedOutputStream.Segment[] getCompressedSegments() {
+    CompressedOutputStream.Segment[] segments = this.compressed;
+    if (segments == null) {
+      if (isTemplate()) {
+        byte[] head = new byte[modelInit + PROCESSING_STAMP.length];
+        prefix.duplicate().get(head, 0, modelInit);
+        System.arraycopy(PROCESSING_STAMP, 0, head, modelInit, PROCESSING_STAMP.length);
+        byte[] tail = new byte[suffix.remaining()];
+        suffix.duplicate().get(tail);
+        segments = new CompressedOutputStream.Segment[] {
+                   CompressedOutputStream.Segment.compress(head),
+                   CompressedOutputStream.Segment.compress(tail)};
+      } else {
+        segments = new CompressedOutputStream.Segment[] {
+                   CompressedOutputStream.Segment.compress(getDesignerVersion())};
+      }
+      this.compressed = segments; // Races only compress twice
+      Debug.fine(LOGGER_NAME, "Compressed static segments of template: " +
+                 segments[0].getCompressedSize() + (segments.length > 1 ? " + " +
+                 segments[1].getCompressedSize() : "") + " bytes");
+    }
+    return segments;
+  }
+
+  /**
+   * Returns the charset used to encode the model section, or null if the
+   * template encoding is not supported.
+   *
+   * @return Charset
+   */
+  public Charset getModelCharset() {
+    return modelCharset;
+  }
+
+  private static void writeFully(WritableByteChannel channel, ByteBuffer bb) throws IOException {
+    while (bb.hasRemaining())
+      channel.write(bb);
+  }
+
+  private static void writeBuffer(ByteBuffer bb, OutputStream os) throws IOException {
+    if (bb.hasArray()) {
+      os.write(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+      bb.position(bb.limit());
+    } else {
+      byte[] b = (byte[])copyBuffers.get();
+      if (b == null) {
+        b = new byte[COPY_CHUNK];
+        copyBuffers.set(b);
+      }
+      while (bb.hasRemaining()) {
+        int n = Math.min(b.length, bb.remaining());
+        bb.get(b, 0, n);
+        os.write(b, 0, n);
+      }
+    }
+  }
 }
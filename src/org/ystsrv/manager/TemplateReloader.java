@@ -0,0 +1,268 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.ystsrv.debug.Debug;
+
+/**
+ * Detects, out of the request path, new versions of the cached templates and
+ * reloads them (see {@link CachedTemplate#reload}). Templates stored in files
+ * (see {@link TemplateSource#getFile}) are watched using the file system
+ * notifications; the rest of reloadable templates are polled every {@link
+ * Config#RELOAD_INTERVAL} milliseconds. If the file system notifications are
+ * not available or they are disabled (see {@link
+ * Config#RELOAD_USING_WATCH_SERVICE}), all the templates are polled.
+ *
+ * <p>All the work is done by a single daemon thread, which is started when the
+ * first reloadable template is registered and is stopped by {@link #stop} (when
+ * the web application is undeployed).
+ *
+ * @author Francisco Jos Garca Izquierdo
+ * @version 1.0
+ */
+class TemplateReloader implements Runnable {
+
+  private static final String LOGGER_NAME = "ystsrv.manager";
+
+  private static TemplateReloader reloader;
+
+  // Registered templates
+  private List templates = new ArrayList();
+
+  // Templates whose file is watched (key - absolute path of the file; value - list of CachedTemplate)
+  private Map watchedFiles = new HashMap();
+
+  // Directories already registered in the watch service (key - WatchKey; value - Path)
+  private Map watchedDirs = new HashMap();
+
+  private WatchService watcher;
+
+  private Thread thread;
+
+  private TemplateReloader() {
+    if (Config.RELOAD_USING_WATCH_SERVICE) {
+      try {
+        this.watcher = FileSystems.getDefault().newWatchService();
+      } catch (IOException ex) {
+        Debug.warning(LOGGER_NAME, "File system notifications not available. Templates will be polled", ex);
+      } catch (UnsupportedOperationException ex) {
+        Debug.warning(LOGGER_NAME, "File system notifications not available. Templates will be polled", ex);
+      }
+    }
+  }
+
+  /**
+   * Registers a cached template in order to reload it when its source
+   * changes. Not reloadable templates are ignored.
+   *
+   * @param template CachedTemplate
+   */
+  static void register(CachedTemplate template) {
+    if (!Config.RELOAD_TEMPLATES || !template.isReloadable())
+      return;
+    TemplateReloader r;
+    synchronized (TemplateReloader.class) {
+      if (reloader == null) {
+        reloader = new TemplateReloader();
+        reloader.thread = new Thread(reloader, "Yeast-Server template reloader");
+        reloader.thread.setDaemon(true);
+        reloader.thread.start();
+      }
+      r = reloader;
+    }
+    r.add(template);
+  }
+
+  /**
+   * Stops the reloader thread and closes its watch service, so that neither
+   * of them keeps the web application classes loaded once it is undeployed.
+   * The templates registered afterwards start a new reloader.
+   */
+  static void stop() {
+    TemplateReloader r;
+    synchronized (TemplateReloader.class) {
+      r = reloader;
+      reloader = null;
+    }
+    if (r == null)
+      return;
+    if (r.watcher != null) {
+      try {
+        r.watcher.close();
+      } catch (IOException ex) {
+        Debug.warning(LOGGER_NAME, "Error closing the template watch service", ex);
+      }
+    }
+    r.thread.interrupt();
+    try {
+      r.thread.join(Config.RELOAD_INTERVAL);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private synchronized void add(CachedTemplate template) {
+    this.templates.add(template);
+    File file = template.getSource().getFile();
+    if (this.watcher == null || file == null)
+      return;
+
+    Path path = file.toPath().toAbsolutePath();
+    Path dir = path.getParent();
+    try {
+      if (!this.watchedDirs.containsValue(dir)) {
+        WatchKey key = dir.register(this.watcher, new WatchEvent.Kind[] {
+                                    StandardWatchEventKinds.ENTRY_CREATE,
+                                    StandardWatchEventKinds.ENTRY_MODIFY});
+        this.watchedDirs.put(key, dir);
+        Debug.fine(LOGGER_NAME, "Watching template directory " + dir);
+      }
+      List list = (List)this.watchedFiles.get(path);
+      if (list == null) {
+        list = new ArrayList(2);
+        this.watchedFiles.put(path, list);
+      }
+      list.add(template);
+    } catch (IOException ex) {
+      Debug.warning(LOGGER_NAME, "Directory " + dir + " can not be watched. Template " +
+                    path + " will be polled", ex);
+    }
+  }
+
+  public void run() {
+    long nextPoll = System.currentTimeMillis() + Config.RELOAD_INTERVAL;
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        if (this.watcher != null) {
+          WatchKey key = this.watcher.poll(Config.RELOAD_INTERVAL, TimeUnit.MILLISECONDS);
+          while (key != null) {
+            processEvents(key);
+            key = this.watcher.poll();
+          }
+        } else {
+          Thread.sleep(Config.RELOAD_INTERVAL);
+        }
+        if (System.currentTimeMillis() >= nextPoll) {
+          pollTemplates();
+          nextPoll = System.currentTimeMillis() + Config.RELOAD_INTERVAL;
+        }
+      } catch (InterruptedException ex) {
+        Debug.info(LOGGER_NAME, "Template reloader stopped");
+        return;
+      } catch (ClosedWatchServiceException ex) {
+        Debug.info(LOGGER_NAME, "Template reloader stopped");
+        return;
+      } catch (RuntimeException ex) {
+        Debug.error(LOGGER_NAME, "Error checking template changes", ex);
+      }
+    }
+    Debug.info(LOGGER_NAME, "Template reloader stopped");
+  }
+
+  private void processEvents(WatchKey key) {
+    Path dir;
+    List changed = new ArrayList();
+    synchronized (this) {
+      dir = (Path)this.watchedDirs.get(key);
+      Iterator iter = key.pollEvents().iterator();
+      while (iter.hasNext()) {
+        WatchEvent event = (WatchEvent)iter.next();
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+          // Some events have been lost. Check all the watched templates
+          Iterator lists = this.watchedFiles.values().iterator();
+          while (lists.hasNext())
+            changed.addAll((List)lists.next());
+        } else if (dir != null) {
+          List list = (List)this.watchedFiles.get(dir.resolve((Path)event.context()));
+          if (list != null)
+            changed.addAll(list);
+        }
+      }
+      if (!key.reset())
+        this.watchedDirs.remove(key);
+    }
+    reloadChanged(changed);
+  }
+
+  private void pollTemplates() {
+    List polled = new ArrayList();
+    synchronized (this) {
+      for (int i = 0; i < this.templates.size(); i++) {
+        CachedTemplate template = (CachedTemplate)this.templates.get(i);
+        if (!isWatched(template))
+          polled.add(template);
+      }
+    }
+    reloadChanged(polled);
+  }
+
+  private boolean isWatched(CachedTemplate template) {
+    File file = template.getSource().getFile();
+    return file != null && this.watchedFiles.containsKey(file.toPath().toAbsolutePath());
+  }
+
+  private void reloadChanged(List candidates) {
+    for (int i = 0; i < candidates.size(); i++) {
+      CachedTemplate template = (CachedTemplate)candidates.get(i);
+      File file = template.getSource().getFile();
+      if (file != null && !file.exists())
+        continue; // Removed (or being replaced). Keep the cached version
+      if (template.hasNewVersion()) {
+        try {
+          template.reload();
+        } catch (IOException ex) {
+          Debug.error(LOGGER_NAME, "Error reloading template " + template.templateId +
+                      ". The previous version will be used", ex);
+        }
+      }
+    }
+  }
+}
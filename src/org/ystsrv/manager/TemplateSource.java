@@ -34,6 +34,7 @@
  */
 package org.ystsrv.manager;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -74,6 +75,16 @@ public abstract class TemplateSource {  //250111d
    */
   public abstract long getLastModifiedTime();
 
+  /**
+   * Returns the file that holds the template, if the source is located in the
+   * file system, or null otherwise. It is used to watch the template changes.
+   *
+   * @return File
+   */
+  public File getFile() {
+    return null;
+  }
+
   /**
    * Returns an <code>InputStream</code> that provides access to the template
    * content. The way this InputStream is built depends on the type of location
@@ -37,9 +37,11 @@ package org.ystsrv.manager;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.FactoryConfigurationError;
@@ -54,6 +56,7 @@ import org.ystsrv.Template;
 import org.ystsrv.YSTException;
 import org.ystsrv.debug.Debug;
 import org.ystsrv.transformer.TransformerSpec;
+import org.ystsrv.util.SingleFlightRegistry;
 import org.ystsrv.util.TextUtils;
 import org.ystsrv.util.XMLUtils;
 import org.ystsrv.yeipee.ClientYeipeeStatus;
@@ -84,8 +87,8 @@ public abstract class TemplateStore {
 
   protected String storeName;
 
-  // Cache of templates
-  private Map templateCache;
+  // Cache of templates. Concurrent requests for a template not yet cached build it only once
+  private SingleFlightRegistry templateCache;
 
   // Info asociated to each template in the configuration file YSTConfig.xml:
   // location of the templateInfotempalte and list of transformers
@@ -104,7 +107,7 @@ public abstract class TemplateStore {
   protected void initCache() {
     templateInfo = new HashMap();
     cacheTemplatesInfo();
-    templateCache = new java.util.HashMap();
+    templateCache = new SingleFlightRegistry();
   }
 
   /**
@@ -136,14 +139,14 @@ public abstract class TemplateStore {
    *   header javadoc of class {@link org.ystsrv.Transformer})
    * @return Template
    */
-  public Template getTemplate(String id) throws IOException, YSTException, ConfigurationException {
+  public Template getTemplate(final String id) throws IOException, YSTException, ConfigurationException {
     Debug.prec(id, "id can not be null nor empty");
-    char reqType = getRequestType();
-    Template t = (Template)templateCache.get(reqType+"_"+id);
-    if (t == null) {
-      t = cacheTemplate(id, reqType);
-    }
-    return t;
+    final char reqType = getRequestType();
+    return (Template)templateCache.getOrLoad(reqType+"_"+id, new SingleFlightRegistry.Loader() {
+      public Object load() throws IOException, YSTException {
+        return buildTemplate(id, reqType);
+      }
+    });
   }
 
   private char getRequestType() {
@@ -151,25 +154,18 @@ public abstract class TemplateStore {
     return (ClientYeipeeStatus.mustYeipee(yeipeeStatus) ? 'Y' : 'N');
   }
 
-  private synchronized Template cacheTemplate(String id, char requestType) throws IOException, YSTException {
-    Debug.prec(id, "id can not be null nor empty");
-    String internalId = requestType+"_"+id;
-    Template t = (Template)templateCache.get(internalId);
-    if (t == null) {
-      t = buildTemplate(id, requestType);
-      templateCache.put(internalId, t);
-    }
-    return t;
-  }
-
   private Template buildTemplate(String id, char requestType) throws IOException, YSTException  {
     Debug.prec(id, "The template id can not be null or empty");
     TemplateSource source = getSourceToTemplate(id);
+    Template template;
     if (requestType == 'Y')
-      return new YeipeeTemplate(id, this.getTemplateTransformers(id), source);
+      template = new YeipeeTemplate(id, this.getTemplateTransformers(id), source);
     else
-      return new Template(id, this.getTemplateTransformers(id), source);
-
+      template = new Template(id, this.getTemplateTransformers(id), source);
+    TemplateInfo info = getTemplateInfo(id);
+    if (info != null && info.isParallel())
+      template.setParallelTransformation(true);
+    return template;
   }
 
   /**
@@ -211,6 +207,31 @@ public abstract class TemplateStore {
    */
   abstract protected InputStream getConfigFile() throws IOException;
 
+  /**
+   * Returns the identifiers of the templates of this store: those that have a
+   * configuration element in the <code>YSTConfig.xml</code> file and, if
+   * <code>scanStore</code> is true, those of the .html files found in the
+   * store.
+   *
+   * @param scanStore must the store be scanned looking for .html files?
+   * @return List of String, sorted
+   */
+  public List getTemplateIds(boolean scanStore) {
+    Collection ids = new TreeSet(templateInfo.keySet());
+    if (scanStore)
+      scanTemplateIds(ids);
+    return new ArrayList(ids);
+  }
+
+  /**
+   * Adds to <code>ids</code> the identifiers of the .html files found in the
+   * store. By default, stores can not be scanned and nothing is added.
+   *
+   * @param ids Collection of String
+   */
+  protected void scanTemplateIds(Collection ids) {
+  }
+
   private void cacheTemplatesInfo() {
     Debug.fine(LOGGER_NAME, this+ " initializing templates info cache. Trying to load YSTConfig.xml");
     try {
@@ -266,13 +287,16 @@ public abstract class TemplateStore {
           transformers.add(new TransformerSpec(className, params));
         }
       }
-      TemplateInfo info = new TemplateInfo(location, transformers);
+      String parallel = template.getAttribute("parallel");
+      TemplateInfo info = new TemplateInfo(location, transformers,
+                                           parallel != null && parallel.trim().length() != 0 && TextUtils.isTrue(parallel));
       templateInfo.put(id, info);
 
       if (Debug.hasFineLevel(LOGGER_NAME)) {
         String logMsg = this+" caching template info for template " +
             id + "." + (location != null ? " Located in " + location : ".");
         logMsg += ". Will use transformes: " + transformers;
+        if (info.isParallel()) logMsg += " in parallel";
         Debug.fine(LOGGER_NAME, logMsg);
       }
     }
@@ -336,10 +360,12 @@ public abstract class TemplateStore {
   private class TemplateInfo {
     private String location;
     private List transformerSpecs;
+    private boolean parallel;
 
-    TemplateInfo(String location, List transformers) {
+    TemplateInfo(String location, List transformers, boolean parallel) {
       this.location = TextUtils.normalizePath(location);
       this.transformerSpecs = transformers;
+      this.parallel = parallel;
     }
 
     /**
@@ -363,6 +389,16 @@ public abstract class TemplateStore {
     List getTransformerSpecs() {
       return transformerSpecs;
     }
+
+    /**
+     * Returns true if the <code>template</code> element has the attribute
+     * <code>parallel="true"</code>
+     *
+     * @return boolean
+     */
+    boolean isParallel() {
+      return parallel;
+    }
   }
 
 }
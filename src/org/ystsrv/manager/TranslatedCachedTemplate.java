@@ -38,13 +38,10 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.ref.SoftReference;
 
 import org.w3c.dom.Document;
 import org.ystsrv.debug.Debug;
-import org.ystsrv.util.InMemoryCachedReference;
 
 /**
  * Specialization of {@link CachedTemplate} used to translate Yeast Templates.
@@ -55,9 +52,16 @@ import org.ystsrv.util.InMemoryCachedReference;
  * <p> Templates are first converted and then stored in a temporal file. The
  * converted version is holded by a weak reference (that acts as the actual
  * cache). If there is a new version of the original template, the template is
- * reloaded and re-translated. If the weak reference is garbage collected, but
- * the original version is still the same, the content is reloaded from the
- * temporal file. Therefore, there is a two level cache.
+ * reloaded and re-translated by the {@link TemplateReloader}. If the weak
+ * reference is garbage collected, but the original version is still the same,
+ * the content is reloaded from the temporal file. Therefore, there is a two
+ * level cache. If {@link Config#MAP_TRANSLATED_TEMPLATES} is set, the
+ * content is not read back but mapped from the temporal file (see
+ * {@link MappedTemplateContent}).
+ *
+ * <p>If {@link Config#PERSISTENT_TRANSLATIONS} is set, translated templates
+ * are kept in the {@link TranslationCache} and reused by later restarts and
+ * other nodes, without translating them again.
  *
  * @author Francisco Jos Garca Izquierdo
  * @version 1.0
@@ -80,12 +84,42 @@ class TranslatedCachedTemplate extends CachedTemplate {
     this.templateId = id;
     this.source = source;
 
-    if (Config.TRANSLATED_TEMPLATES_DIR != null) {
-      String fileName = id.substring(1) + java.util.UUID.randomUUID();
-      this.internalFile = new File(Config.TRANSLATED_TEMPLATES_DIR + '/' + fileName + ".html.tmp");
-      this.internalFile.deleteOnExit();
+    if (Config.TRANSLATED_TEMPLATES_DIR != null && !Config.PERSISTENT_TRANSLATIONS) {
+      setInternalFiles(id.substring(1) + java.util.UUID.randomUUID(), true);
     }
-    this.rContent = InMemoryCachedReference.newInstance(init());
+    setContent(init());
+  }
+
+  /**
+   * Sets the files where the translation is stored.
+   *
+   * @param fileName name of the files (without extension)
+   * @param temporal must the files be removed when the JVM exits?
+   */
+  protected void setInternalFiles(String fileName, boolean temporal) {
+    this.internalFile = new File(Config.TRANSLATED_TEMPLATES_DIR + '/' + fileName + ".html.tmp");
+    if (temporal)
+      this.internalFile.deleteOnExit();
+  }
+
+  /**
+   * Returns the files where the translation is stored. The first one is the
+   * translated template.
+   *
+   * @return File[]
+   */
+  protected File[] getInternalFiles() {
+    return new File[] {this.internalFile};
+  }
+
+  /**
+   * Returns the options of the translation that change its result. They are
+   * part of the key of the translation in the {@link TranslationCache}.
+   *
+   * @return String
+   */
+  protected String getTranslationOptions() {
+    return "T;hideYSTAttrs;hideErrors;" + this.charSetEncoding;
   }
 
   /**
@@ -100,6 +134,37 @@ class TranslatedCachedTemplate extends CachedTemplate {
 
     this.charSetEncoding = TemplateUtils.guessCharEncoding(initialContent);
 
+    String key = null;
+    if (Config.PERSISTENT_TRANSLATIONS && Config.TRANSLATED_TEMPLATES_DIR != null) {
+      key = TranslationCache.key(initialContent, getTranslationOptions());
+      setInternalFiles(key, false);
+      byte[] stored = TranslationCache.lookup(key, getInternalFiles());
+      if (stored != null) {
+        Debug.info(LOGGER_NAME, "Template " + this.templateId + " already translated in " +
+                   this.internalFile.getAbsolutePath());
+        return newContent(stored);
+      }
+    }
+
+    byte[] translatedContent = translate(initialContent);
+    if (this.internalFile != null) {
+      storeTmpTemplate(translatedContent);
+    }
+    if (key != null) {
+      TranslationCache.index(key, getInternalFiles());
+    }
+    return newContent(translatedContent);
+  }
+
+  /**
+   * Translates the template. Any other file of the translation must be stored
+   * here.
+   *
+   * @param initialContent byte[] source of the template
+   * @return byte[] translated template
+   * @throws IOException
+   */
+  protected byte[] translate(byte[] initialContent) throws IOException {
     byte [] translatedContent = null;
 
     YSTTranslator translator = new YSTTranslator(true, false, true, this.charSetEncoding);
@@ -115,15 +180,32 @@ class TranslatedCachedTemplate extends CachedTemplate {
       io.initCause(ex);
       throw io;
     }
+    return translatedContent;
+  }
 
-    if (this.internalFile != null) {
-      storeTmpTemplate(translatedContent);
-    }
+  /**
+   * Builds the content of the translated template, once stored in the
+   * temporal file. If the content can be mapped, the returned content is
+   * mapped from the temporal file.
+   *
+   * @param translatedContent byte[] translated template
+   * @return TemplateContent
+   * @throws IOException
+   */
+  protected TemplateContent newContent(byte[] translatedContent) throws IOException {
     int[] bounds = TemplateUtils.findModelSectionBounds(translatedContent);
     this.modelInit = bounds[0];
     this.modelEnd = bounds[1];
 
-    return new TemplateContent(translatedContent, bounds[0], bounds[1]);
+    if (Config.MAP_TRANSLATED_TEMPLATES && this.internalFile != null) {
+      try {
+        return MappedTemplateContent.map(this.internalFile, bounds[0], bounds[1], this.charSetEncoding);
+      } catch (IOException ex) {
+        Debug.warning(LOGGER_NAME, "Unable to map translated template " + this.templateId +
+                      ". Keeping it in memory", ex);
+      }
+    }
+    return new TemplateContent(translatedContent, bounds[0], bounds[1], this.charSetEncoding);
   }
 
   protected void storeTmpTemplate(byte[] content) throws IOException {
@@ -142,43 +224,29 @@ class TranslatedCachedTemplate extends CachedTemplate {
                  dir.getAbsolutePath());
       dir.mkdirs();
     }
-    FileOutputStream wr = new FileOutputStream(dest);
-    wr.write(content);
-    wr.close();
+    // Never truncated while it may be mapped, nor seen partially written
+    TranslationCache.write(content, dest);
   }
 
-  public synchronized TemplateContent getContent() throws IOException {
-    Debug.prec(this.rContent);
-    TemplateContent content = null;
-    if (hasNewVersion()) {
-      Debug.info(LOGGER_NAME,
-                 "New version of template " + this.templateId + ". Reloading template from " +
-                 this.source);
-      content = init();
-      this.rContent = InMemoryCachedReference.newInstance(content);
-    } else {
-      content = (TemplateContent)this.rContent.get();
-      if (content == null) {
-        Debug.info(LOGGER_NAME,
-                   "Invalid weak reference. Reloading template " + this.templateId + " from " +
-                   this.internalFile.getAbsolutePath());
-        try {
-          if (this.internalFile != null) { //20090720
-            content = new TemplateContent(TemplateUtils.readTemplate(
-                new FileInputStream(this.internalFile)), this.modelInit, this.modelEnd);
-          } //20090720
-          else { //20090720
-            content = init(); //20090720
-          } //20090720
-        } catch (IOException ex) {
-          Debug.error(LOGGER_NAME,
-                      "Error reloading template " + this.templateId + " from " +
-                      this.internalFile.getAbsolutePath(), ex);
-          content = init();
-        }
-        this.rContent = InMemoryCachedReference.newInstance(content);
-      }
+  protected TemplateContent recoverContent() throws IOException {
+    if (this.internalFile == null) //20090720
+      return init(); //20090720
+
+    Debug.info(LOGGER_NAME,
+               "Invalid weak reference. Reloading template " + this.templateId + " from " +
+               this.internalFile.getAbsolutePath());
+    try {
+      if (Config.MAP_TRANSLATED_TEMPLATES)
+        return MappedTemplateContent.map(this.internalFile, this.modelInit, this.modelEnd,
+                                         this.charSetEncoding);
+      return new TemplateContent(TemplateUtils.readTemplate(
+          new FileInputStream(this.internalFile)), this.modelInit, this.modelEnd,
+          this.charSetEncoding);
+    } catch (IOException ex) {
+      Debug.error(LOGGER_NAME,
+                  "Error reloading template " + this.templateId + " from " +
+                  this.internalFile.getAbsolutePath(), ex);
+      return init();
     }
-    return content;
   }
 }
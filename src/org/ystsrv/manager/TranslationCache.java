@@ -0,0 +1,233 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.manager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import org.ystsrv.debug.Debug;
+
+/**
+ * Persistent cache of translated templates, shared by restarts and by all the
+ * nodes that use the same directory for translated templates (see
+ * {@link Config#PERSISTENT_TRANSLATIONS}).
+ *
+ * <p>Translations are content addressed: their key is a SHA-256 hash of the
+ * source bytes of the template, the translator version and the translation
+ * options, and their files are named after the key. Each translation has an
+ * index entry (<code>key.idx</code>) with the length and the SHA-256 digest
+ * of each of its files. The index entry is written after the files, so a
+ * translation is valid only if its index entry exists and all its files match
+ * it; otherwise the template is translated again.
+ *
+ * <p>All the files are written to a temporal file and then renamed, so
+ * concurrent writers (of the same JVM or of other nodes) never leave partial
+ * files. Different writers of a key produce the same content.
+ *
+ * @author Francisco Jos Garca Izquierdo
+ * @version 1.0
+ */
+class TranslationCache {
+
+  private static final String LOGGER_NAME = "ystsrv.manager";
+
+  /**
+   * Version of the translated templates format. It must be increased whenever
+   * the translation output changes, so older translations are not reused.
+   */
+  static final int FORMAT_VERSION = 1;
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private TranslationCache() {
+  }
+
+  /**
+   * Returns the key of the translation of <code>source</code> with the given
+   * translation options.
+   *
+   * @param source byte[] source of the template
+   * @param options String translation options
+   * @return String
+   */
+  static String key(byte[] source, String options) {
+    MessageDigest md = sha256();
+    md.update(toBytes(Config.YST_SERVER_VERSION + ';' + FORMAT_VERSION + ';' + options + ';'));
+    md.update(source);
+    return toHex(md.digest());
+  }
+
+  /**
+   * Returns the file of the translation directory named after
+   * <code>key</code>, with the given extension
+   *
+   * @param key String
+   * @param extension String
+   * @return File
+   */
+  static File getFile(String key, String extension) {
+    return new File(Config.TRANSLATED_TEMPLATES_DIR + '/' + key + extension);
+  }
+
+  /**
+   * Looks for a valid translation stored for <code>key</code> in
+   * <code>files</code>.
+   *
+   * @param key String
+   * @param files File[] files of the translation (the first is the translated
+   *   template)
+   * @return byte[] content of the translated template or null if there is not
+   *   a valid translation
+   */
+  static byte[] lookup(String key, File[] files) {
+    File idx = getFile(key, ".idx");
+    if (!idx.exists())
+      return null;
+    try {
+      Properties entry = new Properties();
+      InputStream is = new FileInputStream(idx);
+      try {
+        entry.load(is);
+      } finally {
+        is.close();
+      }
+      byte[] content = null;
+      for (int i = 0; i < files.length; i++) {
+        byte[] data = TemplateUtils.readTemplate(new FileInputStream(files[i]));
+        String length = entry.getProperty("file." + i + ".length");
+        String digest = entry.getProperty("file." + i + ".sha256");
+        if (length == null || Integer.parseInt(length) != data.length ||
+            !toHex(sha256().digest(data)).equals(digest)) {
+          Debug.warning(LOGGER_NAME, "Corrupted translation " + files[i].getAbsolutePath() +
+                        ". It will be translated again");
+          return null;
+        }
+        if (i == 0)
+          content = data;
+      }
+      return content;
+    } catch (IOException ex) {
+      Debug.fine(LOGGER_NAME, "Translation " + key + " not available [" + ex.getMessage() + "]");
+      return null;
+    } catch (NumberFormatException ex) {
+      Debug.warning(LOGGER_NAME, "Invalid index entry " + idx.getAbsolutePath());
+      return null;
+    }
+  }
+
+  /**
+   * Writes the index entry of the translation <code>key</code>, already
+   * stored in <code>files</code>.
+   *
+   * @param key String
+   * @param files File[] files of the translation
+   * @throws IOException Any error reading the files or writing the index entry
+   */
+  static void index(String key, File[] files) throws IOException {
+    StringBuffer entry = new StringBuffer("# Yeast-Server translation index entry\n");
+    for (int i = 0; i < files.length; i++) {
+      byte[] data = TemplateUtils.readTemplate(new FileInputStream(files[i]));
+      entry.append("file.").append(i).append(".name=").append(files[i].getName()).append('\n');
+      entry.append("file.").append(i).append(".length=").append(data.length).append('\n');
+      entry.append("file.").append(i).append(".sha256=").append(toHex(sha256().digest(data))).append('\n');
+    }
+    write(toBytes(entry.toString()), getFile(key, ".idx"));
+  }
+
+  /**
+   * Writes <code>content</code> in <code>dest</code>. The content is written
+   * in a temporal file of the same directory that is then renamed, so the
+   * file is never seen partially written, nor truncated while it may be
+   * mapped.
+   *
+   * @param content byte[]
+   * @param dest File
+   * @throws IOException Any error writing the file
+   */
+  static void write(byte[] content, File dest) throws IOException {
+    File tmp = File.createTempFile(dest.getName(), ".new", dest.getAbsoluteFile().getParentFile());
+    try {
+      FileOutputStream wr = new FileOutputStream(tmp);
+      try {
+        wr.write(content);
+      } finally {
+        wr.close();
+      }
+      try {
+        Files.move(tmp.toPath(), dest.toPath(), new java.nio.file.CopyOption[] {
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE});
+      } catch (AtomicMoveNotSupportedException ex) {
+        Files.move(tmp.toPath(), dest.toPath(), new java.nio.file.CopyOption[] {
+                   StandardCopyOption.REPLACE_EXISTING});
+      }
+    } finally {
+      tmp.delete(); // Only exists if it has not been moved
+    }
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException("SHA-256 not available");
+    }
+  }
+
+  private static byte[] toBytes(String s) {
+    try {
+      return s.getBytes("UTF-8");
+    } catch (java.io.UnsupportedEncodingException ex) {
+      throw new IllegalStateException("UTF-8 not available");
+    }
+  }
+
+  private static String toHex(byte[] b) {
+    char[] c = new char[b.length * 2];
+    for (int i = 0; i < b.length; i++) {
+      c[2 * i] = HEX[(b[i] >> 4) & 0xf];
+      c[2 * i + 1] = HEX[b[i] & 0xf];
+    }
+    return new String(c);
+  }
+}
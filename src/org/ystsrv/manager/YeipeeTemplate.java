@@ -39,6 +39,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.ref.SoftReference;
 import java.util.List;
+import org.ystsrv.ModelSection;
 import org.ystsrv.Template;
 import org.ystsrv.YSTException;
 import org.ystsrv.yeipee.YeipeeException;
@@ -50,7 +51,10 @@ public class YeipeeTemplate extends Template {
 
   private static final String LOGGER_NAME = "ystsrv.manager";
   
-  private InMemoryCachedReference rYeipeeProcessor;
+  private volatile InMemoryCachedReference rYeipeeProcessor;
+
+  // Version of the template content used to build the processor
+  private volatile int processorVersion;
   
   public YeipeeTemplate(String id, List transformerSpecs, TemplateSource source) throws IOException, YSTException {
     super(id, transformerSpecs, source);
@@ -68,18 +72,7 @@ public class YeipeeTemplate extends Template {
     Debug.prec(newModel, "NewModel can not be null nor empty"); // Nunca se dar� el caso
     Debug.check(transformers != null, "The template has not got transformers");
     try {
-      YeipeeProcessor yp;
-      synchronized (this) {
-        if (this.cache.hasNewVersion()) {
-          yp = createYeipeeProcessor();
-        } else {
-          yp = (YeipeeProcessor)this.rYeipeeProcessor.get();
-          if (yp == null) {
-            Debug.info(LOGGER_NAME, "Invalid weak reference. Rebuilding YeipeeProcessor");
-            yp = createYeipeeProcessor();
-          }
-        }
-      }
+      YeipeeProcessor yp = getYeipeeProcessor();
 
       String encoding = this.getTemplateEncoding();
       String result = yp.getProcessedTemplate(newModel);
@@ -97,11 +90,43 @@ public class YeipeeTemplate extends Template {
     }
   }
 
+  // The Yeipee processor needs the whole model section as a String
+  protected void printModel(ModelSection newModel, OutputStream os) throws IOException, YSTException {
+    this.print(newModel.getScriptData(), os);
+  }
+
+  protected boolean canStreamModel() {
+    return false;
+  }
+
+  // The processor is rebuilt only if the template has been reloaded or the
+  // weak reference has been garbage collected
+  private YeipeeProcessor getYeipeeProcessor() throws IOException, YeipeeException {
+    if (this.processorVersion == this.cache.getVersion()) {
+      YeipeeProcessor yp = (YeipeeProcessor)this.rYeipeeProcessor.get();
+      if (yp != null)
+        return yp;
+    }
+    synchronized (this) {
+      YeipeeProcessor yp = null;
+      if (this.processorVersion == this.cache.getVersion()) {
+        yp = (YeipeeProcessor)this.rYeipeeProcessor.get();
+        if (yp == null)
+          Debug.info(LOGGER_NAME, "Invalid weak reference. Rebuilding YeipeeProcessor");
+      }
+      if (yp == null)
+        yp = createYeipeeProcessor();
+      return yp;
+    }
+  }
+
   protected synchronized YeipeeProcessor createYeipeeProcessor() throws IOException, YeipeeException {
     if (this.cache == null)
       throw new IllegalStateException("the template must be cached before calling this method");
+    int version = this.cache.getVersion();
     YeipeeProcessor yp = new YeipeeProcessor(this.cache, this.id);
     this.rYeipeeProcessor = InMemoryCachedReference.newInstance(yp);
+    this.processorVersion = version;
     return yp;
   }
 }
@@ -50,6 +50,7 @@ import javax.servlet.http.HttpSession;
 import org.ystsrv.ConfigurationException;
 import org.ystsrv.ModelSection;
 import org.ystsrv.debug.Debug;
+import org.ystsrv.transformer.CacheableData;
 import org.ystsrv.transformer.NamedData;
 import org.ystsrv.yeipee.*;
 
@@ -107,6 +108,9 @@ public class YSTContext {
   
   private boolean avoidBrowserCache;
 
+  // Parallel transformation of the response objects. If null the template decides
+  private Boolean parallelTransformation;
+
   /**
    * Builds a YSTContext taking the <code>request</code> and
    * <code>response</code> objects of a servlet execution.
@@ -167,6 +171,26 @@ public class YSTContext {
     Debug.fine(LOGGER_NAME, "Added object to content: "+data);
   }
 
+  /**
+   * Adds an object to be used to fulfill the <code>Template</code>, as {@link
+   * #toResponse(Object)} does, whose transformation can be reused by other
+   * requests (e.g. a list of countries). The transformation is kept in the
+   * {@link org.ystsrv.transformer.FragmentCache} and reused for any object
+   * added with the same <code>key</code> and <code>version</code>, so
+   * <code>data</code> is not transformed again until its version changes.
+   *
+   * @param data Object. It can not be null
+   * @param key Object that identifies the content of <code>data</code>. It
+   *   can not be null
+   * @param version Object version of the content of <code>data</code>. It
+   *   can be null
+   * @throws IllegalArgumentException If the given <code>data</code> or
+   *   <code>key</code> are null
+   */
+  public void toResponseCached(Object data, Object key, Object version) {
+    toResponse(new CacheableData(data, key, version));
+  }
+
   /**
    * Adds an String value with name to be used to fulfill the Template. This
    * data will be included in the actual model section of the Template as a
@@ -1257,4 +1281,26 @@ public class YSTContext {
     return avoidBrowserCache;
   }
 
+  /**
+   * Sets if the response objects must be transformed in parallel in this
+   * request, regardless of the configuration of the template (see {@link
+   * org.ystsrv.transformer.TransformerGroup#isParallel}). Useful for
+   * responses made up of several large collections.
+   *
+   * @param parallel boolean
+   */
+  public void setParallelTransformation(boolean parallel) {
+    this.parallelTransformation = Boolean.valueOf(parallel);
+  }
+
+  /**
+   * Returns the parallel transformation mode set for this request, or null if
+   * it has not been set (and then the template decides).
+   *
+   * @return Boolean
+   */
+  public Boolean getParallelTransformation() {
+    return parallelTransformation;
+  }
+
 }
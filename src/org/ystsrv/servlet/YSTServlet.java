@@ -36,6 +36,7 @@ package org.ystsrv.servlet;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
 import java.util.List;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
@@ -52,7 +53,9 @@ import org.ystsrv.TransformationException;
 import org.ystsrv.YSTException;
 import org.ystsrv.debug.Debug;
 import org.ystsrv.manager.Config;
+import org.ystsrv.manager.TemplateCacheFactory;
 import org.ystsrv.transformer.TransformerGroup;
+import org.ystsrv.util.CompressedOutputStream;
 import org.ystsrv.yeipee.YeipeeUtils;
 
 /**
@@ -85,11 +88,65 @@ public abstract class YSTServlet extends HttpServlet {
   
   private static final String AJAX_PARAM_NAME = "yst.ajax";
 
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
   /**
    * {@inheritDoc}
    */
   public void init(ServletConfig config) throws ServletException {
     super.init(config);
+    synchronized (YSTServlet.class) {
+      liveServlets++;
+    }
+    if (Config.WARM_UP_TEMPLATES)
+      warmUp(config.getServletContext());
+  }
+
+  /**
+   * Stops the background reloading of templates when the last Yeast servlet
+   * of the web application is destroyed (e.g. it is undeployed), so that the
+   * reloader thread does not keep the web application classes loaded.
+   *
+   * {@inheritDoc}
+   */
+  public void destroy() {
+    boolean last;
+    synchronized (YSTServlet.class) {
+      last = --liveServlets == 0;
+    }
+    if (last)
+      TemplateCacheFactory.stopReloading();
+    super.destroy();
+  }
+
+  // Number of initialized (and not destroyed) Yeast servlets
+  private static int liveServlets = 0;
+
+  // Only the first Yeast servlet initialized warms up the templates
+  private static boolean warmUpStarted = false;
+
+  private static synchronized void warmUp(final ServletContext context) {
+    if (warmUpStarted)
+      return;
+    warmUpStarted = true;
+    if (Config.contextName == null) {
+      Config.contextName = context.getContextPath();
+      Debug.info(LOGGER_NAME, "Set contextName in Config ("+Config.contextName+")");
+    }
+    Runnable warmUp = new Runnable() {
+      public void run() {
+        TemplateManager.warmUp(Config.WARM_UP_STORES, context, Config.WARM_UP_SCAN_STORES,
+                               Config.WARM_UP_THREADS);
+      }
+    };
+    if (Config.WARM_UP_BEFORE_READY) {
+      // The servlet is not available until init returns
+      warmUp.run();
+    } else {
+      Thread t = new Thread(warmUp, "YST templates warm up");
+      t.setDaemon(true);
+      t.start();
+    }
   }
 
   protected void initContextNameInConfig(HttpServletRequest sc) {
@@ -220,7 +277,7 @@ public abstract class YSTServlet extends HttpServlet {
     }
   }
 
-  void doIt(HttpServletRequest request, HttpServletResponse response)
+  void doIt(HttpServletRequest request, final HttpServletResponse response)
       throws IOException, ServletException, YSTException {
 	  
     initContextNameInConfig(request);
@@ -233,43 +290,68 @@ public abstract class YSTServlet extends HttpServlet {
     String templateName = handle(context);
     Debug.fine(LOGGER_NAME, "YSTServlet- Template " + templateName + " is about to be used");
     
-    boolean full = ! guessIfIsAJAXRequest(request);
+    // Parallel transformation chosen for this request (if any)
+    TransformerGroup.setRequestParallel(context.getParallelTransformation());
+    try {
+      boolean full = ! guessIfIsAJAXRequest(request);
 
-    List data = context.getResponseObjects();
-    ModelSection dd2 = null;
-    Template template = null;
-    if (templateName != null && templateName.trim().length() != 0) {
-      template = getTemplate(context, templateName);
-      dd2 = template.makeModel(data);
-    } else if (!full) {
-      TransformerGroup transformers = new TransformerGroup();
-      dd2 = transformers.transform(data);
-    }
-    ModelSection dd = context.getModelSection();
-    if (dd2 != null && !dd2.isEmpty()) {
-      dd.append(dd2);
-    }
+      List data = context.getResponseObjects();
+      ModelSection dd = context.getModelSection();
+      Template template = null;
+      if (templateName != null && templateName.trim().length() != 0) {
+        template = getTemplate(context, templateName);
+      }
+      if (!full) {
+        ModelSection dd2 = (template != null) ? template.makeModel(data)
+                                              : new TransformerGroup().transform(data);
+        if (!dd2.isEmpty()) {
+          dd.append(dd2);
+        }
+      }
 
-    OutputStream out = response.getOutputStream();
-    Debug.fine(LOGGER_NAME, "Servlet response using " + response.getCharacterEncoding());
+      OutputStream out = response.getOutputStream();
+      Debug.fine(LOGGER_NAME, "Servlet response using " + response.getCharacterEncoding());
 
-    if (full) {
-      // Process the template
-      if (template != null) {
-        template.print(dd, out);
-        Debug.fine(LOGGER_NAME, "YSTServlet- Template sent to client");
+      CompressedOutputStream compressed = null;
+      if (Config.COMPRESS_OUTPUT) {
+        response.addHeader("Vary", "Accept-Encoding");
+        String coding = CompressedOutputStream.selectCoding(request.getHeader("Accept-Encoding"));
+        if (coding != null) {
+          // La cabecera se pone con el primer byte comprimido: si la plantilla
+          // falla antes, la pagina de error no se anuncia comprimida
+          out = compressed = new CompressedOutputStream(out, coding) {
+            protected void starting() {
+              response.setHeader("Content-Encoding", this.getCoding());
+            }
+          };
+          Debug.fine(LOGGER_NAME, "YSTServlet- Response compressed using " + coding);
+        }
       }
-    } else {
-      Debug.fine(LOGGER_NAME, "YSTServlet- Received AJAX request");
-      if (context.avoidBrowserCache()) {
-        avoidCaching(response);
+
+      if (full) {
+        // Process the template. The data are transformed while the template is
+        // printed, so the model section may be streamed (see Config.STREAM_MODEL_SECTION)
+        if (template != null) {
+          template.print(dd, data, out);
+          Debug.fine(LOGGER_NAME, "YSTServlet- Template sent to client");
+        }
+      } else {
+        Debug.fine(LOGGER_NAME, "YSTServlet- Received AJAX request");
+        if (context.avoidBrowserCache()) {
+          avoidCaching(response);
+        }
+        if (Debug.hasFineLevel(LOGGER_NAME))
+          Debug.fine(LOGGER_NAME, "YSTServlet- About to sent data: " + dd.getData());
+        response.setContentType("text/javascript; charset=UTF-8");
+        dd.writeTo(out, UTF8);
+        Debug.fine(LOGGER_NAME, "YSTServlet- AJAX data sent to client");
       }
-      Debug.fine(LOGGER_NAME, "YSTServlet- About to sent data: " + dd.getData());
-      response.setContentType("text/javascript; charset=UTF-8");
-      out.write(dd.getData().getBytes("UTF-8"));
-      Debug.fine(LOGGER_NAME, "YSTServlet- AJAX data sent to client");
+      if (compressed != null)
+        compressed.finish();
+      out.flush();
+    } finally {
+      TransformerGroup.setRequestParallel(null);
     }
-    out.flush();
 
   }
 
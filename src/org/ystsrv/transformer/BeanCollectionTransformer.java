@@ -34,12 +34,15 @@
  */
 package org.ystsrv.transformer;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Locale;
 import java.util.Map;
 
 import org.ystsrv.ConfigurationException;
+import org.ystsrv.TransformationException;
 import org.ystsrv.debug.Debug;
+import org.ystsrv.util.TextUtils;
 
 /**
  * This class is an extension of class {@link CollectionTransformer} specialized
@@ -137,6 +140,8 @@ import org.ystsrv.debug.Debug;
  *   <li><code>localeCountry</code>: the country/region code used to complement
  * the locale defined with the previos parameter, which will either be the empty
  * string or an upercase ISO 3166 2-letter code.</li>
+ *   <li><code>columnar</code>: if it is <code>true</code>, the collections are
+ * transformed using the columnar encoding (see {@link #setColumnar})</li>
  * </ul>
  * For example, the following configuration excerpt is taken from a
  * YSTConfig.xml file where a <code>BeanCollectionTransformer</code> is
@@ -168,6 +173,11 @@ public class BeanCollectionTransformer extends CollectionTransformer {
   private String header;
   private Class baseClass;
   private BeanFormatter formatter;
+  // Columnar encoding of the collections? (see setColumnar)
+  private boolean columnar;
+  // True if a subclass redefines doTransform, that the direct paths must not skip
+  private final boolean redefinesDoTransform = redefines(getClass(), BeanCollectionTransformer.class,
+                                                         "doTransform", new Class[] {Collection.class});
 
   /**
    * Creates a <code>BeanCollectionTransformer</code> object for objects of a
@@ -326,8 +336,57 @@ public class BeanCollectionTransformer extends CollectionTransformer {
     }
 
     this.formatter = BeanFormatterCache.getFormater(format, defaultDatePattern, locale, this.baseClass);
+    String columnar = (String)params.get("columnar");
+    this.columnar = columnar != null && columnar.trim().length() != 0 && TextUtils.isTrue(columnar);
   }
 
+  /**
+   * Sets if the collections are transformed using the columnar encoding. In
+   * this mode the format string is not repeated for each bean: the
+   * transformation is made up of the header and a call to the
+   * <code>YST.Model.hydrate</code> function of the Yeast engine, that
+   * receives, for each property reference of the format string, an array with
+   * its values, and runs the format string for each bean in the browser (or
+   * in the Yeipee processor). E.g., for the format <code>users[{#i}] = new
+   * User({name}, {height});</code> <pre>
+   *  users = new Array();
+   *  YST.Model.hydrate(2, function(i,c){
+   *  users[i] = new User(c[0][i], c[1][i]);
+   *  }, [['Francisco','Gemma'],[1.8,1.72]]);</pre>
+   * As the format string is run inside a function, the variables it uses
+   * must be declared in the header (a <code>var</code> declaration in the
+   * format string would be local to the function). Large collections are
+   * transformed into a much smaller model section, that is also parsed faster
+   * by the browser. The call falls back to an inline copy of the function if
+   * the Yeast engine of the browser does not define
+   * <code>YST.Model.hydrate</code>. If the format string references a
+   * property inside a string literal (e.g. <code>'Name: {name}'</code>) the
+   * collections are transformed as usual, one row per bean, since the
+   * columnar encoding would not produce the same values. The values of each property are buffered until the
+   * collection has been read, so this mode does not stream the beans of a
+   * {@link RowSource} one by one.
+   *
+   * @param columnar boolean
+   */
+  public void setColumnar(boolean columnar) {
+    this.columnar = columnar;
+  }
+
+  /**
+   * Returns true if the collections are transformed using the columnar
+   * encoding (see {@link #setColumnar}).
+   *
+   * @return boolean
+   */
+  public boolean isColumnar() {
+    return columnar;
+  }
+
+  // The columnar encoding is used if it is enabled and the format string
+  // admits it
+  private boolean isColumnarEncoded() {
+    return this.columnar && this.formatter.canBeColumnar();
+  }
 
   /**
    * Returns the class of the bean objects that must be contained in the
@@ -344,12 +403,21 @@ public class BeanCollectionTransformer extends CollectionTransformer {
    * Performs the transformation of the collection calling the {@link
    * #doTransform} method.
    *
-   * @param data It MUST be a <code>java.util.Collection</code>
-   *   containing objects of the class supplied in the constructor of the
-   *   transformer.
+   * @param data It MUST be a <code>java.util.Collection</code> (or a {@link
+   *   RowSource}) containing objects of the class supplied in the constructor
+   *   of the transformer.
    * @return String, result of the transformation
    */
   public String transform(Object data)  {
+    if (data instanceof RowSource) {
+      StringBuffer sb = new StringBuffer();
+      try {
+        this.doTransformTo((RowSource) data, sb);
+      } catch (IOException ex) { // StringBuffer does not throw it
+        throw new IllegalStateException(ex);
+      }
+      return sb.toString();
+    }
     Collection l = (Collection) data;
     return doTransform(l);
   }
@@ -376,7 +444,79 @@ public class BeanCollectionTransformer extends CollectionTransformer {
     }
     if (data.size() == 0)
       return (header != null ? header : "");
-    else
+    else if (this.isColumnarEncoded()) {
+      StringBuffer sb = new StringBuffer();
+      try {
+        this.formatter.formatColumnar(header, data.iterator(), sb);
+      } catch (IOException ex) { // StringBuffer does not throw it
+        throw new IllegalStateException(ex);
+      }
+      return sb.toString();
+    } else
       return this.formatter.format(header, data);
   }
+
+  /**
+   * Appends to <code>out</code> the transformation of <code>data</code>,
+   * transforming the beans in ranges of <code>rangeSize</code> beans in
+   * parallel if the collection is larger than a range. It is used by the
+   * {@link TransformerGroup} in parallel mode (see {@link
+   * TransformerGroup#isParallel}), from a thread of its pool.
+   *
+   * @param data Collection
+   * @param out StringBuffer
+   * @param rangeSize int
+   * @throws TransformationException
+   */
+  void doTransformInRanges(Collection data, StringBuffer out, int rangeSize) throws TransformationException {
+    if (this.redefinesDoTransform || this.redefinesTransform) {
+      String s = this.transform(data);
+      if (s != null) out.append(s);
+    } else if (data == null || data.size() == 0 || this.isColumnarEncoded()) {
+      out.append(doTransform(data));
+    } else if (rangeSize <= 0 || data.size() <= rangeSize) {
+      this.formatter.format(header, data, out);
+    } else {
+      this.formatter.formatInRanges(header, data, out, rangeSize);
+    }
+  }
+
+  public void doTransformTo(Collection data, Appendable out) throws ConfigurationException, IOException {
+    StringBuffer buffer = Renderer.bufferOf(out);
+    if (this.redefinesDoTransform) {
+      String s = doTransform(data);
+      if (s != null) out.append(s);
+    } else if (data == null || data.size() == 0) {
+      out.append(doTransform(data));
+    } else if (this.isColumnarEncoded()) {
+      this.formatter.formatColumnar(header, data.iterator(), out);
+    } else if (buffer != null) {
+      this.formatter.format(header, data, buffer);
+    } else {
+      this.formatter.format(header, data.iterator(), out);
+    }
+  }
+
+  /**
+   * Appends to <code>out</code> the transformation of the beans read from
+   * <code>data</code>. Each bean is formatted and written as soon as it is
+   * read, so large results (e.g. read from a database cursor) can be streamed
+   * to the client without holding them in memory.
+   *
+   * @param data RowSource
+   * @param out Appendable
+   * @throws ConfigurationException (see {@link #doTransform})
+   * @throws IOException Any error appending to <code>out</code>
+   */
+  public void doTransformTo(RowSource data, Appendable out) throws ConfigurationException, IOException {
+    if (this.redefinesDoTransform) {
+      this.doTransformTo(data.toList(), out);
+    } else if (data.isEmpty()) {
+      out.append(header != null ? header : "");
+    } else if (this.isColumnarEncoded()) {
+      this.formatter.formatColumnar(header, data, out);
+    } else {
+      this.formatter.format(header, data, out);
+    }
+  }
 }
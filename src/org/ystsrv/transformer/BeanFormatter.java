@@ -34,12 +34,15 @@
  */
 package org.ystsrv.transformer;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import org.ystsrv.ConfigurationException;
 import org.ystsrv.debug.Debug;
@@ -57,7 +60,21 @@ class BeanFormatter {
 
   private Class beanClass;
   private PropertiesAccessor properties;
-  private List tokens;
+  // Compiled format string and accessor of each of its slots
+  private FormatProgram program;
+  private PropertyPath[] paths;
+  // Date pattern of each slot, resolved with the format of the slot
+  private DatePattern[] datePatterns;
+
+  // Row function of the columnar encoding. Built when first needed;
+  // NO_ROW_FUNCTION if the format string can not be encoded in columns
+  private volatile String rowFunction;
+  private static final String NO_ROW_FUNCTION = "";
+
+  // Calls YST.Model.hydrate, or an inline copy of it if the Yeast engine
+  // that runs the model section does not define it
+  private static final String HYDRATE = "(typeof YST != 'undefined' && YST.Model && YST.Model.hydrate || " +
+      "function(n,row,c,skip){for(var i=0;i<n;i++){if(!skip||!skip[i])row(i,c);}})(";
 
   private String defaultDatePattern;  // it can be null
   private Locale locale;  // it can be null
@@ -68,160 +85,328 @@ class BeanFormatter {
     if (beanClass == null)
       throw new IllegalArgumentException("Illegal beanClass. It can not be null or empty");
     this.beanClass = beanClass;
-    this.lexeFormat(format);
+    this.program = FormatProgram.compile(format, "class " + beanClass);
+    this.paths = new PropertyPath[this.program.getSlotCount()];
     properties = new PropertiesAccessor(beanClass);
     this.defaultDatePattern = defaultDatePattern; this.locale = locale;
+    this.datePatterns = new DatePattern[this.program.getSlotCount()];
+    for (int slot = 0; slot < this.datePatterns.length; slot++) {
+      this.datePatterns[slot] = DatePattern.resolve(this.program.getSlotFormat(slot), defaultDatePattern, locale);
+    }
   }
 
-  private void lexeFormat(String format) {
-    this.tokens = new ArrayList();
+  String format(Object value) {
+    StringBuffer sb = new StringBuffer();
+    this.format(0, value, sb);
+    return sb.toString();
+  }
+
+  // La cabecera en una linea y el resto de items en lineas nuevas
+  String format(String header, Collection values) {
+    StringBuffer sb = new StringBuffer();
+    this.format(header, values, sb);
+    return sb.toString();
+  }
+
+  void format(String header, Collection values, StringBuffer out) {
+    if (header != null) out.append(header);
+    out.append('\n');
     int i = 0;
-    StringBuffer token = new StringBuffer();
-    int len = format.length();
-    while (i < len) {
-      if (format.charAt(i) == '\\' && (i + 1) < len &&
-          (format.charAt(i + 1) == '{' || format.charAt(i + 1) == '}')) {
-        i++;
-      }
-      if (format.charAt(i) == '{') {
-        // Comienza propiedad. copia token a tokens
-        if (i == 0 || i > 0 && format.charAt(i - 1) != '\\') {
-          if (token.length() != 0) tokens.add(token.toString());  // Aado el token anterior
-          token = new StringBuffer();
-          StringBuffer prop = new StringBuffer();
-          StringBuffer form = null;
-          int init = i;
-          i++;
+    Iterator iter = values.iterator();
+    while (iter.hasNext()) {
+      Object obj = iter.next();
+      this.format(i++, obj, out);
+      if (iter.hasNext()) out.append('\n');
+    }
+  }
 
-          // Quita posibles espacios en blanco antes del nombre de la propiedad
-          while (i < len && format.charAt(i) == ' ')i++;
+  /**
+   * Appends to <code>out</code> the same text that {@link #format(String,
+   * Collection, StringBuffer)} for the values read from <code>values</code>.
+   * Each value is formatted and appended to <code>out</code> as soon as it is
+   * read, so neither the values nor their text are held in memory (if
+   * <code>out</code> does not hold them, e.g. a streaming model section).
+   *
+   * @param header String
+   * @param values Iterator
+   * @param out Appendable
+   * @throws IOException Any error appending to <code>out</code>
+   */
+  void format(String header, Iterator values, Appendable out) throws IOException {
+    StringBuffer sb = Renderer.bufferOf(out);
+    if (sb != null) {
+      if (header != null) sb.append(header);
+      sb.append('\n');
+      for (int i = 0; values.hasNext(); i++) {
+        this.format(i, values.next(), sb);
+        if (values.hasNext()) sb.append('\n');
+      }
+      return;
+    }
+    StringBuffer row = new StringBuffer(256);
+    if (header != null) row.append(header);
+    row.append('\n');
+    out.append(row);
+    for (int i = 0; values.hasNext(); i++) {
+      row.setLength(0);
+      this.format(i, values.next(), row);
+      if (values.hasNext()) row.append('\n');
+      out.append(row);
+    }
+  }
 
-          boolean propStarted = (format.charAt(i) != '%');
+  /**
+   * Appends to <code>out</code> the columnar encoding of the values read from
+   * <code>values</code>: the header, and then a single call to the
+   * <code>YST.Model.hydrate</code> function of the Yeast engine (or to an
+   * inline copy of it, if the engine does not define it), whose
+   * arguments are the number of values, a function that runs the format
+   * string for the row <code>i</code> (see {@link #getRowFunction}), and an
+   * array with a column for each property reference of the format string.
+   * Each column holds the rendered values of its property, so the format
+   * string is written once instead of once per value. E.g. <pre>
+   * users = new Array();
+   * YST.Model.hydrate(2, function(i,c){
+   * users[i] = new User(c[0][i], c[1][i]);
+   * }, [['Francisco','Gemma'],[1.8,1.72]]);</pre>
+   * The indexes of null values are passed as a fourth argument (an object
+   * whose properties are the indexes), so their rows are skipped. The format
+   * string must be encodable in columns (see {@link #canBeColumnar}).
+   *
+   * @param header String
+   * @param values Iterator
+   * @param out Appendable
+   * @throws IOException Any error appending to <code>out</code>
+   */
+  void formatColumnar(String header, Iterator values, Appendable out) throws IOException {
+    FormatProgram program = this.program;
+    StringBuffer[] columns = new StringBuffer[program.getSlotCount()];
+    for (int slot = 0; slot < columns.length; slot++)
+      columns[slot] = new StringBuffer();
+    StringBuffer cell = new StringBuffer();
+    StringBuffer skip = null;
+    int n = 0;
+    try {
+      for (; values.hasNext(); n++) {
+        Object value = values.next();
+        if (n > 0) {
+          for (int slot = 0; slot < columns.length; slot++)
+            columns[slot].append(',');
+        }
+        if (value == null) {
+          skip = (skip == null ? new StringBuffer() : skip.append(','));
+          skip.append(n).append(":1");
+          continue;
+        }
+        if (!this.beanClass.isInstance(value))
+          throw new IllegalArgumentException("This transformer only accepts objects of class "+this.beanClass.getName());
+        for (int slot = 0; slot < columns.length; slot++) {
+          cell.setLength(0);
+          Object propValue = getPath(slot).getValue(value);
+          Renderer.appendValue(propValue, program.getSlotFormat(slot), this.datePatterns[slot],
+                               this.defaultDatePattern, this.locale, cell);
+          if (cell.length() == 0) cell.append("''");
+          columns[slot].append(cell);
+        }
+      }
+    } catch (InvocationTargetException ex) {
+      throw new ConfigurationException("Impossible to transform the variable of " +
+                                           this.beanClass +
+                                           ". Problems accesing to the bean properties.", ex);
+    } catch (IllegalAccessException ex) {
+      Debug.fine(LOGGER_NAME, ex);
+      throw new ConfigurationException("Impossible to transform the variable of " +
+                                           this.beanClass +
+                                           ". Problems accesing to the bean properties [" +
+                                           ex.getMessage() + "].", ex);
+    }
 
-          while (i < len && format.charAt(i) != '}') {
-            if (format.charAt(i) == '%') {
-              // Comienzo de especificacin de formato de propiedad
-              form = new StringBuffer();
-              if (!propStarted)
-                throw new ConfigurationException("Bad format string specification for class "+
-                                                 this.beanClass+": " + format +
-                                                 "\n. Column cannot begin with % in position " + (i+1));
-              i++;
-              int curlyBracesBalance = 0;
-              // Paro cuando agoto la cadena de formato (i>=len) or cuando alcanzo un caracter %
-              // que no est dentro de la especificacin de una propiedad (curlyBracesBalance%2==0)
-              // (format.charAt(i)=='%' && curlyBracesBalance%2==0)
-              while (i < len && (format.charAt(i) != '%' || curlyBracesBalance%2!=0)) {
-                if (format.charAt(i) == '\\' && (i + 1) < len && format.charAt(i + 1) == '%') {
-                  // % escapado
-                  i++;
-                } else if (format.charAt(i) == '{') { // llave interna al formato (inicio propiedad en formato)
-                  curlyBracesBalance++;
-                } else if (format.charAt(i) == '}') {
-                  curlyBracesBalance--;
-                }
-                // Cojo formato
-                form.append(format.charAt(i));
-                i++;
-              }
-              if (i == len) { // agotada cadena sin encontrar pareja %
-                throw new ConfigurationException("Bad format string specification for class "+
-                                                 this.beanClass+": " + format +
-                                                 "\n. Property format specification not finished in position " + (init+1));
-              }
-            }
+    if (header != null) out.append(header);
+    out.append('\n');
+    out.append(HYDRATE).append(String.valueOf(n)).append(", ");
+    out.append(this.getRowFunction()).append(", [");
+    for (int slot = 0; slot < columns.length; slot++) {
+      if (slot > 0) out.append(',');
+      out.append('[').append(columns[slot]).append(']');
+    }
+    out.append(']');
+    if (skip != null)
+      out.append(", {").append(skip).append('}');
+    out.append(");");
+  }
 
-            else if (format.charAt(i) == '{') {
-              throw new ConfigurationException("Bad format string specification for class "+
-                                               this.beanClass+": " + format +
-                                               "\n. Nested { in position " + (i+1));
-            } else {
-              if (format.charAt(i) != ' ' && form != null && form.length() > 0)
-                throw new ConfigurationException("Bad format string specification for class "+
-                                                 this.beanClass+": " + format +
-                                                 "\n. No text after format specification " +
-                                                 form + " is allowed " + (init + 1));
-              prop.append(format.charAt(i));
+  /**
+   * Returns the source of a JavaScript function <code>function(i,c)</code>
+   * that runs the format string for the row <code>i</code> of a columnar
+   * encoding (see {@link #formatColumnar}). The references to properties are
+   * replaced by the value of their column (<code>c[slot][i]</code>) and the
+   * references to <code>#i</code> by <code>i</code>. If a <code>#i</code>
+   * reference is written inside a string literal of the format string, the
+   * index is concatenated to the literal (e.g. <code>'id{#i}'</code> becomes
+   * <code>'id'+i+''</code>), that gives the same text than the row encoding.
+   * That is not the case for the property references: the row encoding
+   * writes the JavaScript literal of the value inside the string literal
+   * (<code>'x{name}'</code> becomes <code>'x'Fran'</code>), so if a property
+   * is referenced inside a string literal the format string can not be
+   * encoded in columns and this method returns null. It also returns null if
+   * a reference out of a string literal is joined to an identifier, a number,
+   * a dot or another reference (<code>x{id} = 1</code>), as the expression
+   * that replaces it would be joined too.
+   *
+   * @return String the function, or null if the format string can not be
+   *   encoded in columns
+   */
+  String getRowFunction() {
+    String rowFunction = this.rowFunction;
+    if (rowFunction == NO_ROW_FUNCTION)
+      return null;
+    if (rowFunction == null) {
+      FormatProgram program = this.program;
+      StringBuffer sb = new StringBuffer("function(i,c){\n");
+      char quote = 0; // Delimitador del literal de cadena abierto (si lo hay)
+      for (int pc = 0; pc < program.getLength(); pc++) {
+        String ref;
+        switch (program.getOp(pc)) {
+          case FormatProgram.LITERAL:
+            String literal = program.getLiteral(pc);
+            for (int k = 0; k < literal.length(); k++) {
+              char c = literal.charAt(k);
+              sb.append(c);
+              if (quote != 0 && c == '\\' && k + 1 < literal.length())
+                sb.append(literal.charAt(++k));
+              else if (quote != 0 && c == quote)
+                quote = 0;
+              else if (quote == 0 && (c == '\'' || c == '"'))
+                quote = c;
             }
-            i++;
-          }
-          if (i == len) { // agotada cadena sin encontrar pareja }
-            throw new ConfigurationException("Bad format string specification for class "+
-                                                 this.beanClass+": " + format +
-                                                 "\n. Curly brace mismatch for { in position " + (init+1));
-          } else { // Se acab la propiedad
-            String propName = prop.toString().trim();
-            if (propName.length() != 0) {
-              tokens.add(new PropertyHolder(prop.toString(), (form != null ? form.toString():null)));
+            continue;
+          case FormatProgram.INDEX:
+            ref = "i";
+            break;
+          default:
+            if (quote != 0) {
+              this.rowFunction = NO_ROW_FUNCTION;
+              return null;
             }
-          }
-        } else { // era una { escapada con \
-          token.append(format.charAt(i));
+            ref = "c[" + program.getSlot(pc) + "][i]";
         }
-      } else if (format.charAt(i) == '}') {  // Es una llave de cierre descolocada
-        if (i == 0 || i > 0 && format.charAt(i - 1) != '\\') {
-          throw new ConfigurationException("Bad format string specification for class "+
-                                                 this.beanClass+": " + format +
-                                                 "\n. Curly brace mismatch for } in position " + (i+1));
-        } else {  // Una llave de cierre escapada con  \
-          token.append(format.charAt(i));
+        if (quote == 0 && (isJoined(program, pc - 1, true) || isJoined(program, pc + 1, false))) {
+          this.rowFunction = NO_ROW_FUNCTION;
+          return null;
         }
-      } else { // texto normal
-        token.append(format.charAt(i));
+        if (quote != 0)
+          sb.append(quote).append('+').append(ref).append('+').append(quote);
+        else
+          sb.append(ref);
       }
-      i++;
-    }
-    if (token.length() != 0) {
-      tokens.add(token.toString());
+      sb.append("\n}");
+      rowFunction = this.rowFunction = sb.toString();
     }
+    return rowFunction;
   }
 
-  String format(Object value) {
-    return this.formatObj(0, value);
+  /**
+   * Returns true if the op <code>pc</code>, next to a reference written out of
+   * any string literal, would be joined to the JavaScript code of the
+   * reference: that is, if it is another reference or a literal that ends
+   * (<code>before</code>) or starts with a character of an identifier or a
+   * dot. The row encoding pastes the text of the value there (
+   * <code>var u{#i}</code> gives <code>var u3</code>), and the row function
+   * would paste its expression instead (<code>var ui</code>).
+   */
+  private static boolean isJoined(FormatProgram program, int pc, boolean before) {
+    if (pc < 0 || pc >= program.getLength())
+      return false;
+    if (program.getOp(pc) != FormatProgram.LITERAL)
+      return true;
+    String literal = program.getLiteral(pc);
+    if (literal.length() == 0)
+      return false;
+    char c = literal.charAt(before ? literal.length() - 1 : 0);
+    return c == '.' || Character.isJavaIdentifierPart(c);
   }
 
-  // La cabecera en una linea y el resto de items en lineas nuevas
-  String format(String header, Collection values) {
-    StringBuffer sb = new StringBuffer( (header != null ? header : "")+"\n");
-    int i = 0;
-    Iterator iter = values.iterator();
-    while (iter.hasNext()) {
-      Object obj = iter.next();
-      sb.append(this.formatObj(i++, obj));
-      if (iter.hasNext()) sb.append("\n");
+  /**
+   * Returns true if the format string can be used in the columnar encoding
+   * (see {@link #getRowFunction}).
+   *
+   * @return boolean
+   */
+  boolean canBeColumnar() {
+    return this.getRowFunction() != null;
+  }
+
+  /**
+   * Appends to <code>out</code> the same text that {@link #format(String,
+   * Collection, StringBuffer)}, but the values are transformed in ranges of
+   * <code>rangeSize</code> values in parallel. It must be called from a task
+   * of a <code>ForkJoinPool</code>, whose threads transform the ranges.
+   *
+   * @param header String
+   * @param values Collection
+   * @param out StringBuffer
+   * @param rangeSize int
+   */
+  void formatInRanges(String header, Collection values, StringBuffer out, int rangeSize) {
+    final Object[] items = values.toArray();
+    List ranges = new ArrayList();
+    for (int from = 0; from < items.length; from += rangeSize) {
+      final int init = from;
+      final int end = Math.min(from + rangeSize, items.length);
+      ranges.add(new RecursiveTask() {
+        protected Object compute() {
+          StringBuffer sb = new StringBuffer();
+          for (int i = init; i < end; i++) {
+            format(i, items[i], sb);
+            if (i + 1 < end) sb.append('\n');
+          }
+          return sb;
+        }
+      });
+    }
+    ForkJoinTask.invokeAll(ranges);
+
+    if (header != null) out.append(header);
+    out.append('\n');
+    for (int r = 0; r < ranges.size(); r++) {
+      if (r > 0) out.append('\n');
+      out.append((StringBuffer)((ForkJoinTask)ranges.get(r)).join());
     }
-    return sb.toString();
   }
 
-  private String formatObj(int order, Object value) {
+  /**
+   * Appends to <code>out</code> the transformation of <code>value</code>,
+   * running the compiled format string.
+   *
+   * @param order index of the value (<code>{#i}</code>)
+   * @param value Object
+   * @param out StringBuffer
+   */
+  void format(int order, Object value, StringBuffer out) {
     if (value == null)
-      return "";
+      return;
 
     if (!this.beanClass.isInstance(value))
       throw new IllegalArgumentException("This transformer only accepts objects of class "+this.beanClass.getName());
 
     try {
-      int propIdx = 0;
-      StringBuffer formatedValue = new StringBuffer();
-
-      Iterator iter = this.tokens.iterator();
-      while (iter.hasNext()) {
-        Object token = iter.next();
-        if (token instanceof PropertyHolder) {
-          PropertyHolder p = (PropertyHolder)token;
-          if (p.name.equals("#i")) {
-            formatedValue.append(order);
-          } else {
-            String propName = p.name;
-            Object propValue = this.properties.getProperty(propName, value);
-            formatedValue.append(Renderer.renderValue(propValue, p.format, this.defaultDatePattern, this.locale));
-          }
-          propIdx++;
-        } else {
-          formatedValue.append(token);
+      FormatProgram program = this.program;
+      int length = program.getLength();
+      for (int pc = 0; pc < length; pc++) {
+        switch (program.getOp(pc)) {
+          case FormatProgram.LITERAL:
+            out.append(program.getLiteral(pc));
+            break;
+          case FormatProgram.INDEX:
+            out.append(order);
+            break;
+          default:
+            int slot = program.getSlot(pc);
+            Object propValue = getPath(slot).getValue(value);
+            Renderer.appendValue(propValue, program.getSlotFormat(slot), this.datePatterns[slot],
+                                 this.defaultDatePattern, this.locale, out);
         }
       }
-      return formatedValue.toString();
     } catch (InvocationTargetException ex) {
       throw new ConfigurationException("Impossible to transform the variable of " +
                                            this.beanClass +
@@ -235,6 +420,16 @@ class BeanFormatter {
     }
   }
 
+  // Paths are resolved when the property is first formatted
+  private PropertyPath getPath(int slot) {
+    PropertyPath path = this.paths[slot];
+    if (path == null) {
+      path = this.properties.resolve(this.program.getSlotName(slot));
+      this.paths[slot] = path;
+    }
+    return path;
+  }
+
   private static void replaceSubStr(StringBuffer src, String from, String to) {
     int len = from.length();
     int fromIndx = src.indexOf(from);
@@ -243,14 +438,4 @@ class BeanFormatter {
       fromIndx = src.indexOf(from, fromIndx);
     }
   }
-
-  private class PropertyHolder {
-    String name;
-    String format;
-
-    PropertyHolder(String name, String format) {
-      this.name = name.trim();
-        this.format = format;
-    }
-  }
 }
@@ -34,6 +34,7 @@
  */
 package org.ystsrv.transformer;
 
+import java.io.IOException;
 import java.util.Locale;
 import java.util.Map;
 
@@ -213,6 +214,9 @@ public class BeanTransformer extends Transformer {
   private String format;
   private Class baseClass;
   private BeanFormatter formatter;
+  // True if a subclass redefines transform, that transformTo must not skip
+  private final boolean redefinesTransform = redefines(getClass(), BeanTransformer.class, "transform",
+                                                       new Class[] {Object.class});
 
   /**
    * Creates a <code>BeanTransformer</code> object for objects of a given class
@@ -378,6 +382,25 @@ public class BeanTransformer extends Transformer {
     return this.formatter.format(data);
   }
 
+  public void transformTo(Object data, Appendable out) throws ConfigurationException, IOException {
+    if (this.redefinesTransform) {
+      String s = this.transform(data);
+      if (s != null) out.append(s);
+    } else if (data == null) {
+      Debug.warning(LOGGER_NAME, "TransformerGroup.transform: skiping null data to transform");
+      out.append("// Null data skipped");
+    } else {
+      StringBuffer buffer = Renderer.bufferOf(out);
+      if (buffer != null) {
+        this.formatter.format(0, data, buffer);
+      } else {
+        buffer = new StringBuffer();
+        this.formatter.format(0, data, buffer);
+        out.append(buffer);
+      }
+    }
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -0,0 +1,72 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.transformer;
+
+/**
+ * Objects whose transformation can be reused across requests (e.g. country
+ * lists, product catalogues or menu trees). The {@link TransformerGroup}
+ * keeps the text obtained when a <code>Cacheable</code> object is transformed
+ * in the {@link FragmentCache}, and reuses it to transform any object with the
+ * same key and version, as long as it is transformed by the same transformer.
+ *
+ * <p>Business objects can implement this interface, or they can be wrapped
+ * into a {@link CacheableData} object (see {@link
+ * org.ystsrv.servlet.YSTContext#toResponseCached}).
+ * The methods of this interface are not named as getters, so they are not
+ * taken as properties of the beans that implement it.
+ *
+ * @author Francisco Jos Garca Izquierdo
+ * @version 1.0
+ */
+public interface Cacheable {
+
+  /**
+   * Returns the key that identifies the content of this object. Objects with
+   * equal keys (and versions) are transformed into the same text. If it is
+   * null, the object is not cached.
+   *
+   * @return Object
+   */
+  public Object cacheKey();
+
+  /**
+   * Returns the version of the content of this object. The cached text of an
+   * object is discarded when an object with the same key and a different
+   * version is transformed. It can be null.
+   *
+   * @return Object
+   */
+  public Object cacheVersion();
+}
@@ -0,0 +1,119 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.transformer;
+
+/**
+ * Wraps an object whose transformation can be reused across requests,
+ * supplying the key and version of its content (see {@link Cacheable}). The
+ * {@link TransformerGroup} transforms the wrapped object, as if it had been
+ * added to the response without wrapping. It is useful to cache the
+ * transformation of objects that can not implement <code>Cacheable</code>
+ * (e.g. collections).
+ *
+ * @author Francisco Jos Garca Izquierdo
+ * @version 1.0
+ */
+public final class CacheableData implements Cacheable {
+
+  private Object data;
+  private Object key;
+  private Object version;
+  private long ttl;
+
+  /**
+   * Creates a <code>CacheableData</code> whose transformation is cached until
+   * the version changes (or the {@link
+   * org.ystsrv.manager.Config#FRAGMENT_CACHE_TTL} elapses).
+   *
+   * @param data Object to be transformed. It can not be null
+   * @param key Object key of the content of data. It can not be null
+   * @param version Object version of the content of data. It can be null
+   * @throws IllegalArgumentException if data or key are null
+   */
+  public CacheableData(Object data, Object key, Object version) {
+    this(data, key, version, 0);
+  }
+
+  /**
+   * Creates a <code>CacheableData</code> whose transformation is cached
+   * during <code>ttl</code> milliseconds at most.
+   *
+   * @param data Object to be transformed. It can not be null
+   * @param key Object key of the content of data. It can not be null
+   * @param version Object version of the content of data. It can be null
+   * @param ttl long time to live of the cached transformation. If it is 0,
+   *   {@link org.ystsrv.manager.Config#FRAGMENT_CACHE_TTL} is used
+   * @throws IllegalArgumentException if data or key are null
+   */
+  public CacheableData(Object data, Object key, Object version, long ttl) {
+    if (data == null) throw new IllegalArgumentException("data can not be null");
+    if (key == null) throw new IllegalArgumentException("key can not be null");
+    this.data = data;
+    this.key = key;
+    this.version = version;
+    this.ttl = ttl;
+  }
+
+  /**
+   * Returns the wrapped object
+   *
+   * @return Object
+   */
+  public Object getData() {
+    return this.data;
+  }
+
+  public Object cacheKey() {
+    return this.key;
+  }
+
+  public Object cacheVersion() {
+    return this.version;
+  }
+
+  /**
+   * Returns the time to live of the cached transformation, or 0 if the
+   * default one must be used.
+   *
+   * @return long
+   */
+  public long getTTL() {
+    return this.ttl;
+  }
+
+  public String toString() {
+    return "CacheableData [" + this.key + (this.version != null ? " v" + this.version : "") + "] " + this.data;
+  }
+}
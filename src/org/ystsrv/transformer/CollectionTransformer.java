@@ -34,8 +34,8 @@
  */
 package org.ystsrv.transformer;
 
+import java.io.IOException;
 import java.util.Collection;
-import java.util.Iterator;
 
 import org.ystsrv.ConfigurationException;
 import org.ystsrv.TransformationException;
@@ -62,6 +62,13 @@ import org.ystsrv.Transformer;
  * #doTransform} method, a convenience transformation method adapted to
  * <code>Collection</code>s.</p>
  *
+ * <p>Collection transformers also accept the lazy sources of objects (an
+ * <code>Iterator</code>, a <code>Stream</code>, a cursor...) wrapped by the
+ * {@link TransformerGroup} into a {@link RowSource}. By default the objects of
+ * the source are read into a list that is passed to {@link #doTransform};
+ * subclasses can redefine {@link #doTransformTo(RowSource, Appendable)} to
+ * transform them one by one, as {@link BeanCollectionTransformer} does.</p>
+ *
  * <p>As an example consider a collection of <code>Book</code>
  * objects. Each book has as properties an id, a title, an author, a price and a
  * publisher. A certain Yeast template needs a set of books as part of its
@@ -118,25 +125,42 @@ import org.ystsrv.Transformer;
  */
 public abstract class CollectionTransformer extends Transformer {
 
+  // True if the class of the transformer redefines transform(Object), that
+  // transformTo must not skip
+  final boolean redefinesTransform = redefines(getClass(), CollectionTransformer.class, "transform",
+                                               new Class[] {Object.class});
+
   /**
    * Performs the transformation of the collection calling the {@link
    * #doTransform} method.
    *
-   * @param data It MUST be a <code>java.util.Collection</code>
-   *   containing objects of the class supplied in the constructor of the
-   *   transformer.
+   * @param data It MUST be a <code>java.util.Collection</code> (or a {@link
+   *   RowSource}) containing objects of the class supplied in the constructor
+   *   of the transformer.
    * @return String, result of the transformation
    */
   public String transform(Object data) throws TransformationException  {
+    if (data instanceof RowSource)
+      return doTransform(((RowSource)data).toList());
     Collection l = (Collection) data;
     return doTransform(l);
   }
 
+  public void transformTo(Object data, Appendable out) throws TransformationException, IOException {
+    if (this.redefinesTransform) {
+      String s = this.transform((data instanceof RowSource) ? ((RowSource)data).toList() : data);
+      if (s != null) out.append(s);
+    } else if (data instanceof RowSource)
+      doTransformTo((RowSource) data, out);
+    else
+      doTransformTo((Collection) data, out);
+  }
+
   /**
    * Returns <code>true</code> if <code>data</code> is a not null
-   * <code>java.util.Collection</code> containing objects of the class supplied
-   * in the constructor of the transformer (only the first object of the
-   * collection is tested).
+   * <code>java.util.Collection</code> (or a not empty {@link RowSource})
+   * containing objects of the class supplied in the constructor of the
+   * transformer (only the first object of the collection is tested).
    *
    * @param data Object to be transformed
    * @return boolean
@@ -146,11 +170,21 @@ public abstract class CollectionTransformer extends Transformer {
   public boolean accept(Object data) throws ConfigurationException {
     if (data == null)
       return false;
-    if (! (data instanceof Collection))
-      return false;
-    Collection l = (Collection) data;
-    if (l.size() == 0)
+    Object first;
+    if (data instanceof RowSource) {
+      // Only the first object, read in advance, can be tested
+      RowSource rows = (RowSource) data;
+      if (rows.isEmpty())
+        return false;
+      first = rows.first();
+    } else if (data instanceof Collection) {
+      Collection l = (Collection) data;
+      if (l.size() == 0)
+        return false;
+      first = l.iterator().next();
+    } else {
       return false;
+    }
 
     Class transformedClass = this.transformedClass();
 
@@ -158,8 +192,7 @@ public abstract class CollectionTransformer extends Transformer {
       throw new ConfigurationException("Transformer class " + this.getClass().getName() +
                                        " can not return null in transformedClass() method");
 
-    Iterator iter = l.iterator();
-    return transformedClass.isInstance(iter.next());
+    return transformedClass.isInstance(first);
   }
 
   /**
@@ -185,4 +218,36 @@ public abstract class CollectionTransformer extends Transformer {
    */
   public abstract String doTransform(Collection data) throws TransformationException;
 
+  /**
+   * Appends to <code>out</code> the transformation of the
+   * <code>data</code> collection. By default it appends the string returned
+   * by {@link #doTransform}; subclasses can redefine it to write the
+   * transformation directly in <code>out</code>.
+   *
+   * @param data Collection
+   * @param out Appendable
+   * @throws TransformationException
+   * @throws IOException Any error appending to <code>out</code>
+   */
+  public void doTransformTo(Collection data, Appendable out) throws TransformationException, IOException {
+    String s = doTransform(data);
+    if (s != null) out.append(s);
+  }
+
+  /**
+   * Appends to <code>out</code> the transformation of the objects read from
+   * the lazy source <code>data</code>. By default the objects are read into a
+   * list that is transformed with {@link #doTransformTo(Collection,
+   * Appendable)}; subclasses can redefine it to transform the objects as they
+   * are read, without holding them in memory.
+   *
+   * @param data RowSource
+   * @param out Appendable
+   * @throws TransformationException
+   * @throws IOException Any error appending to <code>out</code>
+   */
+  public void doTransformTo(RowSource data, Appendable out) throws TransformationException, IOException {
+    doTransformTo(data.toList(), out);
+  }
+
 }
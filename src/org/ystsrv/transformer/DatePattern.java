@@ -0,0 +1,382 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.transformer;
+
+import java.text.DateFormatSymbols;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.SignStyle;
+import java.time.format.TextStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalField;
+import java.time.temporal.WeekFields;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ystsrv.ConfigurationException;
+
+/**
+ * Date pattern, written with the syntax of <code>java.text.SimpleDateFormat</code>,
+ * compiled into an immutable <code>java.time.format.DateTimeFormatter</code>.
+ * Contrary to <code>SimpleDateFormat</code>, a compiled pattern can be shared
+ * by any number of threads without synchronization.
+ *
+ * <p>Patterns are compiled once per pattern and locale, and they are rendered
+ * in the default time zone of the JVM (as <code>SimpleDateFormat</code> does).
+ * An illegal pattern is only reported when a date is rendered with it, since
+ * the formats of the format strings are not always date patterns.
+ *
+ * @author Francisco Jos Garca Izquierdo
+ * @version 1.0
+ */
+public final class DatePattern {
+
+  private static final Map cache = new ConcurrentHashMap();
+
+  private final String pattern;
+  private final DateTimeFormatter formatter; // null if the pattern is illegal
+  private final IllegalArgumentException error;
+  private final ZoneId zone;
+
+  private DatePattern(String pattern, Locale locale) {
+    this.pattern = pattern;
+    DateTimeFormatter f = null;
+    IllegalArgumentException e = null;
+    try {
+      f = toFormatter(pattern, locale != null ? locale : Locale.getDefault(Locale.Category.FORMAT));
+    } catch (IllegalArgumentException ex) {
+      e = ex;
+    }
+    this.formatter = f;
+    this.error = e;
+    this.zone = TimeZone.getDefault().toZoneId();
+  }
+
+  /**
+   * Returns the compiled version of <code>pattern</code> for
+   * <code>locale</code>.
+   *
+   * @param pattern String date pattern in <code>SimpleDateFormat</code>
+   *   syntax. It can not be null
+   * @param locale Locale it can be null (default locale)
+   * @return DatePattern
+   */
+  public static DatePattern compile(String pattern, Locale locale) {
+    Object key = (locale != null ? (Object)new Key(pattern, locale) : pattern);
+    DatePattern p = (DatePattern)cache.get(key);
+    if (p == null) {
+      p = new DatePattern(pattern, locale);
+      cache.put(key, p);
+    }
+    return p;
+  }
+
+  /**
+   * Resolves the date pattern used to render the dates of a property with
+   * format <code>formatPattern</code>: the format itself if it is a legal
+   * date pattern, and <code>defaultDatePattern</code> otherwise.
+   *
+   * @param formatPattern String it can be null
+   * @param defaultDatePattern String it can be null
+   * @param locale Locale it can be null
+   * @return DatePattern the pattern to use, or null if dates must be rendered
+   *   as <code>new Date(millis)</code>
+   */
+  public static DatePattern resolve(String formatPattern, String defaultDatePattern, Locale locale) {
+    String datePattern;
+    if (formatPattern != null) {
+      if (formatPattern.equals(""))
+        return null;
+      DatePattern p = compile(formatPattern, locale);
+      if (p.isLegal())
+        return p;
+      datePattern = (defaultDatePattern != null ? defaultDatePattern : formatPattern);
+    } else {
+      datePattern = defaultDatePattern;
+    }
+    if (datePattern == null || datePattern.equals(""))
+      return null;
+    return compile(datePattern, locale);
+  }
+
+  /**
+   * Returns true if the pattern is a legal date pattern
+   *
+   * @return boolean
+   */
+  public boolean isLegal() {
+    return this.formatter != null;
+  }
+
+  /**
+   * Returns the pattern in <code>SimpleDateFormat</code> syntax
+   *
+   * @return String
+   */
+  public String getPattern() {
+    return this.pattern;
+  }
+
+  /**
+   * Appends <code>d</code> to <code>out</code> formatted with this pattern
+   *
+   * @param d Date it can not be null
+   * @param out StringBuffer
+   * @throws ConfigurationException if the pattern is illegal
+   */
+  public void format(Date d, StringBuffer out) throws ConfigurationException {
+    if (this.formatter == null)
+      throw new ConfigurationException("Illegal date pattern (" + this.pattern + "). Check your configuration", this.error);
+    this.formatter.formatTo(Instant.ofEpochMilli(d.getTime()).atZone(this.zone), out);
+  }
+
+  /**
+   * Returns <code>d</code> formatted with this pattern
+   *
+   * @param d Date it can not be null
+   * @return String
+   * @throws ConfigurationException if the pattern is illegal
+   */
+  public String format(Date d) throws ConfigurationException {
+    StringBuffer sb = new StringBuffer(this.pattern.length() + 8);
+    this.format(d, sb);
+    return sb.toString();
+  }
+
+  // Clave de la cache: patron y locale por separado ("ddMMen" + null no es
+  // "ddMM" + en)
+  private static final class Key {
+    private final String pattern;
+    private final Locale locale;
+
+    Key(String pattern, Locale locale) {
+      this.pattern = pattern;
+      this.locale = locale;
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof Key))
+        return false;
+      Key k = (Key)o;
+      return this.pattern.equals(k.pattern) && this.locale.equals(k.locale);
+    }
+
+    public int hashCode() {
+      return this.pattern.hashCode() * 31 + this.locale.hashCode();
+    }
+  }
+
+  // Traduce la sintaxis de SimpleDateFormat. DateTimeFormatter.ofPattern no
+  // sirve tal cual: varias letras tienen otro significado (u, F, S) o admiten
+  // menos repeticiones (a, H, m...)
+  private static DateTimeFormatter toFormatter(String pattern, Locale locale) {
+    DateTimeFormatterBuilder b = new DateTimeFormatterBuilder();
+    WeekFields weeks = WeekFields.of(locale);
+    // SimpleDateFormat usa los nombres de mes aislados (nominativo) si el
+    // mes es el unico campo del patron: "MMMM" -> "noviembre" y no "de noviembre"
+    boolean standaloneMonth = isMonthOnly(pattern);
+    int len = pattern.length();
+    int i = 0;
+    while (i < len) {
+      char c = pattern.charAt(i);
+      if (c == '\'') {
+        i++;
+        if (i < len && pattern.charAt(i) == '\'') { // '' es una comilla
+          b.appendLiteral('\'');
+          i++;
+          continue;
+        }
+        StringBuffer literal = new StringBuffer();
+        for (;;) {
+          if (i == len)
+            throw new IllegalArgumentException("Unterminated quote");
+          c = pattern.charAt(i++);
+          if (c == '\'') {
+            if (i < len && pattern.charAt(i) == '\'') {
+              literal.append('\'');
+              i++;
+            } else break;
+          } else literal.append(c);
+        }
+        b.appendLiteral(literal.toString());
+        continue;
+      }
+      if (! (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z')) {
+        b.appendLiteral(c);
+        i++;
+        continue;
+      }
+      int count = 1;
+      while (i + count < len && pattern.charAt(i + count) == c) count++;
+      i += count;
+      switch (c) {
+        case 'G':
+          // Los nombres de las eras de java.time no coinciden con los de SimpleDateFormat
+          String[] eras = DateFormatSymbols.getInstance(locale).getEras();
+          Map eraNames = new HashMap();
+          for (int era = 0; era < eras.length; era++) {
+            eraNames.put(Long.valueOf(era), eras[era]);
+          }
+          b.appendText(ChronoField.ERA, eraNames);
+          break;
+        case 'y':
+          year(b, ChronoField.YEAR_OF_ERA, count);
+          break;
+        case 'Y':
+          year(b, weeks.weekBasedYear(), count);
+          break;
+        case 'M':
+          if (count >= 3 && standaloneMonth)
+            b.appendText(ChronoField.MONTH_OF_YEAR, count >= 4 ? TextStyle.FULL_STANDALONE : TextStyle.SHORT_STANDALONE);
+          else if (count >= 3)
+            b.appendText(ChronoField.MONTH_OF_YEAR, count >= 4 ? TextStyle.FULL : TextStyle.SHORT);
+          else
+            number(b, ChronoField.MONTH_OF_YEAR, count);
+          break;
+        case 'L':
+          if (count >= 3)
+            b.appendText(ChronoField.MONTH_OF_YEAR, count >= 4 ? TextStyle.FULL_STANDALONE : TextStyle.SHORT_STANDALONE);
+          else
+            number(b, ChronoField.MONTH_OF_YEAR, count);
+          break;
+        case 'w':
+          number(b, weeks.weekOfWeekBasedYear(), count);
+          break;
+        case 'W':
+          number(b, weeks.weekOfMonth(), count);
+          break;
+        case 'D':
+          number(b, ChronoField.DAY_OF_YEAR, count);
+          break;
+        case 'd':
+          number(b, ChronoField.DAY_OF_MONTH, count);
+          break;
+        case 'F':
+          number(b, ChronoField.ALIGNED_WEEK_OF_MONTH, count);
+          break;
+        case 'E':
+          b.appendText(ChronoField.DAY_OF_WEEK, count >= 4 ? TextStyle.FULL : TextStyle.SHORT);
+          break;
+        case 'u':
+          number(b, ChronoField.DAY_OF_WEEK, count);
+          break;
+        case 'a':
+          b.appendText(ChronoField.AMPM_OF_DAY, TextStyle.SHORT);
+          break;
+        case 'H':
+          number(b, ChronoField.HOUR_OF_DAY, count);
+          break;
+        case 'k':
+          number(b, ChronoField.CLOCK_HOUR_OF_DAY, count);
+          break;
+        case 'K':
+          number(b, ChronoField.HOUR_OF_AMPM, count);
+          break;
+        case 'h':
+          number(b, ChronoField.CLOCK_HOUR_OF_AMPM, count);
+          break;
+        case 'm':
+          number(b, ChronoField.MINUTE_OF_HOUR, count);
+          break;
+        case 's':
+          number(b, ChronoField.SECOND_OF_MINUTE, count);
+          break;
+        case 'S':
+          number(b, ChronoField.MILLI_OF_SECOND, count);
+          break;
+        case 'z':
+          b.appendZoneText(count >= 4 ? TextStyle.FULL : TextStyle.SHORT);
+          break;
+        case 'Z':
+          b.appendOffset("+HHMM", "+0000");
+          break;
+        case 'X':
+          if (count > 3)
+            throw new IllegalArgumentException("invalid ISO 8601 format: length=" + count);
+          b.appendOffset(count == 1 ? "+HH" : (count == 2 ? "+HHMM" : "+HH:MM"), "Z");
+          break;
+        default:
+          throw new IllegalArgumentException("Illegal pattern character '" + c + "'");
+      }
+    }
+    return b.toFormatter(locale);
+  }
+
+  // True si el unico campo del patron (fuera de los literales) es 'M'
+  private static boolean isMonthOnly(String pattern) {
+    int fields = 0;
+    char field = 0;
+    char last = 0;
+    boolean inQuote = false;
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      if (c == '\'') {
+        inQuote = !inQuote;
+        last = 0;
+      } else if (!inQuote && (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z')) {
+        if (c != last) {
+          fields++;
+          field = c;
+        }
+        last = c;
+      } else {
+        last = 0;
+      }
+    }
+    return fields == 1 && field == 'M';
+  }
+
+  // Como SimpleDateFormat, el numero de letras es el numero minimo de digitos
+  private static void number(DateTimeFormatterBuilder b, TemporalField field, int count) {
+    if (count == 1)
+      b.appendValue(field);
+    else
+      b.appendValue(field, Math.min(count, 19), 19, SignStyle.NORMAL);
+  }
+
+  // Con dos letras el ao se trunca a dos digitos
+  private static void year(DateTimeFormatterBuilder b, TemporalField field, int count) {
+    if (count == 2)
+      b.appendValueReduced(field, 2, 2, 2000);
+    else
+      number(b, field, count);
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.transformer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ystsrv.ConfigurationException;
+
+/**
+ * Format string (as those of {@link BeanTransformer} or
+ * {@link org.ystsrv.transformer.jdbc.DBQueryTransformer}) compiled into a
+ * flat program. Each instruction of the program is one of:
+ * <ul>
+ *   <li>{@link #LITERAL}: append a chunk of text, with the escaped curly
+ *   braces already resolved;</li>
+ *   <li>{@link #INDEX}: append the row index (<code>{#i}</code>);</li>
+ *   <li>{@link #SLOT}: append the value of a property or column. Slots are
+ *   numbered in order of appearance; each slot has a name and an optional
+ *   format (<code>{name %format%}</code>).</li>
+ * </ul>
+ * The transformers resolve their slots (accessors, columns, renderers) once
+ * and then run the program for each row, appending directly to an output
+ * buffer.
+ *
+ * <p>Objects of this class are immutable.
+ *
+ * @author Francisco Jos Garca Izquierdo
+ * @version 1.0
+ */
+public final class FormatProgram {
+
+  /** Appends a literal chunk of text */
+  public static final int LITERAL = 0;
+
+  /** Appends the row index */
+  public static final int INDEX = 1;
+
+  /** Appends the value of a slot */
+  public static final int SLOT = 2;
+
+  private final int[] ops;
+  private final String[] literals; // Literal of each LITERAL instruction
+  private final int[] slots;       // Slot of each SLOT instruction
+  private final String[] slotNames;
+  private final String[] slotFormats;
+
+  private FormatProgram(List ops, List operands, List slotNames, List slotFormats) {
+    int n = ops.size();
+    this.ops = new int[n];
+    this.literals = new String[n];
+    this.slots = new int[n];
+    for (int pc = 0; pc < n; pc++) {
+      this.ops[pc] = ((Integer)ops.get(pc)).intValue();
+      Object operand = operands.get(pc);
+      if (operand instanceof String)
+        this.literals[pc] = (String)operand;
+      else if (operand != null)
+        this.slots[pc] = ((Integer)operand).intValue();
+    }
+    this.slotNames = (String[])slotNames.toArray(new String[slotNames.size()]);
+    this.slotFormats = (String[])slotFormats.toArray(new String[slotFormats.size()]);
+  }
+
+  /**
+   * Compiles the format string <code>format</code>. E.g.
+   * <code>name[{#i}] = new YSTTypeName('{prop1}', {prop2 %dd/MM/yy%});</code>
+   *
+   * @param format String format string
+   * @param owner String description of the owner of the format, used in the
+   *   error messages
+   * @return FormatProgram
+   * @throws ConfigurationException if the format string is not well formed
+   */
+  public static FormatProgram compile(String format, String owner) throws ConfigurationException {
+    List ops = new ArrayList();
+    List operands = new ArrayList();
+    List slotNames = new ArrayList();
+    List slotFormats = new ArrayList();
+
+    int i = 0;
+    StringBuffer token = new StringBuffer();
+    int len = format.length();
+    while (i < len) {
+      if (format.charAt(i) == '\\' && (i + 1) < len &&
+          (format.charAt(i + 1) == '{' || format.charAt(i + 1) == '}')) {
+        i++;
+      }
+      if (format.charAt(i) == '{') {
+        // Comienza propiedad. copia token a tokens
+        if (i == 0 || i > 0 && format.charAt(i - 1) != '\\') {
+          addLiteral(token, ops, operands);  // Aado el token anterior
+          token = new StringBuffer();
+          StringBuffer prop = new StringBuffer();
+          StringBuffer form = null;
+          int init = i;
+          i++;
+
+          // Quita posibles espacios en blanco antes del nombre de la propiedad
+          while (i < len && format.charAt(i) == ' ')i++;
+
+          boolean propStarted = (i < len && format.charAt(i) != '%');
+
+          while (i < len && format.charAt(i) != '}') {
+            if (format.charAt(i) == '%') {
+              // Comienzo de especificacin de formato de propiedad
+              form = new StringBuffer();
+              if (!propStarted)
+                throw new ConfigurationException("Bad format string specification for "+
+                                                 owner+": " + format +
+                                                 "\n. Column cannot begin with % in position " + (i+1));
+              i++;
+              int curlyBracesBalance = 0;
+              // Paro cuando agoto la cadena de formato (i>=len) or cuando alcanzo un caracter %
+              // que no est dentro de la especificacin de una propiedad (curlyBracesBalance%2==0)
+              while (i < len && (format.charAt(i) != '%' || curlyBracesBalance%2!=0)) {
+                if (format.charAt(i) == '\\' && (i + 1) < len && format.charAt(i + 1) == '%') {
+                  // % escapado
+                  i++;
+                } else if (format.charAt(i) == '{') { // llave interna al formato (inicio propiedad en formato)
+                  curlyBracesBalance++;
+                } else if (format.charAt(i) == '}') {
+                  curlyBracesBalance--;
+                }
+                // Cojo formato
+                form.append(format.charAt(i));
+                i++;
+              }
+              if (i == len) { // agotada cadena sin encontrar pareja %
+                throw new ConfigurationException("Bad format string specification for "+
+                                                 owner+": " + format +
+                                                 "\n. Property format specification not finished in position " + (init+1));
+              }
+            } else if (format.charAt(i) == '{') {
+              throw new ConfigurationException("Bad format string specification for "+
+                                               owner+": " + format +
+                                               "\n. Nested { in position " + (i+1));
+            } else {
+              if (format.charAt(i) != ' ' && form != null && form.length() > 0)
+                throw new ConfigurationException("Bad format string specification for "+
+                                                 owner+": " + format +
+                                                 "\n. No text after format specification " +
+                                                 form + " is allowed " + (init + 1));
+              prop.append(format.charAt(i));
+            }
+            i++;
+          }
+          if (i == len) { // agotada cadena sin encontrar pareja }
+            throw new ConfigurationException("Bad format string specification for "+
+                                             owner+": " + format +
+                                             "\n. Curly brace mismatch for { in position " + (init+1));
+          } else { // Se acab la propiedad
+            String propName = prop.toString().trim();
+            if (propName.equals("#i")) {
+              ops.add(Integer.valueOf(INDEX));
+              operands.add(null);
+            } else if (propName.length() != 0) {
+              ops.add(Integer.valueOf(SLOT));
+              operands.add(Integer.valueOf(slotNames.size()));
+              slotNames.add(propName);
+              slotFormats.add(form != null ? form.toString() : null);
+            }
+          }
+        } else { // era una { escapada con \
+          token.append(format.charAt(i));
+        }
+      } else if (format.charAt(i) == '}') {  // Es una llave de cierre descolocada
+        if (i == 0 || i > 0 && format.charAt(i - 1) != '\\') {
+          throw new ConfigurationException("Bad format string specification for "+
+                                           owner+": " + format +
+                                           "\n. Curly brace mismatch for } in position " + (i+1));
+        } else {  // Una llave de cierre escapada con  \
+          token.append(format.charAt(i));
+        }
+      } else { // texto normal
+        token.append(format.charAt(i));
+      }
+      i++;
+    }
+    addLiteral(token, ops, operands);
+    return new FormatProgram(ops, operands, slotNames, slotFormats);
+  }
+
+  private static void addLiteral(StringBuffer token, List ops, List operands) {
+    if (token.length() != 0) {
+      ops.add(Integer.valueOf(LITERAL));
+      operands.add(token.toString());
+    }
+  }
+
+  /**
+   * Returns the number of instructions of the program
+   *
+   * @return int
+   */
+  public int getLength() {
+    return ops.length;
+  }
+
+  /**
+   * Returns the operation of the instruction <code>pc</code>
+   *
+   * @param pc int
+   * @return {@link #LITERAL}, {@link #INDEX} or {@link #SLOT}
+   */
+  public int getOp(int pc) {
+    return ops[pc];
+  }
+
+  /**
+   * Returns the text of the {@link #LITERAL} instruction <code>pc</code>
+   *
+   * @param pc int
+   * @return String
+   */
+  public String getLiteral(int pc) {
+    return literals[pc];
+  }
+
+  /**
+   * Returns the slot of the {@link #SLOT} instruction <code>pc</code>
+   *
+   * @param pc int
+   * @return int
+   */
+  public int getSlot(int pc) {
+    return slots[pc];
+  }
+
+  /**
+   * Returns the number of slots of the program
+   *
+   * @return int
+   */
+  public int getSlotCount() {
+    return slotNames.length;
+  }
+
+  /**
+   * Returns the name of the property or column of the slot
+   *
+   * @param slot int
+   * @return String
+   */
+  public String getSlotName(int slot) {
+    return slotNames[slot];
+  }
+
+  /**
+   * Returns the format of the slot (it can be null)
+   *
+   * @param slot int
+   * @return String
+   */
+  public String getSlotFormat(int slot) {
+    return slotFormats[slot];
+  }
+}
@@ -0,0 +1,350 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.transformer;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ystsrv.Transformer;
+import org.ystsrv.debug.Debug;
+import org.ystsrv.manager.Config;
+import org.ystsrv.util.InMemoryCachedReference;
+import org.ystsrv.util.MemoryBudget;
+
+/**
+ * Cache of the text obtained transforming objects whose transformation can be
+ * reused across requests. The {@link TransformerGroup} caches the
+ * transformation of:
+ * <ul>
+ *   <li>the {@link Cacheable} objects (and the objects wrapped into {@link
+ * CacheableData}), using their key and version;</li>
+ *   <li>any object transformed by a transformer configured in the
+ * <code>YSTConfig.xml</code> file with the <code>cacheTTL</code> param (the
+ * time to live of the cached text in milliseconds). In this case the key is
+ * the object itself (its identity), so it is only useful for immutable
+ * reference data that is shared by the requests. The object is weakly
+ * referenced by the key: the cache does not keep it (nor the objects it
+ * references) alive, and the fragment is discarded once the object has been
+ * garbage collected.</li>
+ * </ul>
+ * The cached text is reused when the same transformer transforms an object
+ * with the same key and version, until its time to live elapses. The cached
+ * fragments share a memory budget of {@link Config#FRAGMENT_CACHE_MAX_BYTES}
+ * bytes; when it is exceeded the least recently used fragments are evicted.
+ * The cache keeps counters of hits and misses.
+ *
+ * @author Francisco Jos Garca Izquierdo
+ * @version 1.0
+ */
+public final class FragmentCache {
+
+  private static final String LOGGER_NAME = "ystsrv.transformer";
+
+  private static final MemoryBudget BUDGET = (Config.FRAGMENT_CACHE_MAX_BYTES > 0) ?
+      new MemoryBudget(Config.FRAGMENT_CACHE_MAX_BYTES) : null;
+
+  private static final Map entries = new ConcurrentHashMap();
+
+  // Identities of the garbage collected objects
+  private static final ReferenceQueue collected = new ReferenceQueue();
+
+  private static final AtomicLong hits = new AtomicLong();
+  private static final AtomicLong misses = new AtomicLong();
+  private static final AtomicLong stale = new AtomicLong();
+
+  private FragmentCache() {
+  }
+
+  /**
+   * Returns the key of the cached transformation of <code>data</code> by
+   * <code>transformer</code>, or null if it must not be cached.
+   *
+   * @param transformer Transformer
+   * @param data Object (unwrapped if it is a CacheableData)
+   * @param transformerTTL long time to live configured for the transformer
+   *   (<code>cacheTTL</code> param), or 0
+   * @return Key
+   */
+  static Key keyOf(Transformer transformer, Object data, long transformerTTL) {
+    if (BUDGET == null || data == null || data instanceof RowSource)
+      return null;
+    if (data instanceof Cacheable) {
+      Cacheable c = (Cacheable)data;
+      Object key = c.cacheKey();
+      if (key == null)
+        return null;
+      long ttl = (data instanceof CacheableData) ? ((CacheableData)data).getTTL() : 0;
+      if (ttl <= 0) ttl = (transformerTTL > 0) ? transformerTTL : Config.FRAGMENT_CACHE_TTL;
+      return new Key(transformer, key, c.cacheVersion(), ttl);
+    }
+    if (transformerTTL > 0)
+      return new Key(transformer, new Identity(data), null, transformerTTL);
+    return null;
+  }
+
+  /**
+   * Returns the cached transformation for <code>key</code>, or null if it is
+   * not cached (or it is stale).
+   *
+   * @param key Key
+   * @return String
+   */
+  static String get(Key key) {
+    expungeCollected();
+    Entry entry = (Entry)entries.get(key);
+    if (entry != null) {
+      if (!same(entry.version, key.version) ||
+          (entry.expires > 0 && System.currentTimeMillis() > entry.expires)) {
+        if (entries.remove(key, entry))
+          entry.ref.release();
+        stale.incrementAndGet();
+      } else {
+        String fragment = (String)entry.ref.get();
+        if (fragment != null) {
+          hits.incrementAndGet();
+          return fragment;
+        }
+        entries.remove(key, entry); // Evicted
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Caches <code>fragment</code>, the transformation for <code>key</code>.
+   *
+   * @param key Key
+   * @param fragment String
+   */
+  static void put(Key key, String fragment) {
+    Entry entry = new Entry();
+    entry.version = key.version;
+    entry.expires = (key.ttl > 0) ? System.currentTimeMillis() + key.ttl : 0;
+    entry.ref = InMemoryCachedReference.newInstance(fragment, 2L * fragment.length() + 64, BUDGET);
+    Entry old = (Entry)entries.put(key, entry);
+    if (old != null)
+      old.ref.release();
+    if (Debug.hasFineLevel(LOGGER_NAME))
+      Debug.fine(LOGGER_NAME, "Cached fragment of " + fragment.length() + " chars for " + key);
+    if (entries.size() > 2 * BUDGET.getSize() + 64)
+      purge();
+  }
+
+  // Removes the entries whose key is an object that has been garbage collected
+  private static void expungeCollected() {
+    if (collected.poll() == null)
+      return;
+    while (collected.poll() != null);
+    Iterator iter = entries.entrySet().iterator();
+    while (iter.hasNext()) {
+      Map.Entry e = (Map.Entry)iter.next();
+      Object content = ((Key)e.getKey()).content;
+      if (content instanceof Identity && ((Identity)content).get() == null) {
+        iter.remove();
+        ((Entry)e.getValue()).ref.release();
+      }
+    }
+  }
+
+  // Removes the entries whose fragments have been evicted
+  private static void purge() {
+    Iterator iter = entries.values().iterator();
+    while (iter.hasNext()) {
+      Entry entry = (Entry)iter.next();
+      if (entry.ref instanceof InMemoryCachedReference.BudgetedInMemoryCachedReference &&
+          ((InMemoryCachedReference.BudgetedInMemoryCachedReference)entry.ref).isEvicted())
+        iter.remove();
+    }
+  }
+
+  /**
+   * Discards the cached transformations of the objects whose key is
+   * <code>key</code> (by any transformer).
+   *
+   * @param key Object
+   */
+  public static void invalidate(Object key) {
+    Iterator iter = entries.entrySet().iterator();
+    while (iter.hasNext()) {
+      Map.Entry e = (Map.Entry)iter.next();
+      if (((Key)e.getKey()).content.equals(key)) {
+        iter.remove();
+        ((Entry)e.getValue()).ref.release();
+      }
+    }
+  }
+
+  /**
+   * Discards all the cached transformations.
+   */
+  public static void clear() {
+    Iterator iter = entries.values().iterator();
+    while (iter.hasNext()) {
+      Entry entry = (Entry)iter.next();
+      iter.remove();
+      entry.ref.release();
+    }
+  }
+
+  /**
+   * Returns the memory budget of the cache, or null if the cache is disabled
+   * (see {@link Config#FRAGMENT_CACHE_MAX_BYTES}).
+   *
+   * @return MemoryBudget
+   */
+  public static MemoryBudget getBudget() {
+    return BUDGET;
+  }
+
+  /**
+   * Returns the number of transformations served from the cache.
+   *
+   * @return long
+   */
+  public static long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Returns the number of cacheable transformations that were not in the
+   * cache (including the stale ones).
+   *
+   * @return long
+   */
+  public static long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Returns the number of cached transformations discarded because their
+   * version changed or their time to live elapsed.
+   *
+   * @return long
+   */
+  public static long getStale() {
+    return stale.get();
+  }
+
+  /**
+   * Returns the ratio of hits to lookups, or 0 if there have been no lookups.
+   *
+   * @return double
+   */
+  public static double getHitRate() {
+    long h = hits.get();
+    long total = h + misses.get();
+    return (total == 0) ? 0 : (double)h / total;
+  }
+
+  public static String getStatistics() {
+    return "FragmentCache [" + entries.size() + " fragments; hits " + getHits() + ", misses " +
+        getMisses() + ", stale " + getStale() + "; " + BUDGET + "]";
+  }
+
+  private static boolean same(Object v1, Object v2) {
+    return (v1 == null) ? v2 == null : v1.equals(v2);
+  }
+
+  // Key of a cached transformation: the transformer and the key of the content
+  static final class Key {
+    final Transformer transformer;
+    final Object content;
+    final Object version; // It is not part of the key
+    final long ttl;
+
+    Key(Transformer transformer, Object content, Object version, long ttl) {
+      this.transformer = transformer;
+      this.content = content;
+      this.version = version;
+      this.ttl = ttl;
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof Key))
+        return false;
+      Key k = (Key)o;
+      return this.transformer == k.transformer && this.content.equals(k.content);
+    }
+
+    public int hashCode() {
+      return System.identityHashCode(this.transformer) * 31 + this.content.hashCode();
+    }
+
+    public String toString() {
+      return this.content + (this.version != null ? " v" + this.version : "") + " (" + this.transformer + ")";
+    }
+  }
+
+  // Identity of an object used as key. The object is weakly referenced, so
+  // that the cache does not retain the data of the requests
+  private static final class Identity extends WeakReference {
+    private final int hash;
+    private final String className;
+
+    Identity(Object object) {
+      super(object, collected);
+      this.hash = System.identityHashCode(object);
+      this.className = object.getClass().getName();
+    }
+
+    public boolean equals(Object o) {
+      if (o == this)
+        return true;
+      if (!(o instanceof Identity))
+        return false;
+      Object object = this.get();
+      return object != null && ((Identity)o).get() == object;
+    }
+
+    public int hashCode() {
+      return this.hash;
+    }
+
+    public String toString() {
+      return this.className + "@" + Integer.toHexString(this.hash);
+    }
+  }
+
+  private static final class Entry {
+    InMemoryCachedReference ref;
+    Object version;
+    long expires;
+  }
+}
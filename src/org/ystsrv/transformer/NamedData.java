@@ -34,12 +34,14 @@
  */
 package org.ystsrv.transformer;
 
+import java.io.IOException;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Locale;
 
 import org.ystsrv.ConfigurationException;
+import org.ystsrv.manager.Config;
 import org.ystsrv.util.TextUtils;
 
 /**
@@ -89,7 +91,7 @@ public class NamedData {
       throw new IllegalArgumentException("Illegal name. It can not be null nor empty");
 
     this.name = name;
-    this.value = (value != null ? "'" + TextUtils.escape(value) + "'" : null);
+    this.value = (value != null ? "'" + TextUtils.escape(value, Config.HTML_SAFE_ESCAPING) + "'" : null);
   }
 
   /**
@@ -991,4 +993,15 @@ public class NamedData {
   public String toYSTModel() {
     return name + "=" + value + ";";
   }
+
+  /**
+   * Appends to <code>out</code> the same text that {@link #toYSTModel}
+   * returns.
+   *
+   * @param out Appendable
+   * @throws IOException Any error appending to <code>out</code>
+   */
+  public void writeTo(Appendable out) throws IOException {
+    out.append(name).append('=').append(value).append(';');
+  }
 }
@@ -34,6 +34,8 @@
  */
 package org.ystsrv.transformer;
 
+import java.io.IOException;
+
 import org.ystsrv.Transformer;
 
 /**
@@ -48,6 +50,10 @@ import org.ystsrv.Transformer;
  */
 public class NamedDataTransformer extends Transformer {
 
+  // True if a subclass redefines transform, that transformTo must not skip
+  private final boolean redefinesTransform = redefines(getClass(), NamedDataTransformer.class, "transform",
+                                                       new Class[] {Object.class});
+
   /**
    * Invokes the <code>toYSTModel()</code> method on <code>data</code> object
    *
@@ -61,6 +67,14 @@ public class NamedDataTransformer extends Transformer {
     return sd.toYSTModel();
   }
 
+  public void transformTo(Object data, Appendable out) throws IOException {
+    if (this.redefinesTransform) {
+      String s = this.transform(data);
+      if (s != null) out.append(s);
+    } else if (data != null)
+      ((NamedData) data).writeTo(out);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -34,7 +34,6 @@
  */
 package org.ystsrv.transformer;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
 import org.ystsrv.debug.Debug;
@@ -51,22 +50,24 @@ class NestedPropertyAccessor implements PropertyAccessor {
   private PropertiesAccessor accessor;
 
   private Method methodName;
+  private PropertyPath.Getter getter;
 
   NestedPropertyAccessor(Method methodName) {
     Debug.prec(methodName);
     this.methodName = methodName;
+    this.getter = PropertyPath.generateGetter(methodName);
     this.accessor = new PropertiesAccessor(methodName.getReturnType());
   }
 
-  public Object getProperty(String subPropName, Object containerObj) throws InvocationTargetException,
-       IllegalAccessException {
-    Debug.prec(subPropName, "Empty property name");
+  public Method getReadMethod() {
+    return methodName;
+  }
 
-    Object propValue = containerObj != null ? methodName.invoke(containerObj, null) : null; /**/
-    if (subPropName.charAt(0) == '.') // It is an actual sub property
-      return accessor.getProperty(subPropName.substring(1), propValue);
-    else // It is the container object property
-      return propValue;
+  public PropertyPath.Getter getGetter() {
+    return getter;
   }
 
+  public PropertiesAccessor getNestedAccessor() {
+    return accessor;
+  }
 }
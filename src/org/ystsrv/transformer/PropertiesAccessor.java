@@ -43,6 +43,7 @@ import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.ystsrv.ConfigurationException;
 import org.ystsrv.debug.Debug;
@@ -57,6 +58,8 @@ import org.ystsrv.debug.Debug;
 class PropertiesAccessor {
   private Map propertiesAccessors;
   private Class theClass;
+  // Property paths already resolved (name -> PropertyPath)
+  private Map paths = new ConcurrentHashMap();
   private static Map alreadyParsedClasses = new Hashtable(); // es una forma de evitar la recursividad
                                                              // al ser static lo comparten todos los PropertiesAccessor
 
@@ -110,23 +113,55 @@ class PropertiesAccessor {
                                            " property references in your format "+
                                            "string ends with a dot.");
 
-    String nameAux = name;
-    int iDot = nameAux.indexOf('.');
-    PropertyAccessor pa = null;
-    if (iDot != -1) {
-      pa = (PropertyAccessor)this.propertiesAccessors.get(nameAux.substring(0, iDot));
-      nameAux = nameAux.substring(iDot);  // includes the .
-    } else {
-      pa = (PropertyAccessor)this.propertiesAccessors.get(nameAux);
+    return resolve(name).getValue(obj);
+  }
+
+  /**
+   * Returns the chain of read methods that gives access to the property
+   * <code>name</code> (it may be a nested property, like
+   * <code>client.address.city</code>). Each property name is resolved only
+   * once.
+   *
+   * @param name String
+   * @return PropertyPath
+   */
+  PropertyPath resolve(String name) {
+    Debug.prec(name!=null,"name no puede ser nulo"); /**/
+    PropertyPath path = (PropertyPath)this.paths.get(name);
+    if (path == null) {
+      path = buildPath(name);
+      this.paths.put(name, path);
     }
+    return path;
+  }
 
-    if (pa != null) {
-      return pa.getProperty(nameAux, obj);
-    } else {
-      throw new ConfigurationException("Impossible to transform the " + name +
-                                           " variable of class " + this.theClass +
-                                           ". Bean has not property " + name);
+  private PropertyPath buildPath(String name) {
+    java.util.List chain = new java.util.ArrayList(4);
+    PropertiesAccessor accessor = this;
+    String nameAux = name;
+    while (true) {
+      if (nameAux.length() == 0)
+        throw new ConfigurationException("Impossible to transform. Some of the"+
+                                         " property references in your format "+
+                                         "string ends with a dot.");
+      int iDot = nameAux.indexOf('.');
+      String propName = (iDot != -1) ? nameAux.substring(0, iDot) : nameAux;
+      PropertyAccessor pa = (PropertyAccessor)accessor.propertiesAccessors.get(propName);
+      if (pa == null)
+        throw new ConfigurationException("Impossible to transform the " + nameAux +
+                                         " variable of class " + accessor.theClass +
+                                         ". Bean has not property " + nameAux);
+      chain.add(pa);
+      if (iDot == -1)
+        break;
+      accessor = pa.getNestedAccessor();
+      if (accessor == null)
+        throw new ConfigurationException("Impossible to transform the " + name +
+                                         " variable of class " + this.theClass +
+                                         ". Property " + propName + " has not sub properties");
+      nameAux = nameAux.substring(iDot + 1);
     }
+    return new PropertyPath(name, (PropertyAccessor[])chain.toArray(new PropertyAccessor[chain.size()]));
   }
 
   private static PropertyAccessor buildPropertyAccessor(PropertyDescriptor prop) {
@@ -34,7 +34,7 @@
  */
 package org.ystsrv.transformer;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 
 /**
  * <p>Title: </p>
@@ -45,5 +45,26 @@ import java.lang.reflect.InvocationTargetException;
  */
 
 interface PropertyAccessor {
-  Object getProperty(String name, Object obj) throws InvocationTargetException, IllegalAccessException;
+
+  /**
+   * Returns the read method of the property
+   *
+   * @return Method
+   */
+  Method getReadMethod();
+
+  /**
+   * Returns the generated getter that calls the read method of the property
+   *
+   * @return PropertyPath.Getter
+   */
+  PropertyPath.Getter getGetter();
+
+  /**
+   * Returns the accessor of the sub properties, or null if the property has
+   * not got sub properties
+   *
+   * @return PropertiesAccessor
+   */
+  PropertiesAccessor getNestedAccessor();
 }
@@ -0,0 +1,166 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.transformer;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.ystsrv.debug.Debug;
+
+/**
+ * Chain of read methods that gives access to a (possibly nested) bean
+ * property, as <code>client.address.city</code>. The chain is resolved once
+ * by {@link PropertiesAccessor#resolve}; reading the property only calls the
+ * getters of the chain. If any object of the chain is null, the value of the
+ * property is null.
+ *
+ * <p>Getters are classes generated with <code>LambdaMetafactory</code> that
+ * call the read methods directly, instead of using
+ * <code>Method.invoke</code>. If a getter can not be generated (e.g. the bean
+ * class is not public or it is not visible from the class loader of Yeast),
+ * the read method is invoked by reflection.
+ *
+ * @author Francisco Jos Garca Izquierdo
+ * @version 1.0
+ */
+final class PropertyPath {
+
+  private static final String LOGGER_NAME = "ystsrv.transformer";
+
+  private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+  /**
+   * Reads a property of a bean
+   */
+  interface Getter {
+    Object get(Object bean) throws InvocationTargetException, IllegalAccessException;
+  }
+
+  private final String name;
+  private final Getter[] getters;
+
+  PropertyPath(String name, PropertyAccessor[] chain) {
+    this.name = name;
+    this.getters = new Getter[chain.length];
+    for (int i = 0; i < chain.length; i++)
+      this.getters[i] = chain[i].getGetter();
+  }
+
+  /**
+   * Returns a getter that calls the read method <code>m</code>.
+   *
+   * @param m Method
+   * @return Getter
+   */
+  static Getter generateGetter(final Method m) {
+    try {
+      // The generated class lives in the class loader of Yeast and links the
+      // read method by name: if Yeast is in a parent class loader (e.g. the
+      // shared lib of the container) and the bean in the webapp one, calling
+      // the getter throws NoClassDefFoundError
+      if (!isVisible(m.getDeclaringClass()) || !isVisible(m.getReturnType()))
+        throw new IllegalAccessException(m.getDeclaringClass().getName() + " is not visible from the class loader of Yeast");
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      MethodHandle target = lookup.unreflect(m);
+      CallSite site = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(Getter.class),
+                                                    GETTER_TYPE, target, target.type().wrap());
+      return (Getter)site.getTarget().invoke();
+    } catch (Throwable ex) {
+      Debug.fine(LOGGER_NAME, "Using reflection to read " + m + " [" + ex + "]");
+      return new Getter() {
+        public Object get(Object bean) throws InvocationTargetException, IllegalAccessException {
+          return m.invoke(bean, (Object[])null);
+        }
+      };
+    }
+  }
+
+  /**
+   * Tests if <code>c</code> is the class that the class loader of Yeast
+   * resolves for its name.
+   */
+  private static boolean isVisible(Class c) {
+    while (c.isArray())
+      c = c.getComponentType();
+    if (c.isPrimitive())
+      return true;
+    try {
+      return Class.forName(c.getName(), false, PropertyPath.class.getClassLoader()) == c;
+    } catch (ClassNotFoundException ex) {
+      return false;
+    } catch (LinkageError ex) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the value of the property for <code>bean</code>
+   *
+   * @param bean Object
+   * @return Object
+   * @throws InvocationTargetException if a read method throws an exception
+   * @throws IllegalAccessException if a read method is not accessible
+   */
+  Object getValue(Object bean) throws InvocationTargetException, IllegalAccessException {
+    Object value = bean;
+    try {
+      for (int i = 0; i < getters.length; i++) {
+        if (value == null)
+          return null;
+        value = getters[i].get(value);
+      }
+      return value;
+    } catch (InvocationTargetException ex) {
+      throw ex;
+    } catch (IllegalAccessException ex) {
+      throw ex;
+    } catch (Throwable ex) { // Thrown by a generated getter
+      throw new InvocationTargetException(ex);
+    }
+  }
+
+  String getName() {
+    return name;
+  }
+
+  public String toString() {
+    return "PropertyPath " + name;
+  }
+}
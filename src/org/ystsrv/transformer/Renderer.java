@@ -34,18 +34,19 @@
  */
 package org.ystsrv.transformer;
 
-import java.text.SimpleDateFormat;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
 
 import org.ystsrv.ConfigurationException;
+import org.ystsrv.ModelSection;
+import org.ystsrv.manager.Config;
 import org.ystsrv.util.TextUtils;
 
 /**
@@ -57,64 +58,162 @@ import org.ystsrv.util.TextUtils;
 public class Renderer {
   private static final String LOGGER_NAME = "ystsrv.transformer";
 
-  private static Hashtable cachedFormatters = new Hashtable();
-
   static String renderValue(Object value, String formatPattern, String defaultDatePattern, Locale locale) {
-    if (value == null)
-      return "null";
+    StringBuffer sb = new StringBuffer();
+    appendValue(value, formatPattern, defaultDatePattern, locale, sb);
+    return sb.toString();
+  }
+
+  /**
+   * Renders <code>value</code> like {@link #renderValue(Object, String,
+   * String, Locale)}, but dates and calendars are rendered with
+   * <code>datePattern</code>, already resolved (see
+   * {@link DatePattern#resolve}) for <code>formatPattern</code>.
+   */
+  static String renderValue(Object value, String formatPattern, DatePattern datePattern, String defaultDatePattern, Locale locale) {
+    StringBuffer sb = new StringBuffer();
+    appendValue(value, formatPattern, datePattern, defaultDatePattern, locale, sb);
+    return sb.toString();
+  }
+
+  static String renderValue(Object value, String formatPattern) {
+    return renderValue(value, formatPattern, null, null);
+  }
+
+  static String renderValue(Object value) {
+    return renderValue(value, null, null, null);
+  }
+
+  /**
+   * Appends to <code>out</code> the rendering of <code>value</code>: the
+   * JavaScript literal that represents it in the model section. Strings,
+   * dates, numbers, booleans, arrays, collections and maps are rendered as
+   * their JavaScript counterparts; the rest of objects are rendered with the
+   * bean format string <code>formatPattern</code>, or as strings if there is
+   * no format.
+   *
+   * @param value Object it can be null
+   * @param formatPattern String format of the value (a date pattern for
+   *   dates, a bean format string for beans). It can be null
+   * @param defaultDatePattern String date pattern used when
+   *   <code>formatPattern</code> is not a date pattern. It can be null
+   * @param locale Locale it can be null
+   * @param out Appendable
+   * @throws IOException Any error appending to <code>out</code>
+   * @throws ConfigurationException if the date pattern or the format string
+   *   are illegal
+   */
+  public static void render(Object value, String formatPattern, String defaultDatePattern, Locale locale,
+                            Appendable out) throws IOException, ConfigurationException {
+    StringBuffer buffer = bufferOf(out);
+    if (buffer != null) {
+      appendValue(value, formatPattern, defaultDatePattern, locale, buffer);
+    } else {
+      StringBuffer sb = new StringBuffer();
+      appendValue(value, formatPattern, defaultDatePattern, locale, sb);
+      out.append(sb);
+    }
+  }
+
+  /**
+   * Returns the buffer where the text appended to <code>out</code> can be
+   * written directly: <code>out</code> itself if it is a
+   * <code>StringBuffer</code>, or the buffer of a buffered
+   * <code>ModelSection</code> (see {@link ModelSection#getBuffer}).
+   *
+   * @param out Appendable
+   * @return StringBuffer the buffer, or null if the text must be appended to
+   *   <code>out</code>
+   */
+  public static StringBuffer bufferOf(Appendable out) {
+    if (out instanceof StringBuffer)
+      return (StringBuffer)out;
+    if (out instanceof ModelSection)
+      return ((ModelSection)out).getBuffer();
+    return null;
+  }
+
+  static void appendValue(Object value, String formatPattern, String defaultDatePattern, Locale locale, StringBuffer out) {
+    if (value == null) {
+      out.append("null");
+      return;
+    }
 
     Class valType = value.getClass();
     if (java.util.Date.class.isAssignableFrom(valType)) {
-      String datePattern = getDatePattern(formatPattern, defaultDatePattern);
-      return renderDate( (java.util.Date)value, datePattern, locale);
+      DatePattern datePattern = DatePattern.resolve(formatPattern, defaultDatePattern, locale);
+      renderDate( (java.util.Date)value, datePattern, out);
     } else if (java.util.Calendar.class.isAssignableFrom(valType)) {
-      String datePattern = getDatePattern(formatPattern, defaultDatePattern);
-      return renderDate( (java.util.Calendar)value, datePattern, locale);
+      DatePattern datePattern = DatePattern.resolve(formatPattern, defaultDatePattern, locale);
+      renderDate( ((java.util.Calendar)value).getTime(), datePattern, out);
     } else if (value instanceof Number || value instanceof Boolean) {
-      return "" + value;
+      out.append(value);
     } else if (valType.isArray()) {
-      return renderArray(value, formatPattern, defaultDatePattern, locale);
+      appendArray(value, formatPattern, defaultDatePattern, locale, out);
     } else if (java.util.Map.class.isAssignableFrom(valType)) {
-      return renderMap( (Map)value, formatPattern, defaultDatePattern, locale);
+      appendMap( (Map)value, formatPattern, defaultDatePattern, locale, out);
     } else if (java.util.Collection.class.isAssignableFrom(valType)) {
-      return renderCollection( (Collection)value, formatPattern, defaultDatePattern, locale);
-    } else if (value instanceof String || value instanceof Character) {
-      return "'" + TextUtils.escape("" + value) + "'";
-    } else return renderObject(value, formatPattern, defaultDatePattern, locale);
+      appendCollection( (Collection)value, formatPattern, defaultDatePattern, locale, out);
+    } else if (value instanceof String) {
+      appendString((String)value, out);
+    } else if (value instanceof Character) {
+      appendString(value.toString(), out);
+    } else appendObject(value, formatPattern, defaultDatePattern, locale, out);
   }
 
-  static String renderValue(Object value, String formatPattern) {
-    return renderValue(value, formatPattern, null, null);
+  static void appendValue(Object value, String formatPattern, DatePattern datePattern, String defaultDatePattern,
+                          Locale locale, StringBuffer out) {
+    if (value instanceof java.util.Date)
+      renderDate( (java.util.Date)value, datePattern, out);
+    else if (value instanceof java.util.Calendar)
+      renderDate( ((java.util.Calendar)value).getTime(), datePattern, out);
+    else
+      appendValue(value, formatPattern, defaultDatePattern, locale, out);
   }
 
-  static String renderValue(Object value) {
-    return renderValue(value, null, null, null);
+  private static void appendString(CharSequence s, StringBuffer out) {
+    out.append('\'');
+    TextUtils.escape(s, out, Config.HTML_SAFE_ESCAPING);
+    out.append('\'');
   }
 
-
   public static String renderDate(Date d, String datePattern, Locale locale) {
+    if (datePattern != null && datePattern.equals(""))
+      datePattern=null;
+    return renderDate(d, datePattern != null ? DatePattern.compile(datePattern, locale) : null);
+  }
+
+  static String renderDate(Date d, DatePattern datePattern) {
     if (d == null)
       return "null";
     else {
-      if (datePattern != null && datePattern.equals(""))
-        datePattern=null;
-
-      if (datePattern != null) {
-        try {
-          SimpleDateFormat sdf = Renderer.getDateFormater(datePattern, locale);
-          String res;
-          synchronized (sdf) {
-            res ="'" + sdf.format(d) + "'";
-          }
-          return res;
-        } catch (IllegalArgumentException ex) {
-          throw new ConfigurationException("Illegal date pattern ("+datePattern+"). Check your configuration", ex);
-        }
-      } else
-        return "new Date(" + d.getTime() + ")";
+      StringBuffer sb = new StringBuffer();
+      renderDate(d, datePattern, sb);
+      return sb.toString();
     }
   }
 
+  /**
+   * Appends to <code>out</code> the rendering of <code>d</code>: a string
+   * formatted with <code>datePattern</code>, or <code>new Date(millis)</code>
+   * if <code>datePattern</code> is null.
+   *
+   * @param d Date it can be null
+   * @param datePattern DatePattern it can be null
+   * @param out StringBuffer
+   * @throws ConfigurationException if the pattern is illegal
+   */
+  public static void renderDate(Date d, DatePattern datePattern, StringBuffer out) throws ConfigurationException {
+    if (d == null)
+      out.append("null");
+    else if (datePattern != null) {
+      out.append('\'');
+      datePattern.format(d, out);
+      out.append('\'');
+    } else
+      out.append("new Date(").append(d.getTime()).append(')');
+  }
+
   static String renderDate(Calendar d, String datePattern, Locale locale) {
     if (d != null)
       return renderDate(d.getTime(), datePattern, locale);
@@ -131,102 +230,100 @@ public class Renderer {
   }
 
   static String renderArray(Object array, String formatPattern, String defaultDatePattern, Locale locale) {
-    if (array == null)
-      return "null";
+    StringBuffer sb = new StringBuffer();
+    appendArray(array, formatPattern, defaultDatePattern, locale, sb);
+    return sb.toString();
+  }
+
+  static void appendArray(Object array, String formatPattern, String defaultDatePattern, Locale locale, StringBuffer sb) {
+    if (array == null) {
+      sb.append("null");
+      return;
+    }
 
-    StringBuffer sb = new StringBuffer("[");
     if (array instanceof String[]) {
-      return renderCollection(Arrays.asList( (String[])array));
-    } else if (array instanceof boolean[]) {
+      appendCollection(Arrays.asList( (String[])array), null, null, null, sb);
+      return;
+    }
+    sb.append('[');
+    if (array instanceof boolean[]) {
       boolean[] a = (boolean[])array;
       for (int i = 0; i < a.length; i++) {
-        sb.append(a[i] + ",");
+        if (i > 0) sb.append(',');
+        sb.append(a[i]);
       }
     } else if (array instanceof char[]) {
       char[] a = (char[])array;
       for (int i = 0; i < a.length; i++) {
-        sb.append("'" + TextUtils.escape("" + a[i]) + "',");
+        if (i > 0) sb.append(',');
+        appendString(String.valueOf(a[i]), sb);
       }
     } else if (array instanceof Character[]) {
       Character[] a = (Character[])array;
       for (int i = 0; i < a.length; i++) {
-        sb.append("'" + TextUtils.escape("" + a[i]) + "',");
+        if (i > 0) sb.append(',');
+        appendString(String.valueOf(a[i]), sb);
       }
     } else if (array instanceof int[]) {
       int[] a = (int[])array;
       for (int i = 0; i < a.length; i++) {
-        sb.append(a[i] + ",");
+        if (i > 0) sb.append(',');
+        sb.append(a[i]);
       }
     } else if (array instanceof byte[]) {
       byte[] a = (byte[])array;
       for (int i = 0; i < a.length; i++) {
-        sb.append(a[i] + ",");
+        if (i > 0) sb.append(',');
+        sb.append(a[i]);
       }
     } else if (array instanceof long[]) {
       long[] a = (long[])array;
       for (int i = 0; i < a.length; i++) {
-        sb.append(a[i] + ",");
+        if (i > 0) sb.append(',');
+        sb.append(a[i]);
       }
     } else if (array instanceof short[]) {
       short[] a = (short[])array;
       for (int i = 0; i < a.length; i++) {
-        sb.append(a[i] + ",");
+        if (i > 0) sb.append(',');
+        sb.append(a[i]);
       }
     } else if (array instanceof float[]) {
       float[] a = (float[])array;
       for (int i = 0; i < a.length; i++) {
-        sb.append(a[i] + ",");
+        if (i > 0) sb.append(',');
+        sb.append(a[i]);
       }
     } else if (array instanceof double[]) {
       double[] a = (double[])array;
       for (int i = 0; i < a.length; i++) {
-        sb.append(a[i] + ",");
-      }
-    } else if (array instanceof int[]) {
-      byte[] a = (byte[])array;
-      for (int i = 0; i < a.length; i++) {
-        sb.append(a[i] + ",");
+        if (i > 0) sb.append(',');
+        sb.append(a[i]);
       }
     } else if (array instanceof java.util.Date[]) {
-      String datePattern = getDatePattern(formatPattern, defaultDatePattern);
+      DatePattern datePattern = DatePattern.resolve(formatPattern, defaultDatePattern, locale);
 
       java.util.Date[] a = (java.util.Date[])array;
       for (int i = 0; i < a.length; i++) {
-        sb.append(Renderer.renderDate(a[i], datePattern, locale) + ",");
+        if (i > 0) sb.append(',');
+        Renderer.renderDate(a[i], datePattern, sb);
       }
     } else if (array instanceof java.util.Calendar[]) {
-      String datePattern = getDatePattern(formatPattern, defaultDatePattern);
+      DatePattern datePattern = DatePattern.resolve(formatPattern, defaultDatePattern, locale);
 
       java.util.Calendar[] a = (java.util.Calendar[])array;
       for (int i = 0; i < a.length; i++) {
-        sb.append(Renderer.renderDate(a[i], datePattern, locale) + ",");
+        if (i > 0) sb.append(',');
+        Renderer.renderDate(a[i] != null ? a[i].getTime() : null, datePattern, sb);
       }
     } else {
       Object[] a = (Object[])array;
       for (int i = 0; i < a.length; i++) {
-        sb.append(renderValue(a[i], formatPattern, defaultDatePattern, locale) + ",");
-      }
-    }
-    if (sb.charAt(sb.length() - 1) == ',')sb.deleteCharAt(sb.length() - 1);
-    sb.append("]");
-    return sb.toString();
-  }
-
-  private static String getDatePattern(String formatPattern, String defaultDatePattern) {
-    String datePattern;
-    if (formatPattern != null) {
-      // Comprobar que es vlido
-      SimpleDateFormat d = new SimpleDateFormat();
-      try {
-        d.applyPattern(formatPattern);
-        datePattern = formatPattern;
-      } catch (IllegalArgumentException ex) {
-        datePattern = (defaultDatePattern != null ? defaultDatePattern : formatPattern);
+        if (i > 0) sb.append(',');
+        appendValue(a[i], formatPattern, defaultDatePattern, locale, sb);
       }
-    } else {
-      datePattern = defaultDatePattern;
     }
-    return datePattern;
+    sb.append(']');
   }
 
   static String renderCollection(Collection col) {
@@ -238,18 +335,23 @@ public class Renderer {
   }
 
   static String renderCollection(Collection col, String formatPattern, String defaultDatePattern, Locale locale) {
+    StringBuffer sb = new StringBuffer();
+    appendCollection(col, formatPattern, defaultDatePattern, locale, sb);
+    return sb.toString();
+  }
+
+  static void appendCollection(Collection col, String formatPattern, String defaultDatePattern, Locale locale, StringBuffer sb) {
     if (col != null) {
-      StringBuffer sb = new StringBuffer("[");
+      sb.append('[');
       Iterator iter = col.iterator();
       while (iter.hasNext()) {
         Object o = iter.next();
-          sb.append(renderValue(o, formatPattern, defaultDatePattern, locale) + ",");
+        appendValue(o, formatPattern, defaultDatePattern, locale, sb);
+        if (iter.hasNext()) sb.append(',');
       }
-      if (sb.charAt(sb.length() - 1) == ',')sb.deleteCharAt(sb.length() - 1);
-      sb.append("]");
-      return sb.toString();
+      sb.append(']');
     } else
-      return "null";
+      sb.append("null");
   }
 
   static String renderMap(Map map) {
@@ -261,48 +363,41 @@ public class Renderer {
   }
 
   static String renderMap(Map map, String formatPattern, String defaultDatePattern, Locale locale) {
+    StringBuffer sb = new StringBuffer();
+    appendMap(map, formatPattern, defaultDatePattern, locale, sb);
+    return sb.toString();
+  }
+
+  static void appendMap(Map map, String formatPattern, String defaultDatePattern, Locale locale, StringBuffer sb) {
     if (map != null) {
-      StringBuffer sb = new StringBuffer("{");
-      Iterator iter = map.keySet().iterator();
+      sb.append('{');
+      Iterator iter = map.entrySet().iterator();
       while (iter.hasNext()) {
-        Object k = iter.next();
-        Object v = map.get(k);
-          sb.append(k+":"+renderValue(v, formatPattern, defaultDatePattern, locale) + ",");
+        Map.Entry e = (Map.Entry)iter.next();
+        sb.append(e.getKey()).append(':');
+        appendValue(e.getValue(), formatPattern, defaultDatePattern, locale, sb);
+        if (iter.hasNext()) sb.append(',');
       }
-      if (sb.charAt(sb.length() - 1) == ',')sb.deleteCharAt(sb.length() - 1);
-      sb.append("}");
-      return sb.toString();
+      sb.append('}');
     } else
-      return "null";
+      sb.append("null");
   }
 
-  private static SimpleDateFormat getDateFormater(String format, Locale locale) {
-    String cKey = format+locale;
-    SimpleDateFormat f = (SimpleDateFormat)cachedFormatters.get(cKey);
-    if (f == null) {
-      synchronized (cachedFormatters) {
-        f = (SimpleDateFormat)cachedFormatters.get(cKey);
-        if (f == null) {
-          if (locale != null)
-            f = new SimpleDateFormat(format, locale);
-          else
-            f = new SimpleDateFormat(format);
-          cachedFormatters.put(cKey, f);
-        }
-      }
-    }
-    return f;
+  static String renderObject(Object obj, String format, String defaultDatePattern, Locale locale) {
+    StringBuffer sb = new StringBuffer();
+    appendObject(obj, format, defaultDatePattern, locale, sb);
+    return sb.toString();
   }
 
-  static String renderObject(Object obj, String format, String defaultDatePattern, Locale locale) {
+  static void appendObject(Object obj, String format, String defaultDatePattern, Locale locale, StringBuffer sb) {
     if (obj == null)
-      return "null";
+      sb.append("null");
     else {
       if (format != null && format.trim().length()!=0) {
         BeanFormatter sdf = BeanFormatterCache.getFormater(format, defaultDatePattern, locale, obj.getClass());
-        return sdf.format(obj);
+        sdf.format(0, obj, sb);
       } else
-        return "'" + TextUtils.escape("" + obj) + "'";
+        appendString(String.valueOf(obj), sb);
     }
   }
 
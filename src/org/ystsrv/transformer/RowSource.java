@@ -0,0 +1,207 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.transformer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.BaseStream;
+
+import org.ystsrv.debug.Debug;
+
+/**
+ * Lazy source of the objects of a collection whose elements are not held in
+ * memory: an <code>Iterator</code>, an <code>Iterable</code> that is not a
+ * <code>java.util.Collection</code>, a <code>java.util.stream.Stream</code>
+ * or a <code>Spliterator</code> (e.g. a cursor over the rows of a JPA or JDBC
+ * query).
+ *
+ * <p>The {@link TransformerGroup} wraps into a <code>RowSource</code> the lazy
+ * sources that no transformer accepts as they are, and then offers them to the
+ * {@link CollectionTransformer}s of the group as if they were collections. The
+ * first object of the source is read in advance in order to choose the
+ * transformer; the rest of objects are read while they are transformed, so
+ * {@link BeanCollectionTransformer}s render them one by one into the model
+ * section without holding the whole collection, or its text, in memory.
+ *
+ * <p>A <code>RowSource</code> can be traversed only once. It is closed (and
+ * the underlying stream, iterator or iterable closed if they are
+ * <code>AutoCloseable</code>) once it has been transformed.
+ *
+ * @author Francisco Jos Garca Izquierdo
+ * @version 1.0
+ */
+public final class RowSource implements Iterator {
+
+  private static final String LOGGER_NAME = "ystsrv.transformer";
+
+  private Object source;
+  private Iterator iterator;
+  private boolean empty;
+  private boolean started;
+  private Object next;
+  private boolean hasNext;
+  private boolean closed;
+
+  private RowSource(Object source, Iterator iterator) {
+    this.source = source;
+    this.iterator = iterator;
+    this.advance();
+    this.empty = !this.hasNext;
+  }
+
+  /**
+   * Returns true if <code>data</code> is a lazy source of objects that can be
+   * wrapped into a <code>RowSource</code>: an <code>Iterator</code>, a
+   * <code>Stream</code>, a <code>Spliterator</code> or an
+   * <code>Iterable</code> that is not a <code>Collection</code>.
+   *
+   * @param data Object
+   * @return boolean
+   */
+  public static boolean isLazySource(Object data) {
+    if (data == null || data instanceof RowSource || data instanceof Collection)
+      return false;
+    return data instanceof Iterator || data instanceof Iterable ||
+        data instanceof BaseStream || data instanceof Spliterator;
+  }
+
+  /**
+   * Wraps the lazy source <code>data</code> (see {@link #isLazySource}). The
+   * first object of the source is read when it is wrapped.
+   *
+   * @param data Object
+   * @return RowSource
+   * @throws IllegalArgumentException if data is not a lazy source
+   */
+  public static RowSource of(Object data) {
+    if (data instanceof RowSource)
+      return (RowSource)data;
+    if (data instanceof Collection)
+      return new RowSource(null, ((Collection)data).iterator());
+    if (data instanceof Iterator)
+      return new RowSource(data, (Iterator)data);
+    if (data instanceof Iterable)
+      return new RowSource(data, ((Iterable)data).iterator());
+    if (data instanceof BaseStream)
+      return new RowSource(data, ((BaseStream)data).iterator());
+    if (data instanceof Spliterator)
+      return new RowSource(data, Spliterators.iterator((Spliterator)data));
+    throw new IllegalArgumentException("Impossible to read objects from " +
+                                       (data != null ? data.getClass().getName() : "null"));
+  }
+
+  /**
+   * Returns true if the source had no objects when it was wrapped.
+   *
+   * @return boolean
+   */
+  public boolean isEmpty() {
+    return this.empty;
+  }
+
+  /**
+   * Returns the first object of the source, without consuming it, or null if
+   * the source is empty or it has already been traversed.
+   *
+   * @return Object
+   */
+  public Object first() {
+    return this.started ? null : this.next;
+  }
+
+  public boolean hasNext() {
+    return this.hasNext;
+  }
+
+  public Object next() {
+    if (!this.hasNext)
+      throw new NoSuchElementException();
+    this.started = true;
+    Object res = this.next;
+    this.advance();
+    return res;
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Reads the remaining objects of the source into a list. It is used by the
+   * collection transformers that only know how to transform a whole
+   * <code>Collection</code>.
+   *
+   * @return List
+   */
+  public List toList() {
+    List l = new ArrayList();
+    while (this.hasNext())
+      l.add(this.next());
+    return l;
+  }
+
+  /**
+   * Closes the source. No more objects are read from it, and the underlying
+   * source is closed if it is <code>AutoCloseable</code>.
+   */
+  public void close() {
+    if (this.closed)
+      return;
+    this.closed = true;
+    this.hasNext = false;
+    this.next = null;
+    if (this.source instanceof AutoCloseable) {
+      try {
+        ((AutoCloseable)this.source).close();
+      } catch (Exception ex) {
+        Debug.warning(LOGGER_NAME, "Problems closing source of objects " + this.source, ex);
+      }
+    }
+  }
+
+  private void advance() {
+    this.hasNext = this.iterator.hasNext();
+    this.next = this.hasNext ? this.iterator.next() : null;
+  }
+
+  public String toString() {
+    return "RowSource(" + (this.source != null ? this.source.getClass().getName() : "collection") + ")";
+  }
+}
@@ -34,7 +34,6 @@
  */
 package org.ystsrv.transformer;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
 import org.ystsrv.debug.Debug;
@@ -48,17 +47,23 @@ import org.ystsrv.debug.Debug;
  */
 class SinglePropertyAccessor implements PropertyAccessor {
   private Method methodName;
+  private PropertyPath.Getter getter;
 
   SinglePropertyAccessor(Method methodName) {
     Debug.prec(methodName);
     this.methodName = methodName;
+    this.getter = PropertyPath.generateGetter(methodName);
   }
 
-  public Object getProperty(String name, Object obj) throws InvocationTargetException, IllegalAccessException {
-    Debug.prec(name);
+  public Method getReadMethod() {
+    return methodName;
+  }
+
+  public PropertyPath.Getter getGetter() {
+    return getter;
+  }
 
-    Debug.check(name.indexOf(".") == -1, "The property "+name+" is not simple");
-    if (obj == null) return null;
-    return methodName.invoke(obj, null);
+  public PropertiesAccessor getNestedAccessor() {
+    return null;
   }
 }
@@ -34,6 +34,7 @@
  */
 package org.ystsrv.transformer;
 
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
@@ -42,12 +43,18 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.ystsrv.ConfigurationException;
 import org.ystsrv.ModelSection;
 import org.ystsrv.TransformationException;
 import org.ystsrv.Transformer;
 import org.ystsrv.debug.Debug;
+import org.ystsrv.manager.Config;
 
 /**
  * When a Yeast template is build, it will be associated to a
@@ -79,6 +86,19 @@ import org.ystsrv.debug.Debug;
  * individual transformation to the global result (an object of class {@link
  * org.ystsrv.ModelSection}). </p>
  *
+ * <p>Lazy sources of objects (an <code>Iterator</code>, a
+ * <code>Stream</code>, a <code>Spliterator</code> or an
+ * <code>Iterable</code> that is not a <code>Collection</code>) not accepted
+ * by any transformer as they are, are wrapped into a {@link RowSource} and
+ * offered to the {@link CollectionTransformer}s of the group, as collections
+ * whose objects are read while they are transformed. The source is closed
+ * once it has been transformed. </p>
+ *
+ * <p>The transformations of the {@link Cacheable} objects, and of the objects
+ * transformed by transformers configured with the <code>cacheTTL</code>
+ * param, are kept in the {@link FragmentCache} and reused by later
+ * requests. </p>
+ *
  * <p>There are several ways of making up a <code>TransformerGroup</code>,
  * but regardless the one you use you have to be careful with the order of the
  * <code>Transformer</code>s you include, because this order is used in the
@@ -107,6 +127,25 @@ public class TransformerGroup {
 
   private List transformers;
 
+  // Dispatch table. For each class of data (and for collections, class of
+  // their first element) the indexes of the transformers that may accept
+  // it, in order. The transformers that redefine accept() are stored as
+  // -(index+1), as they must be asked for each object
+  private final Map dispatch = new ConcurrentHashMap();
+
+  // Time to live of the transformations cached for each transformer
+  // configured with the cacheTTL param (see FragmentCache)
+  private final Map cacheTTLs = new ConcurrentHashMap();
+
+  // Must the objects be transformed in parallel? (see isParallel)
+  private boolean parallel;
+
+  // Parallel mode chosen for the request being processed by each thread
+  private static final ThreadLocal requestParallel = new ThreadLocal();
+
+  // Pool of the parallel transformations. Created when first needed
+  private static ForkJoinPool pool;
+
   /**
    * Builds a <code>TransformerGroup</code> containig only the {@link
    * NamedDataTransformer}.
@@ -217,6 +256,15 @@ public class TransformerGroup {
         t = (Transformer)tClass.newInstance();
       }
       add(t);
+      String cacheTTL = (params != null) ? (String)params.get("cacheTTL") : null;
+      if (cacheTTL != null && cacheTTL.trim().length() != 0) {
+        try {
+          this.cacheTTLs.put(t, Long.valueOf(cacheTTL.trim()));
+        } catch (NumberFormatException ex) {
+          throw new ConfigurationException("Impossible to add transformer to group. Illegal cacheTTL param " +
+                                           cacheTTL + " for transformer " + className, ex);
+        }
+      }
     } catch (ClassNotFoundException cnfe) {
       throw new ConfigurationException("Impossible to add transformer to group [" + cnfe + "]", cnfe);
     } catch (IllegalAccessException iae) {
@@ -253,6 +301,7 @@ public class TransformerGroup {
     Object namedT = transformers.get(transformers.size()-1);
     transformers.set(transformers.size()-1,transformer);
     transformers.add(namedT); // The NamedDataTransformer must always be the last transformer of the group
+    this.dispatch.clear();
   }
 
   /**
@@ -318,19 +367,264 @@ public class TransformerGroup {
       Debug.fine(LOGGER_NAME2, "TransformerGroup.transform: no plain objetcs received to transform");
     }
     ModelSection dataTr = new ModelSection();
+    this.transformInto(dataTr, data);
+    return dataTr;
+  }
+
+  /**
+   * Transforms the objects contained in <code>data</code> as {@link
+   * #transform(java.lang.Object[])} does, appending the result to an already
+   * existing <code>ModelSection</code> (e.g. a streaming one).
+   *
+   * @param dataTr ModelSection where the transformed data will be appended
+   * @param data Array of objects to be transformed
+   * @throws ConfigurationException if some of the member transformers returns
+   *   <code>null</code> in its
+   *   {@link org.ystsrv.Transformer#transformedClass} method
+   * @throws TransformationException Any exception thrown in the
+   *   {@link org.ystsrv.Transformer#transform} method of any of
+   *   the member transformers this object holds
+   */
+  public void transformInto(ModelSection dataTr, Object[] data) throws TransformationException, ConfigurationException {
     if (data != null) {
       boolean[] alreadyUsedTransformers = new boolean[this.transformers.size()];
       Arrays.fill(alreadyUsedTransformers, false);
+      if (this.isParallel() && data.length > 0) {
+        this.transformParallel(dataTr, data, alreadyUsedTransformers);
+        return;
+      }
       for (int i = 0; i < data.length; i++) {
         if (data[i] != null) {
-          dataTr.appendLine(this.transform(data[i], alreadyUsedTransformers));
+          Object item = data[i];
+          if (item instanceof CacheableData) item = ((CacheableData)item).getData();
+          Transformer t = this.select(item, alreadyUsedTransformers, false);
+          if (t == null && RowSource.isLazySource(item)) {
+            item = RowSource.of(item);
+            t = this.select(item, alreadyUsedTransformers, true);
+          } else if (t == null) {
+            this.reportNotFound(item);
+          }
+          try {
+            if (t != null)
+              this.transformTo(t, item, data[i], dataTr);
+          } catch (IOException ex) { // ModelSection does not throw it
+            throw new TransformationException(ex);
+          } finally {
+            if (item instanceof RowSource) ((RowSource)item).close();
+          }
+          dataTr.append('\n');
         } else {
           Debug.warning(LOGGER_NAME2, "TransformerGroup.transform: skiping null data to transform");
           dataTr.appendLine("// Null data skipped");
         }
       }
     }
-    return dataTr;
+  }
+
+  /**
+   * Sets if this group transforms the objects in parallel (see {@link
+   * #isParallel}). It is usually set with the <code>parallel</code>
+   * attribute of the <code>template</code> element in the
+   * <code>YSTConfig.xml</code> file.
+   *
+   * @param parallel boolean
+   */
+  public void setParallel(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+  /**
+   * Returns true if the objects are transformed in parallel in the current
+   * thread. The choice made for the current request (see {@link
+   * #setRequestParallel}) takes precedence over the one of this group.
+   *
+   * <p>In parallel mode, the transformer of each object is chosen in order
+   * in the calling thread, as in the sequential mode, and then the objects are
+   * transformed in a pool of {@link Config#PARALLEL_THREADS} threads. Huge
+   * collections transformed by {@link BeanCollectionTransformer}s are split
+   * in ranges of {@link Config#PARALLEL_RANGE_SIZE} objects. The transformed
+   * chunks are appended to the model section in the original order. The
+   * transformers must not depend on the state of the calling thread.
+   *
+   * @return boolean
+   */
+  public boolean isParallel() {
+    Boolean requestParallel = (Boolean)TransformerGroup.requestParallel.get();
+    return requestParallel != null ? requestParallel.booleanValue() : this.parallel;
+  }
+
+  /**
+   * Sets if the objects of the current request (that is, transformed in the
+   * current thread) must be transformed in parallel, regardless of the
+   * configuration of the template (see {@link #isParallel}).
+   *
+   * @param parallel Boolean If it is null, each template decides
+   */
+  public static void setRequestParallel(Boolean parallel) {
+    if (parallel == null)
+      TransformerGroup.requestParallel.remove();
+    else
+      TransformerGroup.requestParallel.set(parallel);
+  }
+
+  private void transformParallel(ModelSection dataTr, Object[] data, boolean[] alreadyUsedTransformers)
+      throws TransformationException {
+    // Los transformers se eligen en orden, en este hilo
+    Object[] originals = data;
+    data = data.clone();
+    Transformer[] selected = new Transformer[data.length];
+    for (int i = 0; i < data.length; i++) {
+      if (data[i] instanceof CacheableData) data[i] = ((CacheableData)data[i]).getData();
+      if (data[i] != null) {
+        selected[i] = this.select(data[i], alreadyUsedTransformers, false);
+        if (selected[i] == null && RowSource.isLazySource(data[i])) {
+          data[i] = RowSource.of(data[i]);
+          selected[i] = this.select(data[i], alreadyUsedTransformers, true);
+        } else if (selected[i] == null) {
+          this.reportNotFound(data[i]);
+        }
+      }
+    }
+
+    ForkJoinPool pool = getPool();
+    TransformTask[] tasks = new TransformTask[data.length];
+    Future[] chunks = new Future[data.length];
+    try {
+      for (int i = 0; i < data.length; i++) {
+        if (selected[i] != null && !(selected[i] instanceof NamedDataTransformer)) {
+          tasks[i] = new TransformTask(selected[i], data[i],
+              FragmentCache.keyOf(selected[i], originals[i], this.getCacheTTL(selected[i])));
+          chunks[i] = pool.submit(tasks[i]);
+        }
+      }
+      for (int i = 0; i < data.length; i++) {
+        if (data[i] == null) {
+          Debug.warning(LOGGER_NAME2, "TransformerGroup.transform: skiping null data to transform");
+          dataTr.appendLine("// Null data skipped");
+          continue;
+        }
+        if (chunks[i] != null)
+          dataTr.append((StringBuffer)chunks[i].get());
+        else if (selected[i] != null)
+          this.transformTo(selected[i], data[i], originals[i], dataTr);
+        dataTr.append('\n');
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new TransformationException("Transformation interrupted", ex);
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof TransformationException)
+        throw (TransformationException)cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+      if (cause instanceof Error)
+        throw (Error)cause;
+      throw new TransformationException(cause);
+    } catch (IOException ex) { // ModelSection does not throw it
+      throw new TransformationException(ex);
+    } finally {
+      // Las RowSources no se pueden cerrar mientras algun hilo las recorra
+      awaitTasks(tasks, chunks);
+      for (int i = 0; i < data.length; i++) {
+        if (data[i] instanceof RowSource) ((RowSource)data[i]).close();
+      }
+    }
+  }
+
+  // Waits for the end of the tasks submitted by transformParallel. The tasks
+  // that have not started yet are skipped. Their results and errors are
+  // ignored: it is only called to end the transformation
+  private static void awaitTasks(TransformTask[] tasks, Future[] chunks) {
+    for (int i = 0; i < tasks.length; i++) {
+      if (tasks[i] != null) tasks[i].skip();
+    }
+    boolean interrupted = false;
+    for (int i = 0; i < chunks.length; i++) {
+      while (chunks[i] != null) {
+        try {
+          chunks[i].get();
+          break;
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        } catch (ExecutionException ex) {
+          break;
+        }
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  private static synchronized ForkJoinPool getPool() {
+    if (pool == null) {
+      int threads = Config.PARALLEL_THREADS > 0 ? Config.PARALLEL_THREADS : Runtime.getRuntime().availableProcessors();
+      Debug.info(LOGGER_NAME2, "Creating pool of " + threads + " threads for parallel transformations");
+      pool = new ForkJoinPool(threads);
+    }
+    return pool;
+  }
+
+  // Transforms data with t into out, reusing the transformation kept in the
+  // FragmentCache if original (data or the CacheableData wrapping it) is cacheable
+  private void transformTo(Transformer t, Object data, Object original, Appendable out)
+      throws TransformationException, IOException {
+    FragmentCache.Key key = FragmentCache.keyOf(t, original, this.getCacheTTL(t));
+    if (key == null) {
+      t.transformTo(data, out);
+      return;
+    }
+    String fragment = FragmentCache.get(key);
+    if (fragment == null) {
+      StringBuffer sb = new StringBuffer();
+      t.transformTo(data, sb);
+      fragment = sb.toString();
+      FragmentCache.put(key, fragment);
+    }
+    out.append(fragment);
+  }
+
+  private long getCacheTTL(Transformer t) {
+    if (this.cacheTTLs.isEmpty())
+      return 0;
+    Long ttl = (Long)this.cacheTTLs.get(t);
+    return (ttl != null) ? ttl.longValue() : 0;
+  }
+
+  // Transforms an object into its own buffer
+  private static class TransformTask implements Callable {
+    private Transformer transformer;
+    private Object data;
+    private FragmentCache.Key key; // null if the transformation is not cached
+    private volatile boolean skipped;
+
+    TransformTask(Transformer transformer, Object data, FragmentCache.Key key) {
+      this.transformer = transformer;
+      this.data = data;
+      this.key = key;
+    }
+
+    // The task does nothing if it has not started yet
+    void skip() {
+      this.skipped = true;
+    }
+
+    public Object call() throws Exception {
+      if (this.skipped)
+        return null;
+      String fragment = (this.key != null) ? FragmentCache.get(this.key) : null;
+      if (fragment != null)
+        return new StringBuffer(fragment);
+      StringBuffer sb = new StringBuffer();
+      if (this.transformer instanceof BeanCollectionTransformer && this.data instanceof Collection)
+        ((BeanCollectionTransformer)this.transformer).doTransformInRanges((Collection)this.data, sb,
+                                                                          Config.PARALLEL_RANGE_SIZE);
+      else
+        this.transformer.transformTo(this.data, sb);
+      if (this.key != null)
+        FragmentCache.put(this.key, sb.toString());
+      return sb;
+    }
   }
 
   /**
@@ -356,38 +650,109 @@ public class TransformerGroup {
 // ConfigurationException if some of the member transformers returns null in its {@link org.ystsrv.Transformer#transformedClass} method
 // RuntimeException Any implicit exception thrown in the {@link org.ystsrv.Transformer#transform} method of any of the member transformers this object holds
 // TransformationException
-  private String transform(Object data, boolean[] alreadyUsedTransformers) throws TransformationException {
-    String trData = "";
-    boolean transformed = false;
-    Debug.fine(LOGGER_NAME2, "Trying to transform "+data);
-    for (int i = 0; i < this.transformers.size(); i++) {
+  // Returns the first transformer of the group, not used yet, that accepts
+  // data (or null), and marks it as used
+  private Transformer select(Object data, boolean[] alreadyUsedTransformers, boolean report) {
+    boolean fine = Debug.hasFineLevel(LOGGER_NAME2);
+    if (fine) Debug.fine(LOGGER_NAME2, "Trying to transform "+data);
+    int[] candidates = this.getCandidates(data);
+    for (int c = 0; c < candidates.length; c++) {
+      int i = candidates[c];
+      boolean mustAsk = (i < 0);
+      if (mustAsk) i = -i - 1;
+      if (alreadyUsedTransformers[i])
+        continue;
       Transformer t = (Transformer)this.transformers.get(i);
-      Debug.fine(LOGGER_NAME2, "TransformerGroup testing transformer "+t);
-      if (t.accept(data) && !alreadyUsedTransformers[i]) {
-        Debug.fine(LOGGER_NAME2, t + " transforms " + data);
-        trData = t.transform(data);
-        transformed = true;
+      if (fine) Debug.fine(LOGGER_NAME2, "TransformerGroup testing transformer "+t);
+      if (!mustAsk || t.accept(data)) {
+        if (fine) Debug.fine(LOGGER_NAME2, t + " transforms " + data);
         if (i != this.transformers.size()-1) alreadyUsedTransformers[i] = true; // NamedDataTransformer is always available
-        break;
+        return t;
       }
     }
 
+    if (report)
+      this.reportNotFound(data);
+    return null;
+  }
+
+  private void reportNotFound(Object data) {
     if (Debug.hasInfoLevel(LOGGER_NAME2)) {
-      if (!transformed) {
-        Class cl = data.getClass();
-        String msg = "Transformer not found to transform object of class " +
-            data.getClass().getName();
-        if (java.util.Collection.class.isAssignableFrom(cl)) {
-          if ( ( (Collection)data).size() > 0) {
-            Iterator iter = ( (Collection)data).iterator();
-            msg += "(" + iter.next().getClass().getName() + ")";
-          }
+      Class cl = data.getClass();
+      String msg = "Transformer not found to transform object of class " +
+          data.getClass().getName();
+      if (java.util.Collection.class.isAssignableFrom(cl)) {
+        if ( ( (Collection)data).size() > 0) {
+          Iterator iter = ( (Collection)data).iterator();
+          msg += "(" + iter.next().getClass().getName() + ")";
         }
-        Debug.info(LOGGER_NAME2, msg);
+      } else if (data instanceof RowSource && ((RowSource)data).first() != null) {
+        msg += "(" + ((RowSource)data).first().getClass().getName() + ")";
       }
+      Debug.info(LOGGER_NAME2, msg);
     }
+  }
 
-    return trData;
+  // Returns the dispatch table entry for data, building it the first time
+  private int[] getCandidates(Object data) {
+    Class dataClass = data.getClass();
+    Class elemClass = null;
+    Object key = dataClass;
+    if (data instanceof Collection) {
+      Collection col = (Collection)data;
+      if (!col.isEmpty()) {
+        Object first = col.iterator().next();
+        if (first != null) elemClass = first.getClass();
+      }
+      key = Arrays.asList(new Object[] {dataClass, elemClass});
+    } else if (data instanceof RowSource) {
+      Object first = ((RowSource)data).first();
+      if (first != null) elemClass = first.getClass();
+      key = Arrays.asList(new Object[] {dataClass, elemClass});
+    }
+    int[] candidates = (int[])this.dispatch.get(key);
+    if (candidates == null) {
+      candidates = this.buildCandidates(dataClass, elemClass);
+      this.dispatch.put(key, candidates);
+    }
+    return candidates;
+  }
+
+  // Applies the default accept() of each transformer (see Transformer and
+  // CollectionTransformer) to the class of the data
+  private int[] buildCandidates(Class dataClass, Class elemClass) {
+    int n = this.transformers.size();
+    int[] candidates = new int[n];
+    int k = 0;
+    for (int i = 0; i < n; i++) {
+      Transformer t = (Transformer)this.transformers.get(i);
+      if (redefinesAccept(t)) {
+        candidates[k++] = -(i + 1);
+        continue;
+      }
+      Class transformedClass = t.transformedClass();
+      if (transformedClass == null)
+        throw new ConfigurationException("Transformer class " + t.getClass().getName() +
+                                         " can not return null in transformedClass() method");
+      if (t instanceof CollectionTransformer) {
+        if (elemClass != null && transformedClass.isAssignableFrom(elemClass))
+          candidates[k++] = i;
+      } else if (transformedClass.isAssignableFrom(dataClass)) {
+        candidates[k++] = i;
+      }
+    }
+    int[] res = new int[k];
+    System.arraycopy(candidates, 0, res, 0, k);
+    return res;
+  }
+
+  private static boolean redefinesAccept(Transformer t) {
+    try {
+      Class declaring = t.getClass().getMethod("accept", new Class[] {Object.class}).getDeclaringClass();
+      return declaring != Transformer.class && declaring != CollectionTransformer.class;
+    } catch (NoSuchMethodException ex) {
+      return true;
+    }
   }
 
   /*
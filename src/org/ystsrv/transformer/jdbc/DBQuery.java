@@ -35,15 +35,24 @@
 package org.ystsrv.transformer.jdbc;
 
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
+import java.sql.ParameterMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
 
+import org.ystsrv.debug.Debug;
+import org.ystsrv.manager.Config;
+
 /**
  * Objects of this class represent queries to a data base whose result can be
  * directly included in a Yeast template following a transformation procedure
@@ -152,9 +161,26 @@ public class DBQuery {
 
   private boolean forceCloseConnection;
   private boolean forceCloseStatement;
+  // False if the connection is closed right after the query (see
+  // setStatementReused), so its statements must not be cached
+  private boolean reuseStatement = true;
 
   private String DBQuery2Str;
 
+  // Fetch size of the statement. If null, Config.JDBC_FETCH_SIZE is used
+  private Integer fetchSize;
+
+  // Timeout of the query in seconds. 0 means no limit
+  private int queryTimeout;
+
+  // Values of the parameters (?) of the query
+  private Object[] parameters;
+
+  // Caching of the transformation of the result (see QueryResultCache)
+  private boolean cached;
+  private long cacheTTL;
+  private String[] cacheTables;
+
   /**
    * Creates a <code>DBQuery</code> object with a
    * <code>java.sql.ResultSet</code> object containing the query result. This
@@ -321,6 +347,117 @@ public class DBQuery {
     return /*this.mustCloseConnection || */this.forceCloseConnection;
   }
 
+  /**
+   * Sets the fetch size of the statement that executes the query (see
+   * <code>java.sql.Statement.setFetchSize</code>). By default, the fetch size
+   * is {@link Config#JDBC_FETCH_SIZE}. A suitable fetch size allows the
+   * {@link DBQueryTransformer} to stream the rows of large queries without
+   * holding all of them in memory (some drivers, like MySQL, require
+   * <code>Integer.MIN_VALUE</code> for this). It is ignored if the
+   * <code>DBQuery</code> was created with an already executed
+   * <code>ResultSet</code>.
+   *
+   * @param fetchSize int
+   */
+  public void setFetchSize(int fetchSize) {
+    this.fetchSize = Integer.valueOf(fetchSize);
+  }
+
+  /**
+   * Sets the number of seconds the driver will wait for the query to execute
+   * (see <code>java.sql.Statement.setQueryTimeout</code>). If it is 0 (the
+   * default), there is no limit. It is ignored if the <code>DBQuery</code>
+   * was created with an already executed <code>ResultSet</code>.
+   *
+   * @param seconds int
+   */
+  public void setQueryTimeout(int seconds) {
+    this.queryTimeout = seconds;
+  }
+
+  /**
+   * Sets the values of the parameters (<code>?</code>) of the query, in
+   * order. Use parameters instead of building the SQL string with the
+   * values: this avoids SQL injection, and the data base (and the statement
+   * cache of the connection) can reuse the same prepared statement for
+   * different values. The values are bound with
+   * <code>PreparedStatement.setObject</code>; <code>java.util.Date</code>
+   * values are bound as <code>java.sql.Timestamp</code>, and null values with
+   * <code>setNull</code> and the SQL type of the parameter reported by the
+   * driver (<code>VARCHAR</code> if the driver does not report it).
+   *
+   * <p>If the statement cache is enabled (see {@link
+   * Config#JDBC_STATEMENT_CACHE_SIZE}) and the <code>DBQuery</code> was
+   * created with a connection, the prepared statement is not closed once the
+   * query is transformed: it is kept
+   * (up to {@link Config#JDBC_STATEMENT_CACHE_SIZE} statements per connection)
+   * to be reused by the next queries with the same SQL string executed
+   * through the same connection, until it is closed. Statements are only
+   * reused if the very same <code>Connection</code> object is used again
+   * (e.g. a connection kept by the application for several queries).
+   * Connection pools usually hand out a new wrapper of the physical connection
+   * each time, so the reuse of statements across pooled connections is left
+   * to the statement cache of the pool or of the driver.
+   *
+   * @param parameters Object[]
+   */
+  public void setParameters(Object[] parameters) {
+    this.parameters = parameters;
+  }
+
+  Object[] getParameters() {
+    return this.parameters;
+  }
+
+  /**
+   * Marks the query to have its transformed result cached in the {@link
+   * QueryResultCache}, so that the next executions of the same query with the
+   * same <code>DBQueryTransformer</code> do not go to the data base. Use it
+   * only for queries over tables that change slowly. It is ignored if the
+   * <code>DBQuery</code> was created with an already executed
+   * <code>ResultSet</code>.
+   *
+   * @param ttl time to live of the cached result in milliseconds. If it is 0,
+   *   it lives until it is invalidated or evicted
+   * @param tables names of the tables read by the query, used to invalidate
+   *   the cached result when any of them changes (see {@link
+   *   QueryResultCache#invalidateTable}). It may be null
+   */
+  public void setCached(long ttl, String[] tables) {
+    this.cached = true;
+    this.cacheTTL = ttl;
+    this.cacheTables = tables;
+  }
+
+  boolean isCached() {
+    return this.cached;
+  }
+
+  long getCacheTTL() {
+    return this.cacheTTL;
+  }
+
+  String[] getCacheTables() {
+    return this.cacheTables;
+  }
+
+  // Returns an object identifying the data base where the query is executed,
+  // or null if it cannot be known
+  Object getSource() {
+    if (this.resultSet != null)
+      return null;
+    if (this.URL != null)
+      return this.URL + "|" + this.usr;
+    if (this.dataSource != null)
+      return this.dataSource;
+    try {
+      DatabaseMetaData md = this.connection.getMetaData();
+      return md.getURL() + "|" + md.getUserName();
+    } catch (SQLException ex) {
+      return null;
+    }
+  }
+
   boolean getMustCloseStatement() {
     return this.forceCloseStatement || this.forceCloseConnection;
   }
@@ -338,9 +475,71 @@ public class DBQuery {
     } else {
       con = DriverManager.getConnection(this.URL, this.usr, this.pwd);
     }
-    // Aqui tengo la conexin
-    PreparedStatement ps = con.prepareStatement(this.query);
-    return ps.executeQuery();
+    // Aqui tengo la conexin. Las filas solo se leen una vez y hacia adelante
+    PreparedStatement ps;
+    if (this.isStatementCached())
+      ps = StatementCache.prepare(con, this.query);
+    else
+      ps = con.prepareStatement(this.query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    try {
+      int fetchSize = (this.fetchSize != null) ? this.fetchSize.intValue() : Config.JDBC_FETCH_SIZE;
+      if (fetchSize != 0)
+        ps.setFetchSize(fetchSize);
+      ps.setQueryTimeout(this.queryTimeout);
+      if (this.parameters != null) {
+        for (int i = 0; i < this.parameters.length; i++) {
+          Object p = this.parameters[i];
+          if (p == null)
+            ps.setNull(i + 1, nullType(ps, i + 1));
+          else if (p instanceof java.util.Date && !(p instanceof java.sql.Date) &&
+                   !(p instanceof Time) && !(p instanceof Timestamp))
+            ps.setTimestamp(i + 1, new Timestamp(((java.util.Date)p).getTime()));
+          else
+            ps.setObject(i + 1, p);
+        }
+      }
+      return ps.executeQuery();
+    } catch (SQLException ex) {
+      ps.close();
+      if (this.forceCloseConnection)
+        con.close();
+      throw ex;
+    }
+  }
+
+  // Tipo SQL con el que se asigna un parametro null: algunos drivers no
+  // admiten Types.NULL
+  private static int nullType(PreparedStatement ps, int param) {
+    try {
+      ParameterMetaData md = ps.getParameterMetaData();
+      if (md != null)
+        return md.getParameterType(param);
+    } catch (SQLException ex) {
+      Debug.fine(LOGGER_NAME, "Parameter metadata not available, binding null as VARCHAR [" + ex + "]");
+    }
+    return Types.VARCHAR;
+  }
+
+  /**
+   * Sets if the statement of the query can be kept for reuse in the
+   * statement cache of its connection. The {@link DBQueryHelper} disables it
+   * for the connections it opens and closes itself.
+   *
+   * @param reuse boolean
+   */
+  void setStatementReused(boolean reuse) {
+    this.reuseStatement = reuse;
+  }
+
+  // The statements of the connections supplied from outside are reused
+  boolean isStatementCached() {
+    return Config.JDBC_STATEMENT_CACHE_SIZE > 0 && this.connection != null && !this.forceCloseConnection &&
+        this.reuseStatement;
+  }
+
+  // Gives back the statement of the query once its result set is closed
+  void releaseStatement(PreparedStatement ps) throws SQLException {
+    StatementCache.release(this.connection, this.query, ps);
   }
 
   String getQuery () {
@@ -348,6 +547,8 @@ public class DBQuery {
   }
 
   public String toString() {
+    if (this.parameters != null)
+      return this.DBQuery2Str + " with parameters " + Arrays.asList(this.parameters);
     return this.DBQuery2Str;
   }
 }
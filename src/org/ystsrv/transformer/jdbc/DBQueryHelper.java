@@ -37,6 +37,16 @@ package org.ystsrv.transformer.jdbc;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -44,6 +54,7 @@ import javax.sql.DataSource;
 
 import org.ystsrv.TransformationException;
 import org.ystsrv.debug.Debug;
+import org.ystsrv.manager.Config;
 import org.ystsrv.servlet.YSTContext;
 
 /**
@@ -70,7 +81,8 @@ import org.ystsrv.servlet.YSTContext;
  * use a {@link TransformationFormat} object. Another set of constructors allows
  * you to specify a set of queries as well as a set of corresponding
  * transformation formats. All of these queries will be executed through the
- * same connection.
+ * same connection, unless they are executed concurrently (see {@link
+ * #setConcurrentQueries}).
  *
  * <p>This class methods are thread-safe. You can share
  * <code>DBQueryHelper</code> objects among servlet requests.
@@ -168,6 +180,10 @@ import org.ystsrv.servlet.YSTContext;
  *   }
  * }</pre>
  *
+ * <p>If the queries depend on the request, write them with parameters
+ * (<code>?</code>) and give their values to {@link #toResponse(YSTContext,
+ * Object[][])}; the helper can still be shared by all the requests.
+ *
  * @see DBQuery
  * @see org.ystsrv.servlet.YSTServlet
  *
@@ -186,6 +202,20 @@ public class DBQueryHelper {
   private String[] queries;
   private TransformationFormat[] formats;
 
+  // Maximum number of queries executed at the same time (see setConcurrentQueries)
+  private int concurrentQueries = 1;
+  // Timeout of each query in seconds. 0 means no limit
+  private int queryTimeout;
+
+  // Caching of the results of the queries (see QueryResultCache)
+  private boolean cached;
+  private long cacheTTL;
+  private String[] cacheTables;
+
+  // Threads that execute the queries concurrently, shared by all the requests
+  // (at most Config.JDBC_QUERY_THREADS). Created when first needed
+  private static ExecutorService pool;
+
   /**
    * Creates a <code>DBQueryHelper</code> for a SQL query (<code>query</code>)
    * using the parameters <code>conURL</code>, <code>usr</code> and
@@ -419,15 +449,38 @@ public class DBQueryHelper {
    *   e.g. accessing to the data base.
    */
   public void toResponse(YSTContext context) throws TransformationException {
+    this.toResponse(context, null);
+  }
+
+  /**
+   * Transforms the result of the encapsulated queries, executed with the
+   * supplied values for their parameters (<code>?</code>), using the
+   * corresponding formats, and writes the transformation result in the Yeast
+   * template through the supplied <code>YSTContext</code>. Since the values
+   * are given on every call, the same <code>DBQueryHelper</code> can be shared
+   * by all the requests. See {@link DBQuery#setParameters}.
+   *
+   * @param context YSTContext
+   * @param parameters the values of the parameters of each query, in the
+   *   order of the queries. The values of a query without parameters may be
+   *   null
+   * @throws TransformationException encapsulating any transformation problem,
+   *   e.g. accessing to the data base.
+   */
+  public void toResponse(YSTContext context, Object[][] parameters) throws TransformationException {
+    if (parameters != null && parameters.length != this.queries.length)
+      throw new IllegalArgumentException("The number of parameter arrays (" + parameters.length +
+                                         ") and queries (" + this.queries.length + ") must be the same");
+    int workers = Math.min(this.concurrentQueries, this.queries.length);
+    if (workers > 1) {
+      this.toResponseConcurrently(context, parameters, workers);
+      return;
+    }
     Connection con = null;
     try {
       con = getConnection();
       for (int i = 0; i < queries.length; i++) {
-        DBQueryTransformer t = DBQueryTransformerCache.getTransformer(this.formats[i].getHeader(),
-            this.formats[i].getFormat(), this.formats[i].getDefaultDatePattern(),
-            this.formats[i].getLocale(), this.queries[i]);
-        DBQuery q = new DBQuery(con, queries[i]);
-        context.toResponse(t.transform(q));
+        context.toResponse(this.transform(i, parameters, con));
       }
     } catch (SQLException ex) {
       Debug.info(LOGGER_NAME, "Error connecting or reading the DB", ex);
@@ -443,6 +496,167 @@ public class DBQueryHelper {
     }
   }
 
+  /**
+   * Sets the maximum number of queries of this helper that are executed at
+   * the same time by {@link #toResponse}. By default it is 1: all the queries
+   * are executed one after another through the same connection. If it is
+   * greater than 1, the queries are executed concurrently, each group of them
+   * through its own connection (so the data source must be able to provide
+   * them), and the time to get the response is the time of the slowest query
+   * instead of the sum of the times of all of them. The transformations are
+   * pushed into the template in the order of the queries anyway. Use it only
+   * with independent queries (e.g. the panels of a dashboard), since they do
+   * not share a transaction. The threads that execute the queries are shared
+   * by all the requests (see {@link Config#JDBC_QUERY_THREADS}); when all of
+   * them are busy the remaining queries are executed by the thread of the
+   * request.
+   *
+   * @param maxConcurrent int
+   */
+  public void setConcurrentQueries(int maxConcurrent) {
+    this.concurrentQueries = Math.max(1, maxConcurrent);
+  }
+
+  /**
+   * Sets the number of seconds the driver will wait for each query to execute
+   * (see {@link DBQuery#setQueryTimeout}). If it is 0 (the default), there is
+   * no limit.
+   *
+   * @param seconds int
+   */
+  public void setQueryTimeout(int seconds) {
+    this.queryTimeout = seconds;
+  }
+
+  /**
+   * Marks the queries of this helper to have their transformed results cached
+   * in the {@link QueryResultCache} (see {@link DBQuery#setCached}). When all
+   * of them are cached, no connection to the data base is used.
+   *
+   * @param ttl time to live of the cached results in milliseconds. If it is
+   *   0, they live until they are invalidated or evicted
+   * @param tables names of the tables read by the queries, used to invalidate
+   *   the cached results (see {@link QueryResultCache#invalidateTable}). It
+   *   may be null
+   */
+  public void setCached(long ttl, String[] tables) {
+    this.cached = true;
+    this.cacheTTL = ttl;
+    this.cacheTables = tables;
+  }
+
+  private String transform(int i, Object[][] parameters, Connection con) throws TransformationException {
+    DBQueryTransformer t = DBQueryTransformerCache.getTransformer(this.formats[i].getHeader(),
+        this.formats[i].getFormat(), this.formats[i].getDefaultDatePattern(),
+        this.formats[i].getLocale());
+    DBQuery q = new DBQuery(con, queries[i]);
+    q.setStatementReused(false); // The connection is closed once the queries are executed
+    if (parameters != null)
+      q.setParameters(parameters[i]);
+    if (this.queryTimeout > 0)
+      q.setQueryTimeout(this.queryTimeout);
+    if (this.cached)
+      q.setCached(this.cacheTTL, this.cacheTables);
+    return t.transform(q);
+  }
+
+  private void toResponseConcurrently(YSTContext context, final Object[][] parameters, int workers) throws
+      TransformationException {
+    final String[] results = new String[this.queries.length];
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicReference error = new AtomicReference();
+    Runnable worker = new Runnable() {
+      public void run() {
+        runQueries(parameters, results, next, error);
+      }
+    };
+    // Este hilo tambien ejecuta consultas, y todas las que queden si el pool
+    // esta saturado
+    Future[] futures = new Future[workers - 1];
+    ExecutorService pool = getPool();
+    try {
+      for (int w = 0; w < futures.length; w++)
+        futures[w] = pool.submit(worker);
+    } catch (RejectedExecutionException ex) {
+      Debug.fine(LOGGER_NAME, "All the DB query threads are busy. Running the queries in the request thread");
+    }
+    worker.run();
+    try {
+      for (int w = 0; w < futures.length && futures[w] != null; w++)
+        futures[w].get();
+    } catch (InterruptedException ex) {
+      error.compareAndSet(null, ex); // The workers stop taking queries
+      for (int w = 0; w < futures.length && futures[w] != null; w++)
+        futures[w].cancel(true);
+      Thread.currentThread().interrupt();
+      throw new TransformationException("Interrupted while waiting for the DB queries", ex);
+    } catch (ExecutionException ex) { // runQueries does not throw exceptions
+      throw new TransformationException(ex.getCause());
+    }
+
+    Throwable cause = (Throwable)error.get();
+    if (cause instanceof SQLException) {
+      Debug.info(LOGGER_NAME, "Error connecting or reading the DB", cause);
+      throw new TransformationException(cause);
+    } else if (cause instanceof TransformationException) {
+      throw (TransformationException)cause;
+    } else if (cause instanceof RuntimeException) {
+      throw (RuntimeException)cause;
+    } else if (cause instanceof Error) {
+      throw (Error)cause;
+    } else if (cause != null) {
+      throw new TransformationException(cause);
+    }
+
+    for (int i = 0; i < results.length; i++)
+      context.toResponse(results[i]);
+  }
+
+  // Executes the queries taken from next through its own connection, until
+  // there are no more queries or any of them fails
+  private void runQueries(Object[][] parameters, String[] results, AtomicInteger next,
+                          AtomicReference error) {
+    Connection con = null;
+    try {
+      int i;
+      while (error.get() == null && (i = next.getAndIncrement()) < this.queries.length) {
+        if (con == null)
+          con = getConnection();
+        results[i] = this.transform(i, parameters, con);
+      }
+    } catch (Throwable ex) {
+      error.compareAndSet(null, ex);
+    } finally {
+      if (con != null)
+        try {
+          con.close();
+          Debug.fine(LOGGER_NAME, "Closed DB connection for DBHelper");
+        } catch (SQLException ex1) {
+          Debug.info(LOGGER_NAME, "I cannot close the DB connection", ex1);
+        }
+    }
+  }
+
+  private static synchronized ExecutorService getPool() {
+    if (pool == null) {
+      // Sin cola: si todos los hilos estan ocupados la tarea se rechaza y la
+      // ejecuta el hilo de la peticion
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(Math.max(1, Config.JDBC_QUERY_THREADS),
+          Math.max(1, Config.JDBC_QUERY_THREADS), 60L, TimeUnit.SECONDS, new SynchronousQueue(),
+          new ThreadFactory() {
+        private AtomicInteger count = new AtomicInteger();
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "yst-dbquery-" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      executor.allowCoreThreadTimeOut(true);
+      pool = executor;
+    }
+    return pool;
+  }
+
   private Connection getConnection() throws SQLException {
     Connection con;
     if (this.dataSource != null) {
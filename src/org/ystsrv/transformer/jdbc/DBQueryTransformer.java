@@ -34,17 +34,15 @@
  */
 package org.ystsrv.transformer.jdbc;
 
+import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -52,6 +50,8 @@ import org.ystsrv.ConfigurationException;
 import org.ystsrv.TransformationException;
 import org.ystsrv.Transformer;
 import org.ystsrv.debug.Debug;
+import org.ystsrv.manager.Config;
+import org.ystsrv.transformer.FormatProgram;
 import org.ystsrv.transformer.Renderer;
 import org.ystsrv.util.TextUtils;
 
@@ -184,12 +184,28 @@ import org.ystsrv.util.TextUtils;
  */
 public class DBQueryTransformer extends Transformer {
   private static final String LOGGER_NAME = "ystsrv.transformer";
-  private List tokens;
+
+  /**
+   * Number of characters of the chunks in which the rows are written when
+   * they are streamed (see {@link #transformTo})
+   */
+  public static final int CHUNK_SIZE = 8192;
+
+  // Maximum number of result set shapes whose plans are kept
+  private static final int MAX_PLANS = 8;
+
+  // True if a subclass redefines transform, that transformTo must not skip
+  private final boolean redefinesTransform = redefines(getClass(), DBQueryTransformer.class, "transform",
+                                                       new Class[] {Object.class});
+
+  // Compiled format string
+  private FormatProgram program;
+  // Plans compiled for each shape of result set. Copy on write
+  private volatile RowPlan[] plans = new RowPlan[0];
   private String header;
   private String format;
   private String defaultDatePattern;
   private Locale locale;
-  private boolean lexed = false;
 
   /**
    * Creates a <code>DBQueryTransformer</code>.
@@ -234,7 +250,7 @@ public class DBQueryTransformer extends Transformer {
     this.format = format;
     this.defaultDatePattern = defaultDatePattern;
     this.locale = locale;
-    this.tokens = new ArrayList();
+    this.program = FormatProgram.compile(format, "DBQueryTransformer");
   }
 
   /**
@@ -259,7 +275,7 @@ public class DBQueryTransformer extends Transformer {
                                        "without format. Check the ystsrv configuration file." +
                                        " Param format required");
     this.defaultDatePattern = (String)params.get("datePattern");
-    this.tokens = new ArrayList();
+    this.program = FormatProgram.compile(format, "DBQueryTransformer");
 
     this.locale = null;
     String localeLang = (String)params.get("localeLang");
@@ -276,25 +292,70 @@ public class DBQueryTransformer extends Transformer {
    * {@inheritDoc}
    */
   public String transform(Object data) throws TransformationException {
+    StringBuffer sb = new StringBuffer();
+    try {
+      this.write(data, sb);
+    } catch (IOException ex) { // StringBuffer does not throw it
+      throw new TransformationException(ex);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Appends to <code>out</code> the transformation of the rows of the query.
+   * If <code>out</code> is not a <code>StringBuffer</code> (e.g. a streaming
+   * model section), the rows are written to it in chunks of about {@link
+   * #CHUNK_SIZE} characters as they are fetched, so the transformation of the
+   * whole query is never held in memory. If the query is marked as cached
+   * (see {@link DBQuery#setCached}), the transformation is taken from the
+   * {@link QueryResultCache} when possible.
+   *
+   * {@inheritDoc}
+   */
+  public void transformTo(Object data, Appendable out) throws TransformationException, IOException {
+    if (this.redefinesTransform) {
+      String s = this.transform(data);
+      if (s != null) out.append(s);
+    } else {
+      this.write(data, out);
+    }
+  }
+
+  private void write(Object data, Appendable out) throws TransformationException, IOException {
     if (data == null) {
       Debug.warning(LOGGER_NAME, "TransformerGroup.transform: skiping null data to transform");
-      return "// Null data skipped";
+      out.append("// Null data skipped");
+      return;
     }
 
-    DBQuery dbq = (DBQuery)data;
+    final DBQuery dbq = (DBQuery)data;
+    if (dbq.isCached() && QueryResultCache.getBudget() != null) {
+      out.append(QueryResultCache.getOrLoad(this, dbq, new QueryResultCache.Loader() {
+        public String load() throws TransformationException {
+          StringBuffer sb = new StringBuffer();
+          try {
+            transformRows(dbq, sb);
+          } catch (IOException ex) { // StringBuffer does not throw it
+            throw new TransformationException(ex);
+          }
+          return sb.toString();
+        }
+      }));
+    } else {
+      this.transformRows(dbq, out);
+    }
+  }
+
+  // Executes the query and appends the transformation of its rows to out
+  private void transformRows(DBQuery dbq, Appendable out) throws TransformationException, IOException {
+    Object data = dbq;
     ResultSet rs = null;
     try {
       rs = dbq.getResultSet();
       if (data != null && rs.next()) {
-        synchronized (this.tokens) {
-          if (!lexed) {
-            Debug.fine(LOGGER_NAME, "Lexe the format string for the first time");
-            this.lexeFormat(this.format, rs);
-          }
-        }
-        return this.format(rs);
-      } else
-        return (header != null ? header : "");
+        this.format(this.getPlan(rs), rs, out);
+      } else if (header != null)
+        out.append(header);
     } catch (SQLException ex) {
       throw new TransformationException("Exception transforming " + data, ex);
     } finally {
@@ -309,6 +370,10 @@ public class DBQueryTransformer extends Transformer {
                 stm.close();
                 con.close();
                 Debug.info(LOGGER_NAME, "DB connection for "+data+" closed");
+              } else if (dbq.isStatementCached() && stm instanceof PreparedStatement) {
+                rs.close();
+                dbq.releaseStatement((PreparedStatement)stm);
+                Debug.fine(LOGGER_NAME, "DB statement for "+data+" kept for reuse");
               } else if (dbq.getMustCloseStatement()) {
                 rs.close();
                 stm.close();
@@ -330,34 +395,67 @@ public class DBQueryTransformer extends Transformer {
     return DBQuery.class;
   }
 
-  private String format(ResultSet rs) throws SQLException, TransformationException {
-    StringBuffer sb = new StringBuffer( (header != null ? header : "") + "\n");
+  // Returns the plan for the shape of rs, compiling it the first time
+  private RowPlan getPlan(ResultSet rs) throws SQLException {
+    ResultSetMetaData rsMd = rs.getMetaData();
+    RowPlan[] plans = this.plans;
+    for (int i = 0; i < plans.length; i++) {
+      if (plans[i].matches(rsMd))
+        return plans[i];
+    }
+    if (Debug.hasFineLevel(LOGGER_NAME))
+      Debug.fine(LOGGER_NAME, "Binding the columns of the format string " + this.format + " to a new result set shape");
+    RowPlan plan = RowPlan.compile(this.program, rs, this.defaultDatePattern, this.locale);
+    synchronized (this) {
+      RowPlan[] old = this.plans;
+      int keep = Math.min(old.length, MAX_PLANS - 1);
+      RowPlan[] newPlans = new RowPlan[keep + 1];
+      newPlans[0] = plan;
+      System.arraycopy(old, 0, newPlans, 1, keep);
+      this.plans = newPlans;
+    }
+    return plan;
+  }
+
+  private void format(RowPlan plan, ResultSet rs, Appendable out) throws SQLException, TransformationException, IOException {
+    // Si no hay un buffer donde escribir directamente las filas se escriben por bloques
+    StringBuffer sb = Renderer.bufferOf(out);
+    boolean chunked = (sb == null);
+    if (chunked)
+      sb = new StringBuffer(CHUNK_SIZE + 256);
+    if (header != null) sb.append(header);
+    sb.append('\n');
     int i = 0;
     for (; ; ) {
-      sb.append(this.formatRow(i++, rs));
-      if (rs.next())sb.append("\n");
-      else break;
+      this.formatRow(plan, i++, rs, sb);
+      boolean more = rs.next();
+      if (more) sb.append('\n');
+      if (chunked && (!more || sb.length() >= CHUNK_SIZE)) {
+        out.append(sb);
+        sb.setLength(0);
+      }
+      if (!more) break;
     }
-    return sb.toString();
   }
 
-  private String formatRow(int order, ResultSet rs) throws TransformationException,
+  private void formatRow(RowPlan plan, int order, ResultSet rs, StringBuffer formatedValue) throws TransformationException,
       ConfigurationException {
-    StringBuffer formatedValue = new StringBuffer();
-
-    Iterator iter = this.tokens.iterator();
-    while (iter.hasNext()) {
-      Object token = iter.next();
-      if (token instanceof PropertyHolder) {
-        PropertyHolder p = (PropertyHolder)token;
-        if (p.name.equals("#i")) {
+    FormatProgram program = this.program;
+    int length = program.getLength();
+    for (int pc = 0; pc < length; pc++) {
+      switch (program.getOp(pc)) {
+        case FormatProgram.LITERAL:
+          formatedValue.append(program.getLiteral(pc));
+          break;
+        case FormatProgram.INDEX:
           formatedValue.append(order);
-        } else {
+          break;
+        default:
+          int slot = program.getSlot(pc);
           try {
-            int type = p.type;
-            int colNum = p.colNum;
+            int colNum = plan.colNums[slot];
 
-            switch (type) {
+            switch (plan.types[slot]) {
               case Types.BOOLEAN:
                 boolean b = rs.getBoolean(colNum);
                 if (!rs.wasNull())
@@ -369,12 +467,7 @@ public class DBQueryTransformer extends Transformer {
               case Types.TIME:
               case Types.TIMESTAMP:
                 Timestamp ts = rs.getTimestamp(colNum);
-                if (ts != null) {
-                  String df = (p.format != null ? p.format : this.defaultDatePattern);
-                  formatedValue.append(Renderer.renderDate(new Date(ts.getTime()), df, this.locale));
-                } else {
-                  formatedValue.append("null");
-                }
+                Renderer.renderDate(ts, plan.datePatterns[slot], formatedValue);
                 break;
               case Types.BIGINT:
               case Types.BIT:
@@ -400,172 +493,19 @@ public class DBQueryTransformer extends Transformer {
                 break;
               default:
                 String s = rs.getString(colNum);
-                if (!rs.wasNull())
-                  formatedValue.append("'" + TextUtils.escape(s) + "'");
-                else
+                if (!rs.wasNull()) {
+                  formatedValue.append('\'');
+                  TextUtils.escape(s, formatedValue, Config.HTML_SAFE_ESCAPING);
+                  formatedValue.append('\'');
+                } else
                   formatedValue.append("null");
             }
           } catch (SQLException ex) {
             throw new ConfigurationException(
-                "Impossible to transform the column " + p.name + ". Problems accesing to the DB.",
+                "Impossible to transform the column " + program.getSlotName(slot) + ". Problems accesing to the DB.",
                 ex);
           }
-        }
-      } else {
-        formatedValue.append(token);
       }
     }
-    return formatedValue.toString();
-  }
-
-  private static int getColNum(String propName) throws NumberFormatException {
-    try {
-      return Integer.parseInt(propName.substring(1));
-    } catch (NumberFormatException ex) {
-      throw new ConfigurationException(
-          "Property " + propName + " bad specified in format string");
-    }
-  }
-
-  private static int getType(ResultSetMetaData rsmd, int col) throws SQLException {
-    return rsmd.getColumnType(col);
-  }
-
-  private void lexeFormat(String format, ResultSet rs) throws SQLException {
-    // Example: name[{#i}] = new YSTTypeName('{prop1}', {prop2}, '{prop3}');
-    ResultSetMetaData rsMd = rs.getMetaData();
-    int i = 0;
-    StringBuffer token = new StringBuffer();
-    int len = format.length();
-    while (i < len) {
-      if (format.charAt(i) == '\\' && (i + 1) < len &&
-          (format.charAt(i + 1) == '{' || format.charAt(i + 1) == '}')) {
-        i++;
-      }
-      if (format.charAt(i) == '{') {
-        // Comienza propiedad. copia token a tokens
-        if (i == 0 || i > 0 && format.charAt(i - 1) != '\\') {
-          if (token.length() != 0)tokens.add(token.toString()); // Aado el token anterior
-          token = new StringBuffer();
-          StringBuffer prop = new StringBuffer();
-          StringBuffer form = null;
-          int init = i;
-          i++;
-
-          // Quita posibles espacios en blanco antes del nombre de la propiedad
-          while (i < len && format.charAt(i) == ' ')i++;
-
-          boolean propStarted = (format.charAt(i) != '%');
-
-          while (i < len && format.charAt(i) != '}') {
-            if (format.charAt(i) == '%') {
-              // Comienzo de especificacin de formato de propiedad
-              form = new StringBuffer();
-              if (!propStarted)
-                throw new ConfigurationException("Column cannot begin with % in position " + (i + 1));
-
-              i++;
-              while (i < len && format.charAt(i) != '%') {
-                if (format.charAt(i) == '\\' && (i + 1) < len && format.charAt(i + 1) == '%') {
-                  // % escapado
-                  i++;
-                }
-                // Cojo formato
-                form.append(format.charAt(i));
-                i++;
-              }
-              if (i == len) { // agotada cadena sin encontrar pareja %
-                throw new ConfigurationException(
-                    "Impossible to transform the column. Format specification not finished in position " +
-                    (init + 1));
-              }
-            } else if (format.charAt(i) == '{') {
-              throw new ConfigurationException(
-                  "Impossible to transform the column. Nested { in position " + (i + 1));
-            } else {
-              if (format.charAt(i) != ' ' && form != null  && form.length() > 0)
-                throw new ConfigurationException(
-                    "Column bad specified. No text after format specification " + form +
-                    " is allowed " + (init + 1));
-              prop.append(format.charAt(i));
-            }
-            i++;
-          }
-          if (i == len) { // agotada cadena sin encontrar pareja }
-            throw new ConfigurationException(
-                "Impossible to transform the column. Curly brace mismatch for { in position " +
-                (init + 1));
-          } else { // Se acab la propiedad
-            // Se acab la propiedad
-            String propName = prop.toString().trim();
-            if (propName.length() != 0) {
-              if (propName.equals("#i")) {
-                tokens.add(new PropertyHolder(propName, null));
-              } else {
-                int colNum;
-                if (propName.charAt(0) == '#') {
-                  colNum = getColNum(propName);
-                } else {
-                  try {
-                    colNum = rs.findColumn(propName);
-                  } catch (SQLException ex) {
-                    throw new ConfigurationException(
-                        "Impossible to transform the column " + propName +
-                        ". Column does not exists.",
-                        ex);
-                  }
-                }
-                int type = getType(rsMd, colNum);
-                // Oracle devuelve para todos sus tipos de numero NUMERIC
-                // Miramos si tiene o no decimales para tratarlo como entero
-                // SI no tiene escala ni precision (Numeric) es tb float
-                if (type == Types.NUMERIC && rsMd.getPrecision(colNum) != 0 &&
-                    rsMd.getScale(colNum) == 0) {
-                  type = Types.BIGINT;
-                }
-                tokens.add(new PropertyHolder(propName, (form != null ? form.toString():null), type, colNum));
-              }
-            }
-          }
-        } else { // era una { escapada con \
-          token.append(format.charAt(i));
-        }
-      } else if (format.charAt(i) == '}') { // Es una llave de cierre descolocada
-        if (i == 0 || i > 0 && format.charAt(i - 1) != '\\') {
-          throw new ConfigurationException(
-              "Impossible to transform the column. Curly brace mismatch for } in position " +
-              (i + 1));
-        } else { // Una llave de cierre escapada con  \
-          token.append(format.charAt(i));
-        }
-      } else { // texto normal
-        token.append(format.charAt(i));
-      }
-      i++;
-    }
-    if (token.length() != 0) {
-      tokens.add(token.toString());
-    }
-    this.lexed = true;
-  }
-
-
-  private class PropertyHolder {
-    String name;
-    String format;
-    int type;
-    int colNum;
-
-    PropertyHolder(String name, String format, int type, int colNum) {
-      this.name = name;
-      this.type = type;
-      this.colNum = colNum;
-        this.format = format;
-    }
-
-    PropertyHolder(String name, String format) {
-      this.name = name.trim();
-        this.format = format;
-    }
   }
 }
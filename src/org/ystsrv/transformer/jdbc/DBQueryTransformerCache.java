@@ -35,92 +35,35 @@
 
 package org.ystsrv.transformer.jdbc;
 
-import java.util.Hashtable;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.ystsrv.debug.Debug;
 
+// Transformers shared by the DBQueryHelpers with the same format. The
+// columns are bound to each shape of result set by the transformer itself
+// (see RowPlan), so the query is not part of the key
 class DBQueryTransformerCache {
   private static final String LOGGER_NAME = "ystsrv.transformer";
 
-  private static Hashtable cachedTransformers = new Hashtable();
+  private static ConcurrentHashMap cachedTransformers = new ConcurrentHashMap();
 
   static DBQueryTransformer getTransformer(String header, String format,
-                                           String defaultDatePattern, Locale locale,
-                                           String query) {
+                                           String defaultDatePattern, Locale locale) {
     Debug.prec(format);
-    Debug.prec(query);
-    query = query.toLowerCase();
-    String key = header + '|' + format + '|' + defaultDatePattern + '|' + locale + '|' +
-        extractToWhere(query);
+    String key = header + '|' + format + '|' + defaultDatePattern + '|' + locale;
     DBQueryTransformer t = (DBQueryTransformer)cachedTransformers.get(key);
     if (t == null) {
-      synchronized (cachedTransformers) {
-        // repito la comprobacin por si dos hilos comprobaron a la vez que no
-        // haba formater. El primero habr puesto en la cache ya el formatter,
-        // pero el segundo segir entrando en el if (t== null). Por eso
-        // compruebo de nuevo aqui. El segundo ver que ya hay un formatter y no
-        // har nada
-        t = (DBQueryTransformer)cachedTransformers.get(key);
-        if (t == null) {
-          Debug.info(LOGGER_NAME,
-                     "Creating DBQueryTransformer for query " + query + "; header " + header +
-                     ",format string " + format + ", default date pattern " + defaultDatePattern +
-                     " and locale " +
-                     locale);
-          t = new DBQueryTransformer(header, format, defaultDatePattern, locale);
-          cachedTransformers.put(key, t);
-        }
-      }
+      Debug.info(LOGGER_NAME,
+                 "Creating DBQueryTransformer for header " + header +
+                 ",format string " + format + ", default date pattern " + defaultDatePattern +
+                 " and locale " +
+                 locale);
+      t = new DBQueryTransformer(header, format, defaultDatePattern, locale);
+      DBQueryTransformer old = (DBQueryTransformer)cachedTransformers.putIfAbsent(key, t);
+      if (old != null)
+        t = old;
     }
     return t;
   }
-
-  private static String extractToWhere(String query) {
-    char[] sql = query.toCharArray();
-    // puedo comenzar derctamente ms alla de "select "
-    int i = 6;
-    while (i < sql.length) {
-      if (sql[i] == '"') {
-        // buscar el cierre (caso de algn alias)
-        i = findEnd(sql, i, '"');
-        // Si es -1  CHUNGO
-      } else if (sql[i] == '\'') {
-        // buscar el cierre (caso de algn alias)
-        i = findEnd(sql, i, '\'');
-      } else if (sql[i] == '(') {
-        // ojo con anidamientos
-        i = findEndNestable(sql, i, ')', '(');
-      } else if (sql[i] == 'w') { // comienzo de where
-        if (i + 1 < sql.length && sql[i + 1] == 'h' &&
-            i + 2 < sql.length && sql[i + 2] == 'e' &&
-            i + 3 < sql.length && sql[i + 3] == 'r' &&
-            i + 4 < sql.length && sql[i + 4] == 'e') {
-          break;
-        }
-      }
-      i++;
-    }
-    String result = new String(sql, 0, i).trim();
-    return result;
-  }
-
-  private static int findEnd(char[] txt, int init, char toFind) {
-    for (int i = init + 1; i < txt.length; i++) {
-      if (txt[i] == toFind)return i;
-    }
-    return -1;
-  }
-
-  private static int findEndNestable(char[] txt, int init, char toFind, char openChar) {
-    int balance = 0;
-    for (int i = init + 1; i < txt.length; i++) {
-      if (txt[i] == openChar)balance++;
-      if (txt[i] == toFind) {
-        if (balance == 0)return i;
-        else balance--;
-      }
-    }
-    return -1;
-  }
 }
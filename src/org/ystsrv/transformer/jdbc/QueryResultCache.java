@@ -0,0 +1,400 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.transformer.jdbc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ystsrv.TransformationException;
+import org.ystsrv.debug.Debug;
+import org.ystsrv.manager.Config;
+import org.ystsrv.util.InMemoryCachedReference;
+import org.ystsrv.util.MemoryBudget;
+
+/**
+ * Cache of the transformations of the results of {@link DBQuery} objects. It
+ * avoids going to the data base and transforming the rows again when the same
+ * query is repeatedly executed against slowly-changing tables (lookup tables,
+ * catalogs, ...). Only the queries marked with {@link DBQuery#setCached} (or
+ * executed by a {@link DBQueryHelper} marked with {@link
+ * DBQueryHelper#setCached}) are cached.
+ *
+ * <p>The cached text is reused when the same {@link DBQueryTransformer}
+ * transforms the same query (ignoring the differences in white space) with
+ * the same parameters over the same data base, until its time to live elapses or it is invalidated. Since
+ * the cache does not know when the data change, the application must
+ * invalidate the cached results when it modifies a table, using {@link
+ * #invalidateTable} with one of the tables given to <code>setCached</code>.
+ *
+ * <p>The cached results share a memory budget of {@link
+ * Config#QUERY_CACHE_MAX_BYTES} bytes; when it is exceeded the least recently
+ * used results are evicted. When several threads ask at the same time for a
+ * query that is not cached, only one of them executes it and the rest wait
+ * for its result.
+ *
+ * @author Francisco Jos Garca Izquierdo
+ * @version 1.0
+ */
+public final class QueryResultCache {
+
+  private static final String LOGGER_NAME = "ystsrv.transformer";
+
+  private static final MemoryBudget BUDGET = (Config.QUERY_CACHE_MAX_BYTES > 0) ?
+      new MemoryBudget(Config.QUERY_CACHE_MAX_BYTES) : null;
+
+  private static final Map entries = new ConcurrentHashMap();
+
+  // Queries being executed, to avoid executing them several times at the same time
+  private static final ConcurrentMap loading = new ConcurrentHashMap();
+
+  // Incremented by every invalidation. The results of the queries that were
+  // executing at that moment are not cached, since they could be stale
+  private static final AtomicLong generation = new AtomicLong();
+
+  private static final AtomicLong hits = new AtomicLong();
+  private static final AtomicLong misses = new AtomicLong();
+  private static final AtomicLong executions = new AtomicLong();
+
+  private QueryResultCache() {
+  }
+
+  /**
+   * Transforms the rows of a query.
+   */
+  interface Loader {
+    String load() throws TransformationException;
+  }
+
+  /**
+   * Returns the transformation of <code>query</code> by
+   * <code>transformer</code>, taking it from the cache if possible. Otherwise
+   * it is obtained with <code>loader</code> and cached.
+   *
+   * @param transformer DBQueryTransformer
+   * @param query DBQuery marked as cached
+   * @param loader Loader that executes and transforms the query
+   * @return String
+   * @throws TransformationException
+   */
+  static String getOrLoad(DBQueryTransformer transformer, DBQuery query, final Loader loader) throws
+      TransformationException {
+    final Key key = keyOf(transformer, query);
+    if (key == null)
+      return loader.load();
+
+    String fragment = get(key);
+    if (fragment != null)
+      return fragment;
+
+    final long ttl = query.getCacheTTL();
+    final String[] tables = query.getCacheTables();
+    FutureTask task = new FutureTask(new Callable() {
+      public Object call() throws Exception {
+        long gen = generation.get();
+        String fragment = loader.load();
+        executions.incrementAndGet();
+        if (generation.get() == gen)
+          put(key, fragment, ttl, tables);
+        return fragment;
+      }
+    });
+    FutureTask running = (FutureTask)loading.putIfAbsent(key, task);
+    if (running == null) {
+      // This thread executes the query
+      running = task;
+      try {
+        task.run();
+      } finally {
+        loading.remove(key, task);
+      }
+    }
+
+    try {
+      return (String)running.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new TransformationException("Interrupted while waiting for " + query, ex);
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof TransformationException)
+        throw (TransformationException)cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+      if (cause instanceof Error)
+        throw (Error)cause;
+      throw new TransformationException(cause);
+    }
+  }
+
+  // Returns the key of the transformation of query, or null if it must not be cached
+  private static Key keyOf(DBQueryTransformer transformer, DBQuery query) {
+    if (BUDGET == null || !query.isCached() || query.getQuery() == null)
+      return null;
+    Object source = query.getSource();
+    if (source == null)
+      return null;
+    Object[] params = query.getParameters();
+    return new Key(transformer, source, normalize(query.getQuery()),
+                   (params != null) ? Arrays.asList(params) : Collections.EMPTY_LIST);
+  }
+
+  private static String get(Key key) {
+    Entry entry = (Entry)entries.get(key);
+    if (entry != null) {
+      if (entry.expires > 0 && System.currentTimeMillis() > entry.expires) {
+        if (entries.remove(key, entry))
+          entry.ref.release();
+      } else {
+        String fragment = (String)entry.ref.get();
+        if (fragment != null) {
+          hits.incrementAndGet();
+          return fragment;
+        }
+        entries.remove(key, entry); // Evicted
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  private static void put(Key key, String fragment, long ttl, String[] tables) {
+    Entry entry = new Entry();
+    entry.expires = (ttl > 0) ? System.currentTimeMillis() + ttl : 0;
+    entry.tables = tables;
+    entry.ref = InMemoryCachedReference.newInstance(fragment, 2L * fragment.length() + 64, BUDGET);
+    Entry old = (Entry)entries.put(key, entry);
+    if (old != null)
+      old.ref.release();
+    if (Debug.hasFineLevel(LOGGER_NAME))
+      Debug.fine(LOGGER_NAME, "Cached result of " + fragment.length() + " chars for " + key);
+    if (entries.size() > 2 * BUDGET.getSize() + 64)
+      purge();
+  }
+
+  // Removes the entries whose results have been evicted
+  private static void purge() {
+    Iterator iter = entries.values().iterator();
+    while (iter.hasNext()) {
+      Entry entry = (Entry)iter.next();
+      if (entry.ref instanceof InMemoryCachedReference.BudgetedInMemoryCachedReference &&
+          ((InMemoryCachedReference.BudgetedInMemoryCachedReference)entry.ref).isEvicted())
+        iter.remove();
+    }
+  }
+
+  /**
+   * Discards the cached results of the queries that were marked as cached
+   * with <code>table</code> among their tables (the comparison ignores
+   * case). It must be called when the content of the table changes.
+   *
+   * @param table String
+   */
+  public static void invalidateTable(String table) {
+    generation.incrementAndGet();
+    Iterator iter = entries.values().iterator();
+    while (iter.hasNext()) {
+      Entry entry = (Entry)iter.next();
+      if (entry.tables != null) {
+        for (int i = 0; i < entry.tables.length; i++) {
+          if (entry.tables[i].equalsIgnoreCase(table)) {
+            iter.remove();
+            entry.ref.release();
+            break;
+          }
+        }
+      }
+    }
+    Debug.fine(LOGGER_NAME, "Invalidated the cached query results of table " + table);
+  }
+
+  /**
+   * Discards the cached results of the query <code>sql</code> (by any
+   * transformer, with any parameters and over any data base).
+   *
+   * @param sql String
+   */
+  public static void invalidate(String sql) {
+    generation.incrementAndGet();
+    String normalized = normalize(sql);
+    Iterator iter = entries.entrySet().iterator();
+    while (iter.hasNext()) {
+      Map.Entry e = (Map.Entry)iter.next();
+      if (((Key)e.getKey()).sql.equals(normalized)) {
+        iter.remove();
+        ((Entry)e.getValue()).ref.release();
+      }
+    }
+  }
+
+  /**
+   * Discards all the cached results.
+   */
+  public static void clear() {
+    generation.incrementAndGet();
+    Iterator iter = entries.values().iterator();
+    while (iter.hasNext()) {
+      Entry entry = (Entry)iter.next();
+      iter.remove();
+      entry.ref.release();
+    }
+  }
+
+  /**
+   * Returns the memory budget of the cache, or null if the cache is disabled
+   * (see {@link Config#QUERY_CACHE_MAX_BYTES}).
+   *
+   * @return MemoryBudget
+   */
+  public static MemoryBudget getBudget() {
+    return BUDGET;
+  }
+
+  /**
+   * Returns the number of query results served from the cache.
+   *
+   * @return long
+   */
+  public static long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Returns the number of cached queries whose results were not in the cache.
+   *
+   * @return long
+   */
+  public static long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Returns the number of cached queries actually executed. It is lower than
+   * the number of misses when concurrent requests waited for the same
+   * execution.
+   *
+   * @return long
+   */
+  public static long getExecutions() {
+    return executions.get();
+  }
+
+  /**
+   * Returns the ratio of hits to lookups, or 0 if there have been no lookups.
+   *
+   * @return double
+   */
+  public static double getHitRate() {
+    long h = hits.get();
+    long total = h + misses.get();
+    return (total == 0) ? 0 : (double)h / total;
+  }
+
+  public static String getStatistics() {
+    return "QueryResultCache [" + entries.size() + " results; hits " + getHits() + ", misses " +
+        getMisses() + ", executions " + getExecutions() + "; " + BUDGET + "]";
+  }
+
+  // Collapses the white space out of the literals of the query
+  static String normalize(String sql) {
+    StringBuffer sb = new StringBuffer(sql.length());
+    char quote = 0;
+    boolean space = false;
+    for (int i = 0; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (quote != 0) {
+        sb.append(c);
+        if (c == quote)
+          quote = 0;
+      } else if (Character.isWhitespace(c)) {
+        space = true;
+      } else {
+        if (space && sb.length() > 0)
+          sb.append(' ');
+        space = false;
+        sb.append(c);
+        if (c == '\'' || c == '"')
+          quote = c;
+      }
+    }
+    return sb.toString();
+  }
+
+  // Key of a cached result: the transformer, the data base, the query and its parameters
+  private static final class Key {
+    final DBQueryTransformer transformer;
+    final Object source;
+    final String sql;
+    final List params;
+
+    Key(DBQueryTransformer transformer, Object source, String sql, List params) {
+      this.transformer = transformer;
+      this.source = source;
+      this.sql = sql;
+      this.params = params;
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof Key))
+        return false;
+      Key k = (Key)o;
+      return this.transformer == k.transformer && this.source.equals(k.source) && this.sql.equals(k.sql) &&
+          this.params.equals(k.params);
+    }
+
+    public int hashCode() {
+      return ((System.identityHashCode(this.transformer) * 31 + this.source.hashCode()) * 31 +
+          this.sql.hashCode()) * 31 + this.params.hashCode();
+    }
+
+    public String toString() {
+      return this.sql + (this.params.isEmpty() ? "" : " " + this.params) + " (" + this.transformer + ")";
+    }
+  }
+
+  private static final class Entry {
+    InMemoryCachedReference ref;
+    String[] tables;
+    long expires;
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.transformer.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Locale;
+
+import org.ystsrv.ConfigurationException;
+import org.ystsrv.transformer.DatePattern;
+import org.ystsrv.transformer.FormatProgram;
+
+/**
+ * Plan to transform the rows of the result sets of a certain shape with the
+ * format string of a {@link DBQueryTransformer}. It holds, for each slot of
+ * the compiled format string, the number of its column, its SQL type and its
+ * date pattern, already resolved against the metadata of the result set.
+ *
+ * <p>The plan also keeps the fingerprint of the metadata it was compiled for
+ * (label, type, precision and scale of each column), so a transformer can
+ * check if a result set has the same shape without compiling a new plan.
+ * Objects of this class are immutable.
+ *
+ * @author Francisco Jos Garca Izquierdo
+ * @version 1.0
+ */
+final class RowPlan {
+
+  // Column, type and date pattern of each slot of the format string
+  final int[] colNums;
+  final int[] types;
+  final DatePattern[] datePatterns;
+
+  // Fingerprint of the result set metadata
+  private final String[] labels;
+  private final int[] columnTypes;
+  private final int[] precisions;
+  private final int[] scales;
+
+  private RowPlan(int[] colNums, int[] types, DatePattern[] datePatterns, String[] labels,
+                  int[] columnTypes, int[] precisions, int[] scales) {
+    this.colNums = colNums;
+    this.types = types;
+    this.datePatterns = datePatterns;
+    this.labels = labels;
+    this.columnTypes = columnTypes;
+    this.precisions = precisions;
+    this.scales = scales;
+  }
+
+  /**
+   * Compiles the plan of <code>program</code> for the result set
+   * <code>rs</code>.
+   *
+   * @param program FormatProgram
+   * @param rs ResultSet
+   * @param defaultDatePattern String it can be null
+   * @param locale Locale it can be null
+   * @return RowPlan
+   * @throws SQLException
+   * @throws ConfigurationException if the format string refers to a
+   *   column that does not exist
+   */
+  static RowPlan compile(FormatProgram program, ResultSet rs, String defaultDatePattern,
+                         Locale locale) throws SQLException {
+    ResultSetMetaData rsMd = rs.getMetaData();
+    int columns = rsMd.getColumnCount();
+    String[] labels = new String[columns];
+    int[] columnTypes = new int[columns];
+    int[] precisions = new int[columns];
+    int[] scales = new int[columns];
+    for (int col = 1; col <= columns; col++) {
+      labels[col - 1] = rsMd.getColumnLabel(col);
+      columnTypes[col - 1] = rsMd.getColumnType(col);
+      if (columnTypes[col - 1] == Types.NUMERIC) {
+        precisions[col - 1] = rsMd.getPrecision(col);
+        scales[col - 1] = rsMd.getScale(col);
+      }
+    }
+
+    int slots = program.getSlotCount();
+    int[] colNums = new int[slots];
+    int[] types = new int[slots];
+    DatePattern[] datePatterns = new DatePattern[slots];
+    for (int slot = 0; slot < slots; slot++) {
+      String propName = program.getSlotName(slot);
+      int colNum;
+      if (propName.charAt(0) == '#') {
+        colNum = getColNum(propName);
+      } else {
+        try {
+          colNum = rs.findColumn(propName);
+        } catch (SQLException ex) {
+          throw new ConfigurationException(
+              "Impossible to transform the column " + propName +
+              ". Column does not exists.",
+              ex);
+        }
+      }
+      int type = rsMd.getColumnType(colNum);
+      // Oracle devuelve para todos sus tipos de numero NUMERIC
+      // Miramos si tiene o no decimales para tratarlo como entero
+      // SI no tiene escala ni precision (Numeric) es tb float
+      if (type == Types.NUMERIC && rsMd.getPrecision(colNum) != 0 &&
+          rsMd.getScale(colNum) == 0) {
+        type = Types.BIGINT;
+      }
+      colNums[slot] = colNum;
+      types[slot] = type;
+      String format = program.getSlotFormat(slot);
+      String datePattern = (format != null ? format : defaultDatePattern);
+      if (datePattern != null && !datePattern.equals(""))
+        datePatterns[slot] = DatePattern.compile(datePattern, locale);
+    }
+    return new RowPlan(colNums, types, datePatterns, labels, columnTypes, precisions, scales);
+  }
+
+  /**
+   * Returns true if the result set described by <code>rsMd</code> has the
+   * shape this plan was compiled for.
+   *
+   * @param rsMd ResultSetMetaData
+   * @return boolean
+   * @throws SQLException
+   */
+  boolean matches(ResultSetMetaData rsMd) throws SQLException {
+    int columns = rsMd.getColumnCount();
+    if (columns != this.labels.length)
+      return false;
+    for (int col = 1; col <= columns; col++) {
+      int type = rsMd.getColumnType(col);
+      if (type != this.columnTypes[col - 1])
+        return false;
+      String label = rsMd.getColumnLabel(col);
+      if (label == null ? this.labels[col - 1] != null : !label.equals(this.labels[col - 1]))
+        return false;
+      if (type == Types.NUMERIC &&
+          (rsMd.getPrecision(col) != this.precisions[col - 1] || rsMd.getScale(col) != this.scales[col - 1]))
+        return false;
+    }
+    return true;
+  }
+
+  private static int getColNum(String propName) throws NumberFormatException {
+    try {
+      return Integer.parseInt(propName.substring(1));
+    } catch (NumberFormatException ex) {
+      throw new ConfigurationException(
+          "Property " + propName + " bad specified in format string");
+    }
+  }
+}
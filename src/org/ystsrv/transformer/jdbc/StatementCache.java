@@ -0,0 +1,202 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.transformer.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ystsrv.debug.Debug;
+import org.ystsrv.manager.Config;
+
+/**
+ * Cache of the prepared statements of the connections supplied to the {@link
+ * DBQuery} objects. Each connection keeps its last {@link
+ * Config#JDBC_STATEMENT_CACHE_SIZE} used statements (LRU), so that executing
+ * again the same query through the same connection does not prepare it again.
+ * A statement is taken out of the cache while it is being used, so it is never
+ * shared by two queries at the same time. The cache of a connection is
+ * discarded, and its statements closed, when the connection is found closed.
+ *
+ * <p>Connections are identified by the <code>Connection</code> object, so
+ * statements are only reused when the caller executes several queries through
+ * the same object. Pooled data sources return a new proxy of the physical
+ * connection on every checkout, so this cache does not help with them (their
+ * caches are discarded once the proxies are closed); the reuse of statements
+ * across checkouts is left to the statement cache of the pool or the driver.
+ *
+ * @author Francisco Jos Garca Izquierdo
+ * @version 1.0
+ */
+final class StatementCache {
+
+  private static final String LOGGER_NAME = "ystsrv.transformer";
+
+  // Connection -> StatementCache
+  private static final Map caches = new IdentityHashMap();
+  private static int purgeSize = 64;
+
+  private static final AtomicLong prepared = new AtomicLong();
+  private static final AtomicLong reused = new AtomicLong();
+
+  // sql -> PreparedStatement, in access order
+  private final LinkedHashMap statements = new LinkedHashMap(16, 0.75f, true);
+
+  private StatementCache() {
+  }
+
+  /**
+   * Returns a prepared statement for <code>sql</code> on <code>con</code>,
+   * reusing a cached one if possible. It must be given back with {@link
+   * #release} once its result set is read.
+   *
+   * @param con Connection
+   * @param sql String
+   * @return PreparedStatement
+   * @throws SQLException
+   */
+  static PreparedStatement prepare(Connection con, String sql) throws SQLException {
+    StatementCache cache;
+    synchronized (caches) {
+      cache = (StatementCache)caches.get(con);
+      if (cache == null) {
+        if (caches.size() >= purgeSize)
+          purge();
+        cache = new StatementCache();
+        caches.put(con, cache);
+      }
+    }
+    PreparedStatement ps;
+    synchronized (cache) {
+      ps = (PreparedStatement)cache.statements.remove(sql);
+    }
+    if (ps != null) {
+      if (!ps.isClosed()) {
+        reused.incrementAndGet();
+        ps.clearParameters();
+        return ps;
+      }
+    }
+    prepared.incrementAndGet();
+    return con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+  }
+
+  /**
+   * Gives back to the cache of <code>con</code> the statement obtained with
+   * {@link #prepare}. If the cache is full, the least recently used statement
+   * is closed.
+   *
+   * @param con Connection
+   * @param sql String
+   * @param ps PreparedStatement
+   * @throws SQLException
+   */
+  static void release(Connection con, String sql, PreparedStatement ps) throws SQLException {
+    StatementCache cache;
+    synchronized (caches) {
+      cache = (StatementCache)caches.get(con);
+    }
+    PreparedStatement evicted = ps;
+    if (cache != null && !ps.isClosed()) {
+      synchronized (cache) {
+        if (!cache.statements.containsKey(sql)) {
+          cache.statements.put(sql, ps);
+          evicted = null;
+          if (cache.statements.size() > Config.JDBC_STATEMENT_CACHE_SIZE) {
+            Iterator iter = cache.statements.values().iterator();
+            evicted = (PreparedStatement)iter.next();
+            iter.remove();
+          }
+        }
+      }
+    }
+    if (evicted != null)
+      evicted.close();
+  }
+
+  // Discards the caches of the closed connections, closing their statements
+  private static void purge() {
+    Iterator iter = caches.entrySet().iterator();
+    while (iter.hasNext()) {
+      Map.Entry e = (Map.Entry)iter.next();
+      boolean closed;
+      try {
+        closed = ((Connection)e.getKey()).isClosed();
+      } catch (SQLException ex) {
+        closed = true;
+      }
+      if (closed) {
+        StatementCache cache = (StatementCache)e.getValue();
+        iter.remove();
+        cache.closeAll();
+      }
+    }
+    purgeSize = Math.max(64, 2 * caches.size());
+    if (Debug.hasFineLevel(LOGGER_NAME))
+      Debug.fine(LOGGER_NAME, getStatistics());
+  }
+
+  // Closes the statements of this cache. Some pools do not close them when
+  // the connection handed out to the application is closed
+  private void closeAll() {
+    PreparedStatement[] all;
+    synchronized (this) {
+      all = (PreparedStatement[])this.statements.values().toArray(new PreparedStatement[this.statements.size()]);
+      this.statements.clear();
+    }
+    for (int i = 0; i < all.length; i++) {
+      try {
+        all[i].close();
+      } catch (SQLException ex) {
+        Debug.fine(LOGGER_NAME, "Cannot close a cached DB statement [" + ex + "]");
+      }
+    }
+  }
+
+  public static String getStatistics() {
+    int size;
+    synchronized (caches) {
+      size = caches.size();
+    }
+    return "StatementCache [" + size + " connections; prepared " + prepared.get() + ", reused " +
+        reused.get() + "]";
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Encodes text directly into an <code>OutputStream</code> in small chunks,
+ * avoiding the full copies that <code>String.getBytes</code> produces. The
+ * char and byte buffers, and the last used <code>CharsetEncoder</code>, are
+ * pooled per thread and given back when the encoder is closed. Unmappable
+ * characters are replaced, as <code>String.getBytes</code> does.
+ *
+ * <p>As an <code>Appendable</code>, an encoder can be used as the sink of the
+ * escaping and rendering methods, that are then encoded with no intermediate
+ * strings.
+ *
+ * <p>A <code>ChunkedEncoder</code> is not thread safe.
+ *
+ * @author Francisco Jos Garca Izquierdo
+ * @version 1.0
+ */
+public class ChunkedEncoder implements Appendable {
+
+  private static final int CHAR_CHUNK = 2048;
+  private static final int BYTE_CHUNK = 8192;
+
+  // Buffers of the thread. Null while they are in use by some encoder
+  private static final ThreadLocal pool = new ThreadLocal();
+
+  private static class Buffers {
+    CharBuffer chars = CharBuffer.allocate(CHAR_CHUNK);
+    ByteBuffer bytes = ByteBuffer.allocate(BYTE_CHUNK);
+    CharsetEncoder encoder;
+  }
+
+  private OutputStream os;
+  private Buffers buffers;
+  private CharsetEncoder encoder;
+
+  /**
+   * Creates an encoder that writes in <code>os</code> the text encoded
+   * with <code>charset</code>.
+   *
+   * @param os OutputStream
+   * @param charset Charset
+   */
+  public ChunkedEncoder(OutputStream os, Charset charset) {
+    if (os == null)
+      throw new IllegalArgumentException("Null OutputStream are not allowed");
+    this.os = os;
+    this.buffers = (Buffers)pool.get();
+    if (this.buffers == null)
+      this.buffers = new Buffers();
+    else
+      pool.set(null);
+    if (this.buffers.encoder == null || !this.buffers.encoder.charset().equals(charset)) {
+      this.buffers.encoder = charset.newEncoder()
+                             .onMalformedInput(CodingErrorAction.REPLACE)
+                             .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+    this.encoder = this.buffers.encoder;
+    this.encoder.reset();
+    this.buffers.chars.clear();
+    this.buffers.bytes.clear();
+  }
+
+  /**
+   * Encodes and writes <code>text</code>.
+   *
+   * @param text CharSequence. If it is null nothing is written
+   * @throws IOException Any error writing in the stream
+   */
+  public void write(CharSequence text) throws IOException {
+    if (text != null)
+      write(text, 0, text.length());
+  }
+
+  /**
+   * Encodes and writes the characters of <code>text</code> from
+   * <code>start</code> (inclusive) to <code>end</code> (exclusive).
+   *
+   * @param text CharSequence
+   * @param start int
+   * @param end int
+   * @throws IOException Any error writing in the stream
+   */
+  public void write(CharSequence text, int start, int end) throws IOException {
+    checkOpen();
+    CharBuffer cb = this.buffers.chars;
+    while (start < end) {
+      int n = Math.min(cb.remaining(), end - start);
+      int pos = cb.arrayOffset() + cb.position();
+      if (text instanceof String)
+        ((String)text).getChars(start, start + n, cb.array(), pos);
+      else if (text instanceof StringBuffer)
+        ((StringBuffer)text).getChars(start, start + n, cb.array(), pos);
+      else if (text instanceof StringBuilder)
+        ((StringBuilder)text).getChars(start, start + n, cb.array(), pos);
+      else
+        for (int i = 0; i < n; i++)
+          cb.array()[pos + i] = text.charAt(start + i);
+      cb.position(cb.position() + n);
+      start += n;
+      if (!cb.hasRemaining())
+        encodeChunk(false);
+    }
+  }
+
+  /**
+   * Encodes and writes the character <code>c</code>.
+   *
+   * @param c char
+   * @throws IOException Any error writing in the stream
+   */
+  public void write(char c) throws IOException {
+    checkOpen();
+    CharBuffer cb = this.buffers.chars;
+    cb.put(c);
+    if (!cb.hasRemaining())
+      encodeChunk(false);
+  }
+
+  public Appendable append(CharSequence csq) throws IOException {
+    write(csq != null ? csq : "null");
+    return this;
+  }
+
+  public Appendable append(CharSequence csq, int start, int end) throws IOException {
+    write(csq != null ? csq : "null", start, end);
+    return this;
+  }
+
+  public Appendable append(char c) throws IOException {
+    write(c);
+    return this;
+  }
+
+  /**
+   * Encodes the pending characters and writes all the pending bytes in the
+   * stream. The stream itself is not flushed.
+   *
+   * @throws IOException Any error writing in the stream
+   */
+  public void flush() throws IOException {
+    checkOpen();
+    encodeChunk(true);
+    ByteBuffer bb = this.buffers.bytes;
+    while (this.encoder.flush(bb).isOverflow())
+      drain();
+    drain();
+    this.encoder.reset();
+  }
+
+  /**
+   * Flushes the encoder and gives the buffers back to the thread pool. The
+   * stream is not closed. The encoder can not be used any more.
+   *
+   * @throws IOException Any error writing in the stream
+   */
+  public void close() throws IOException {
+    if (this.buffers == null)
+      return;
+    try {
+      flush();
+    } finally {
+      pool.set(this.buffers);
+      this.buffers = null;
+    }
+  }
+
+  private void checkOpen() {
+    if (this.buffers == null)
+      throw new IllegalStateException("The encoder is already closed");
+  }
+
+  // Encodes the chars in the char buffer, keeping (if endOfInput is false)
+  // the chars that can not still be encoded (i.e. half of a surrogate pair)
+  private void encodeChunk(boolean endOfInput) throws IOException {
+    CharBuffer cb = this.buffers.chars;
+    cb.flip();
+    while (true) {
+      CoderResult cr = this.encoder.encode(cb, this.buffers.bytes, endOfInput);
+      if (cr.isOverflow())
+        drain();
+      else if (cr.isUnderflow())
+        break;
+      else
+        cr.throwException(); // Never with REPLACE actions
+    }
+    cb.compact();
+  }
+
+  private void drain() throws IOException {
+    ByteBuffer bb = this.buffers.bytes;
+    if (bb.position() > 0) {
+      this.os.write(bb.array(), bb.arrayOffset(), bb.position());
+      bb.clear();
+    }
+  }
+}
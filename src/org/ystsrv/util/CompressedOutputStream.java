@@ -0,0 +1,460 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.StringTokenizer;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+/**
+ * <code>OutputStream</code> that writes its data compressed with the gzip or
+ * deflate (zlib) HTTP content codings. Besides the data written as usual,
+ * it accepts {@link Segment}s: pieces of data deflated in advance, that are
+ * spliced in the compressed stream without compressing them again. This way
+ * the static parts of a template are compressed only once, and only the
+ * model section must be compressed on each request.
+ *
+ * <p>Segments are made of non final deflate blocks ended by a sync flush, so
+ * they are byte aligned and can be followed by any other block. The deflater
+ * forgets its history after each segment, so no block refers to data
+ * outside of it. The checksum of the trailer is obtained combining the
+ * checksums of the pieces.
+ *
+ * <p>The stream must be finished (see {@link #finish}) to write the gzip or
+ * zlib trailer. Nothing is written in the underlying stream until the first
+ * data, segment or the trailer are written (see {@link #starting}). A <code>CompressedOutputStream</code> is not thread safe.
+ *
+ * @author Francisco Jos Garca Izquierdo
+ * @version 1.0
+ */
+public class CompressedOutputStream extends OutputStream {
+
+  /** gzip content coding */
+  public static final String GZIP = "gzip";
+
+  /** deflate content coding (zlib format) */
+  public static final String DEFLATE = "deflate";
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private static final byte[] GZIP_HEADER = {
+      (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+  private static final byte[] ZLIB_HEADER = {(byte) 0x78, (byte) 0x9c};
+
+  // Deflater of the thread. Null while it is in use by some stream
+  private static final ThreadLocal pool = new ThreadLocal();
+
+  /**
+   * Piece of data deflated in advance. It holds the raw deflate blocks (ended
+   * by a sync flush) and both checksums of the uncompressed data, so it can
+   * be spliced in gzip and deflate streams.
+   */
+  public static class Segment {
+    final byte[] data;
+    final long crc;
+    final long adler;
+    final long length;
+
+    private Segment(byte[] data, long crc, long adler, long length) {
+      this.data = data;
+      this.crc = crc;
+      this.adler = adler;
+      this.length = length;
+    }
+
+    /**
+     * Deflates <code>b</code> with the best compression level.
+     *
+     * @param b byte[] data to compress
+     * @return Segment
+     */
+    public static Segment compress(byte[] b) {
+      CRC32 crc = new CRC32();
+      crc.update(b, 0, b.length);
+      Adler32 adler = new Adler32();
+      adler.update(b, 0, b.length);
+
+      Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+      try {
+        deflater.setInput(b);
+        java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream(b.length / 4 + 16);
+        byte[] buf = new byte[BUFFER_SIZE];
+        int n;
+        do {
+          n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+          out.write(buf, 0, n);
+        } while (n == buf.length || !deflater.needsInput());
+        return new Segment(out.toByteArray(), crc.getValue(), adler.getValue(), b.length);
+      } finally {
+        deflater.end();
+      }
+    }
+
+    /**
+     * Returns the size of the compressed data
+     *
+     * @return int
+     */
+    public int getCompressedSize() {
+      return data.length;
+    }
+  }
+
+  private OutputStream out;
+  private boolean gzip;
+  private Deflater deflater;
+  private byte[] buf = new byte[BUFFER_SIZE];
+
+  // Checksum and length of the data written since the last segment
+  private Checksum check;
+  private long checkLength;
+  // Checksum and length of all the data before the last segment
+  private long combined;
+  private long combinedLength;
+
+  private boolean started;
+  private boolean pending; // Data given to the deflater and not flushed
+  private boolean finished;
+
+  /**
+   * Creates a stream that writes in <code>out</code> the data compressed with
+   * the given content coding.
+   *
+   * @param out OutputStream
+   * @param coding {@link #GZIP} or {@link #DEFLATE}
+   * @throws IllegalArgumentException if the content coding is not supported
+   */
+  public CompressedOutputStream(OutputStream out, String coding) {
+    if (out == null)
+      throw new IllegalArgumentException("Null OutputStream are not allowed");
+    if (GZIP.equals(coding)) {
+      this.gzip = true;
+      this.check = new CRC32();
+      this.combined = 0;
+    } else if (DEFLATE.equals(coding)) {
+      this.gzip = false;
+      this.check = new Adler32();
+      this.combined = 1;
+    } else {
+      throw new IllegalArgumentException("Unsupported content coding " + coding);
+    }
+    this.out = out;
+  }
+
+  /**
+   * Returns the content coding, among those supported by this class, that is
+   * preferred in the given <code>Accept-Encoding</code> header. gzip is
+   * chosen over deflate.
+   *
+   * @param acceptEncoding value of the <code>Accept-Encoding</code> header
+   * @return {@link #GZIP}, {@link #DEFLATE} or null if none of them is
+   *   acceptable
+   */
+  public static String selectCoding(String acceptEncoding) {
+    if (acceptEncoding == null)
+      return null;
+    boolean deflate = false;
+    StringTokenizer st = new StringTokenizer(acceptEncoding, ",");
+    while (st.hasMoreTokens()) {
+      String token = st.nextToken().trim().toLowerCase();
+      String coding = token;
+      float q = 1;
+      int sc = token.indexOf(';');
+      if (sc >= 0) {
+        coding = token.substring(0, sc).trim();
+        int qp = token.indexOf("q=", sc);
+        if (qp >= 0) {
+          try {
+            q = Float.parseFloat(token.substring(qp + 2).trim());
+          } catch (NumberFormatException ex) {
+            q = 0;
+          }
+        }
+      }
+      if (q <= 0)
+        continue;
+      if (coding.equals(GZIP) || coding.equals("x-gzip"))
+        return GZIP;
+      if (coding.equals(DEFLATE))
+        deflate = true;
+    }
+    return deflate ? DEFLATE : null;
+  }
+
+  /**
+   * Returns the content coding of this stream
+   *
+   * @return {@link #GZIP} or {@link #DEFLATE}
+   */
+  public String getCoding() {
+    return gzip ? GZIP : DEFLATE;
+  }
+
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (len == 0)
+      return;
+    ensureOpen();
+    start();
+    check.update(b, off, len);
+    checkLength += len;
+    Deflater d = deflater();
+    d.setInput(b, off, len);
+    while (!d.needsInput()) {
+      int n = d.deflate(buf, 0, buf.length, Deflater.NO_FLUSH);
+      if (n > 0)
+        out.write(buf, 0, n);
+    }
+    pending = true;
+  }
+
+  /**
+   * Writes a segment deflated in advance.
+   *
+   * @param segment Segment
+   * @throws IOException Any error writing the segment
+   */
+  public void write(Segment segment) throws IOException {
+    ensureOpen();
+    start();
+    syncFlush();
+    if (deflater != null)
+      deflater.reset(); // The segment is unknown to the deflater history
+    foldCheck();
+    combined = combine(combined, gzip ? segment.crc : segment.adler, segment.length);
+    combinedLength += segment.length;
+    out.write(segment.data);
+  }
+
+  /**
+   * Flushes the data compressed so far (with a deflate sync flush) and the
+   * underlying stream.
+   *
+   * @throws IOException
+   */
+  public void flush() throws IOException {
+    if (!finished)
+      syncFlush();
+    out.flush();
+  }
+
+  /**
+   * Writes the last deflate block and the trailer, without closing the
+   * underlying stream.
+   *
+   * @throws IOException
+   */
+  public void finish() throws IOException {
+    if (finished)
+      return;
+    start();
+    try {
+      Deflater d = deflater();
+      d.finish();
+      while (!d.finished()) {
+        int n = d.deflate(buf);
+        out.write(buf, 0, n);
+      }
+      foldCheck();
+      if (gzip) {
+        writeIntLE(combined);
+        writeIntLE(combinedLength);
+      } else {
+        out.write((int) (combined >>> 24) & 0xff);
+        out.write((int) (combined >>> 16) & 0xff);
+        out.write((int) (combined >>> 8) & 0xff);
+        out.write((int) combined & 0xff);
+      }
+    } finally {
+      finished = true;
+      releaseDeflater();
+    }
+  }
+
+  public void close() throws IOException {
+    try {
+      finish();
+    } finally {
+      out.close();
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (finished)
+      throw new IOException("Compressed stream already finished");
+  }
+
+  private void start() throws IOException {
+    if (!started) {
+      started = true;
+      starting();
+      out.write(gzip ? GZIP_HEADER : ZLIB_HEADER);
+    }
+  }
+
+  /**
+   * Called once, just before the first compressed byte is written in the
+   * underlying stream. It does nothing by default. It may be redefined to
+   * announce the content coding only when there is compressed data (e.g. to
+   * set the <code>Content-Encoding</code> header of a response that is not
+   * committed yet).
+   *
+   * @throws IOException
+   */
+  protected void starting() throws IOException {
+  }
+
+  private void syncFlush() throws IOException {
+    if (!pending)
+      return;
+    int n;
+    do {
+      n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+      out.write(buf, 0, n);
+    } while (n == buf.length);
+    pending = false;
+  }
+
+  private void foldCheck() {
+    if (checkLength > 0) {
+      combined = combine(combined, check.getValue(), checkLength);
+      combinedLength += checkLength;
+      check.reset();
+      checkLength = 0;
+    }
+  }
+
+  private long combine(long check1, long check2, long length2) {
+    return gzip ? crc32Combine(check1, check2, length2) : adler32Combine(check1, check2, length2);
+  }
+
+  private void writeIntLE(long v) throws IOException {
+    out.write((int) v & 0xff);
+    out.write((int) (v >>> 8) & 0xff);
+    out.write((int) (v >>> 16) & 0xff);
+    out.write((int) (v >>> 24) & 0xff);
+  }
+
+  private Deflater deflater() {
+    if (deflater == null) {
+      deflater = (Deflater) pool.get();
+      if (deflater != null)
+        pool.set(null);
+      else
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+    return deflater;
+  }
+
+  private void releaseDeflater() {
+    if (deflater != null) {
+      deflater.reset();
+      if (pool.get() == null)
+        pool.set(deflater);
+      else
+        deflater.end();
+      deflater = null;
+    }
+  }
+
+  // Combination of checksums, as zlib crc32_combine and adler32_combine do
+
+  private static final int ADLER_BASE = 65521;
+
+  private static long adler32Combine(long adler1, long adler2, long len2) {
+    long rem = len2 % ADLER_BASE;
+    long sum1 = adler1 & 0xffff;
+    long sum2 = (rem * sum1) % ADLER_BASE;
+    sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+    sum2 += ((adler1 >>> 16) & 0xffff) + ((adler2 >>> 16) & 0xffff) + ADLER_BASE - rem;
+    if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+    if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+    if (sum2 >= (ADLER_BASE << 1)) sum2 -= (ADLER_BASE << 1);
+    if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+    return sum1 | (sum2 << 16);
+  }
+
+  private static long crc32Combine(long crc1, long crc2, long len2) {
+    if (len2 <= 0)
+      return crc1;
+    long[] even = new long[32];
+    long[] odd = new long[32];
+
+    odd[0] = 0xedb88320L; // CRC-32 polynomial
+    long row = 1;
+    for (int n = 1; n < 32; n++) {
+      odd[n] = row;
+      row <<= 1;
+    }
+    gf2MatrixSquare(even, odd); // 2 zero bits
+    gf2MatrixSquare(odd, even); // 4 zero bits
+
+    do {
+      gf2MatrixSquare(even, odd);
+      if ((len2 & 1) != 0)
+        crc1 = gf2MatrixTimes(even, crc1);
+      len2 >>= 1;
+      if (len2 == 0)
+        break;
+      gf2MatrixSquare(odd, even);
+      if ((len2 & 1) != 0)
+        crc1 = gf2MatrixTimes(odd, crc1);
+      len2 >>= 1;
+    } while (len2 != 0);
+    return crc1 ^ crc2;
+  }
+
+  private static long gf2MatrixTimes(long[] mat, long vec) {
+    long sum = 0;
+    for (int i = 0; vec != 0; i++, vec >>>= 1) {
+      if ((vec & 1) != 0)
+        sum ^= mat[i];
+    }
+    return sum;
+  }
+
+  private static void gf2MatrixSquare(long[] square, long[] mat) {
+    for (int n = 0; n < 32; n++)
+      square[n] = gf2MatrixTimes(mat, mat[n]);
+  }
+}
@@ -7,6 +7,21 @@ public abstract class InMemoryCachedReference {
 
   public abstract Object get();
 
+  /**
+   * Returns the refered object, like {@link #get}, but the access is not
+   * counted as a use of the reference (nor as a hit or a miss of its budget).
+   */
+  public Object peek() {
+    return get();
+  }
+
+  /**
+   * Called when the reference is replaced by a new one. The refered object may
+   * be freed.
+   */
+  public void release() {
+  }
+
   public static InMemoryCachedReference newInstance(Object refered) {
     if (Config.USE_SOFT_REFS)
       return new SoftInMemoryCachedReference(refered);
@@ -14,6 +29,17 @@ public abstract class InMemoryCachedReference {
       return new HardInMemoryCachedReference(refered);
   }
 
+  /**
+   * Returns a reference whose object is kept in memory while it fits in
+   * <code>budget</code>. If <code>budget</code> is null, it is the same than
+   * {@link #newInstance(Object)}.
+   */
+  public static InMemoryCachedReference newInstance(Object refered, long weight, MemoryBudget budget) {
+    if (budget == null)
+      return newInstance(refered);
+    return new BudgetedInMemoryCachedReference(refered, weight, budget);
+  }
+
   public static class SoftInMemoryCachedReference extends InMemoryCachedReference {
     SoftReference refered;
     public SoftInMemoryCachedReference(Object refered) {
@@ -36,6 +62,48 @@ public abstract class InMemoryCachedReference {
     }
   }
 
+  public static class BudgetedInMemoryCachedReference extends InMemoryCachedReference {
+    volatile Object refered;
+    volatile boolean referenced;
+    final long weight;
+    boolean inBudget; // Guarded by the budget
+    private MemoryBudget budget;
+
+    public BudgetedInMemoryCachedReference(Object refered, long weight, MemoryBudget budget) {
+      this.refered = refered;
+      this.weight = weight;
+      this.budget = budget;
+      budget.add(this);
+    }
+
+    public Object get() {
+      Object o = this.refered;
+      if (o != null) {
+        this.referenced = true;
+        this.budget.hit();
+      } else {
+        this.budget.miss();
+      }
+      return o;
+    }
+
+    public Object peek() {
+      return this.refered;
+    }
+
+    public void release() {
+      this.budget.remove(this);
+    }
+
+    /**
+     * Returns true if the refered object has been released to fit in the
+     * budget.
+     */
+    public boolean isEvicted() {
+      return this.refered == null;
+    }
+  }
+
 //  public static class TestHeavyObject {
 //    java.util.HashMap t = new java.util.HashMap();
 //    TestHeavyObject() {
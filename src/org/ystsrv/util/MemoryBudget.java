@@ -0,0 +1,177 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the memory used by a set of cached objects (see {@link
+ * InMemoryCachedReference.BudgetedInMemoryCachedReference}). Each object has a
+ * weight (usually its size in bytes) and, when the total weight exceeds the
+ * budget, the least recently used objects are released. The recency of use is
+ * approximated using the CLOCK (second chance) algorithm, so reading a cached
+ * object takes no locks.
+ *
+ * <p>The budget keeps counters of hits, misses, loads and evictions.
+ *
+ * @author Francisco Jos Garca Izquierdo
+ * @version 1.0
+ */
+public class MemoryBudget {
+
+  private long maxWeight;
+
+  // Guarded by this
+  private long usedWeight;
+  private List entries = new ArrayList();
+  private int hand;
+  private int released;
+
+  private AtomicLong hits = new AtomicLong();
+  private AtomicLong misses = new AtomicLong();
+  private AtomicLong loads = new AtomicLong();
+  private AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Creates a budget of <code>maxWeight</code>.
+   *
+   * @param maxWeight long
+   */
+  public MemoryBudget(long maxWeight) {
+    this.maxWeight = maxWeight;
+  }
+
+  synchronized void add(InMemoryCachedReference.BudgetedInMemoryCachedReference entry) {
+    this.entries.add(entry);
+    entry.inBudget = true;
+    this.usedWeight += entry.weight;
+    this.loads.incrementAndGet();
+    evict(entry);
+  }
+
+  synchronized void remove(InMemoryCachedReference.BudgetedInMemoryCachedReference entry) {
+    if (entry.inBudget) {
+      entry.inBudget = false;
+      this.usedWeight -= entry.weight;
+      this.released++;
+      if (this.released > this.entries.size() / 2)
+        purge();
+    }
+  }
+
+  void hit() {
+    this.hits.incrementAndGet();
+  }
+
+  void miss() {
+    this.misses.incrementAndGet();
+  }
+
+  // Releases entries (but never the new one) until the used weight fits in the budget
+  private void evict(InMemoryCachedReference.BudgetedInMemoryCachedReference newEntry) {
+    int checked = 0;
+    int limit = 2 * this.entries.size();
+    while (this.usedWeight > this.maxWeight && checked++ < limit && !this.entries.isEmpty()) {
+      if (this.hand >= this.entries.size())
+        this.hand = 0;
+      InMemoryCachedReference.BudgetedInMemoryCachedReference entry =
+          (InMemoryCachedReference.BudgetedInMemoryCachedReference)this.entries.get(this.hand);
+      if (!entry.inBudget) {
+        this.entries.remove(this.hand);
+        this.released--;
+      } else if (entry == newEntry) {
+        this.hand++;
+      } else if (entry.referenced) {
+        entry.referenced = false; // Second chance
+        this.hand++;
+      } else {
+        this.entries.remove(this.hand);
+        entry.inBudget = false;
+        entry.refered = null;
+        this.usedWeight -= entry.weight;
+        this.evictions.incrementAndGet();
+      }
+    }
+  }
+
+  private void purge() {
+    List alive = new ArrayList(this.entries.size() - this.released);
+    for (int i = 0; i < this.entries.size(); i++) {
+      InMemoryCachedReference.BudgetedInMemoryCachedReference entry =
+          (InMemoryCachedReference.BudgetedInMemoryCachedReference)this.entries.get(i);
+      if (entry.inBudget)
+        alive.add(entry);
+    }
+    this.entries = alive;
+    this.released = 0;
+    this.hand = 0;
+  }
+
+  public long getMaxWeight() {
+    return this.maxWeight;
+  }
+
+  public synchronized long getUsedWeight() {
+    return this.usedWeight;
+  }
+
+  public synchronized int getSize() {
+    return this.entries.size() - this.released;
+  }
+
+  public long getHits() {
+    return this.hits.get();
+  }
+
+  public long getMisses() {
+    return this.misses.get();
+  }
+
+  public long getLoads() {
+    return this.loads.get();
+  }
+
+  public long getEvictions() {
+    return this.evictions.get();
+  }
+
+  public String toString() {
+    return "MemoryBudget [used " + getUsedWeight() + " of " + this.maxWeight + " in " +
+        getSize() + " objects; hits " + getHits() + ", misses " + getMisses() +
+        ", loads " + getLoads() + ", evictions " + getEvictions() + "]";
+  }
+}
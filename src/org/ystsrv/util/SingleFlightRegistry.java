@@ -0,0 +1,165 @@
+/*
+ *  Yeast-Server for Java
+ *
+ *  Copyright (c) 2011, Francisco Jos Garca Izquierdo. University of La
+ *  Rioja. Mathematics and Computer Science Department. All Rights Reserved.
+ *
+ *  Contributing Author(s):
+ *
+ *     Francisco J. Garca Iquierdo <francisco.garcia@unirioja.es>
+ *
+ *  COPYRIGHT PERMISSION STATEMENT:
+ *
+ *  This file is part of Yeast-Server for Java.
+ *
+ *  Yeast-Server for Java is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 3 of the
+ *  License, or any later version.
+ *
+ *  Yeast-Server for Java is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *  This software uses and includes a modificaction of jTidy-SNAPSHOT 8.0
+ *  (Copyright (c) 1998-2000 World Wide Web Consortium).
+ *  
+ *  This software uses and includes a modificaction of Rhino JavaScript 1.7R1
+ *  (see license at https://developer.mozilla.org/en/Rhino_License).
+ *
+ */
+package org.ystsrv.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.ystsrv.YSTException;
+
+/**
+ * Concurrent cache of objects that are expensive to build (templates, template
+ * stores, ...). Lookups of already built objects take no locks. When several
+ * threads ask at the same time for an object that is not built yet, only one
+ * of them builds it (single-flight) and the rest wait for the result. If the
+ * building fails, all of them receive the exception and nothing is cached, so
+ * the next request will try again.
+ *
+ * @author Francisco Jos Garca Izquierdo
+ * @version 1.0
+ */
+public class SingleFlightRegistry {
+
+  /**
+   * Builds the object associated to a key of the registry.
+   */
+  public interface Loader {
+    Object load() throws IOException, YSTException;
+  }
+
+  // Values are the built objects or, while they are being built, Pending tasks
+  private ConcurrentMap entries = new ConcurrentHashMap();
+
+  // Task building an entry of the registry
+  private static class Pending extends FutureTask {
+    Pending(Callable c) {
+      super(c);
+    }
+  }
+
+  /**
+   * Returns the object associated to <code>key</code>, or null if it is not
+   * built yet.
+   *
+   * @param key Object
+   * @return Object
+   */
+  public Object get(Object key) {
+    Object value = entries.get(key);
+    return (value instanceof Pending) ? null : value;
+  }
+
+  /**
+   * Returns the object associated to <code>key</code>. If it does not exist,
+   * it is built using <code>loader</code>; concurrent calls for the same key
+   * will wait for that only building.
+   *
+   * @param key Object
+   * @param loader Loader used to build the object if it is not in the registry
+   * @return Object
+   * @throws IOException thrown by the loader, or if the thread is interrupted
+   *   while waiting for another thread to build the object
+   * @throws YSTException thrown by the loader
+   */
+  public Object getOrLoad(final Object key, final Loader loader) throws IOException, YSTException {
+    Object value = entries.get(key);
+    if (value != null && !(value instanceof Pending))
+      return value;
+
+    if (value == null) {
+      Pending task = new Pending(new Callable() {
+        public Object call() throws Exception {
+          return loader.load();
+        }
+      });
+      value = entries.putIfAbsent(key, task);
+      if (value == null) {
+        // This thread builds the object
+        value = task;
+        task.run();
+      } else if (!(value instanceof Pending)) {
+        return value;
+      }
+    }
+
+    Pending pending = (Pending)value;
+    try {
+      Object result = pending.get();
+      entries.replace(key, pending, result);
+      return result;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException io = new InterruptedIOException("Interrupted while waiting for " + key);
+      io.initCause(ex);
+      throw io;
+    } catch (ExecutionException ex) {
+      entries.remove(key, pending);
+      Throwable cause = ex.getCause();
+      if (cause instanceof IOException)
+        throw (IOException)cause;
+      if (cause instanceof YSTException)
+        throw (YSTException)cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+      if (cause instanceof Error)
+        throw (Error)cause;
+      throw new YSTException(cause);
+    }
+  }
+
+  /**
+   * Removes the object associated to <code>key</code>.
+   *
+   * @param key Object
+   */
+  public void remove(Object key) {
+    entries.remove(key);
+  }
+
+  /**
+   * Returns the number of objects in the registry (including those that are
+   * being built).
+   *
+   * @return int
+   */
+  public int size() {
+    return entries.size();
+  }
+}
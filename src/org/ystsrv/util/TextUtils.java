@@ -34,52 +34,143 @@
  */
 package org.ystsrv.util;
 
+import java.io.IOException;
+
 public class TextUtils {
+
+  // Escape sequence of each ASCII character inside a JavaScript string
+  // literal. null if the character is copied as is
+  private static final String[] JS_ESCAPES = new String[128];
+
+  // The same, but also escaping the characters that could be taken as markup
+  // by the HTML or XML parser that reads the <script> block
+  private static final String[] HTML_SAFE_ESCAPES = new String[128];
+
+  static {
+    for (int c = 0; c < ' '; c++) {
+      String t = "000" + Integer.toHexString(c);
+      JS_ESCAPES[c] = "\\u" + t.substring(t.length() - 4);
+    }
+    JS_ESCAPES['"'] = "\\\"";
+    JS_ESCAPES['\''] = "\\'";
+    JS_ESCAPES['\\'] = "\\\\";
+    JS_ESCAPES['/'] = "\\/";
+    JS_ESCAPES['\b'] = "\\b";
+    JS_ESCAPES['\t'] = "\\t";
+    JS_ESCAPES['\n'] = "\\n";
+    JS_ESCAPES['\f'] = "\\f";
+    JS_ESCAPES['\r'] = "\\r";
+
+    System.arraycopy(JS_ESCAPES, 0, HTML_SAFE_ESCAPES, 0, JS_ESCAPES.length);
+    HTML_SAFE_ESCAPES['<'] = "\\u003c";
+    HTML_SAFE_ESCAPES['>'] = "\\u003e";
+    HTML_SAFE_ESCAPES['&'] = "\\u0026";
+  }
+
+  private static final char LINE_SEPARATOR = (char)0x2028;
+  private static final char PARAGRAPH_SEPARATOR = (char)0x2029;
+
   public static String escape(String str) {
+    return escape(str, false);
+  }
+
+  /**
+   * Returns the JavaScript escaped version of <code>str</code>, ready to be
+   * enclosed in quotes. If no character needs to be escaped,
+   * <code>str</code> itself is returned.
+   *
+   * @param str String It can be null
+   * @param htmlSafe If true, <code>&lt;</code>, <code>&gt;</code>,
+   *   <code>&amp;</code> and the unicode line separators are also escaped
+   * @return String
+   */
+  public static String escape(String str, boolean htmlSafe) {
     if (str == null) {
       return str;
     }
-    StringBuffer strb = new StringBuffer();
-    for (int i = 0; i < str.length(); i++) {
-      char c = str.charAt(i);
-      switch (c) {
-        case '"':
-        case '\'':
-        case '\\':
-          strb.append('\\');
-          strb.append(c);
-          break;
-        case '/':
-          strb.append("\\/");
-          break;
-        case '\b':
-          strb.append("\\b");
-          break;
-        case '\t':
-          strb.append("\\t");
-          break;
-        case '\n':
-          strb.append("\\n");
-          break;
-        case '\f':
-          strb.append("\\f");
-          break;
-        case '\r':
-          strb.append("\\r");
-          break;
-        default:
-          if (c < ' ') {
-            String t = "000" + Integer.toHexString(c);
-            strb.append("\\u").append(t.substring(t.length() - 4));
-          } else {
-            strb.append(c);
-          }
+    String[] table = htmlSafe ? HTML_SAFE_ESCAPES : JS_ESCAPES;
+    int len = str.length();
+    int i = 0;
+    while (i < len && escapeOf(str.charAt(i), table) == null) i++;
+    if (i == len)
+      return str;
+
+    StringBuffer strb = new StringBuffer(len + 16);
+    strb.append(str, 0, i);
+    escape(str, i, strb, table);
+    return strb.toString();
+  }
+
+  public static void escape(CharSequence str, StringBuffer strb) {
+    escape(str, strb, false);
+  }
+
+  /**
+   * Appends to <code>strb</code> the JavaScript escaped version of
+   * <code>str</code>, without building an intermediate string. The runs of
+   * characters that do not need to be escaped are appended at once.
+   *
+   * @param str CharSequence It can not be null
+   * @param strb StringBuffer
+   * @param htmlSafe If true, <code>&lt;</code>, <code>&gt;</code>,
+   *   <code>&amp;</code> and the unicode line separators are also escaped
+   */
+  public static void escape(CharSequence str, StringBuffer strb, boolean htmlSafe) {
+    escape(str, 0, strb, htmlSafe ? HTML_SAFE_ESCAPES : JS_ESCAPES);
+  }
+
+  /**
+   * Appends to <code>out</code> the JavaScript escaped version of
+   * <code>str</code>. <code>out</code> can be any character sink, e.g. a
+   * {@link ChunkedEncoder}, so the escaped text is directly encoded.
+   *
+   * @param str CharSequence It can not be null
+   * @param out Appendable
+   * @param htmlSafe If true, <code>&lt;</code>, <code>&gt;</code>,
+   *   <code>&amp;</code> and the unicode line separators are also escaped
+   * @throws IOException Any error appending to <code>out</code>
+   */
+  public static void escape(CharSequence str, Appendable out, boolean htmlSafe) throws IOException {
+    escape(str, 0, out, htmlSafe ? HTML_SAFE_ESCAPES : JS_ESCAPES);
+  }
+
+  private static void escape(CharSequence str, int from, StringBuffer out, String[] table) {
+    int len = str.length();
+    int run = from; // Comienzo de los caracteres pendientes de copiar
+    for (int i = from; i < len; i++) {
+      String esc = escapeOf(str.charAt(i), table);
+      if (esc != null) {
+        if (run < i) out.append(str, run, i);
+        out.append(esc);
+        run = i + 1;
       }
     }
-    return strb.toString();
+    if (run < len) out.append(str, run, len);
   }
 
+  // Igual que el anterior, para cualquier Appendable
+  private static void escape(CharSequence str, int from, Appendable out, String[] table) throws IOException {
+    int len = str.length();
+    int run = from; // Comienzo de los caracteres pendientes de copiar
+    for (int i = from; i < len; i++) {
+      String esc = escapeOf(str.charAt(i), table);
+      if (esc != null) {
+        if (run < i) out.append(str, run, i);
+        out.append(esc);
+        run = i + 1;
+      }
+    }
+    if (run < len) out.append(str, run, len);
+  }
 
+  private static String escapeOf(char c, String[] table) {
+    if (c < 128)
+      return table[c];
+    else if (table == HTML_SAFE_ESCAPES && (c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR))
+      return (c == LINE_SEPARATOR ? "\\u2028" : "\\u2029");
+    else
+      return null;
+  }
 
   public static String escapeNew(String str) {
     if (str == null) {
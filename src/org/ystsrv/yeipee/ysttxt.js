@@ -141,6 +141,18 @@ YST.Aux = {
   }
 }
 
+YST.Model = {
+  // Rebuilds the objects of a collection transformed with the columnar
+  // encoding (BeanCollectionTransformer). row(i, columns) runs the format
+  // string for the row i; the rows whose index is in skip were null
+  hydrate : function (n, row, columns, skip) {
+    for (var i = 0; i < n; i++) {
+      if (skip && skip[i]) continue;
+      row(i, columns);
+    }
+  }
+}
+
 YST.txtProcessing = false;
 
 YST.Txt = {